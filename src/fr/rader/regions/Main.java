@@ -28,8 +28,6 @@ public class Main {
 
         Chunk chunk = regionFile.getChunkAt(0, 0);*/
 
-        //chunk.getBlockStateAt(0, 0, 0);
-
         /*NBTEditor editor = new NBTEditor();
         editor.invokeEditor(chunk.getNBT());*/
 
@@ -0,0 +1,172 @@
+package fr.rader.regions.mca;
+
+import fr.rader.regions.nbt.NBTFormatException;
+import fr.rader.regions.nbt.NBTView;
+import fr.rader.regions.nbt.tags.TagBase;
+import fr.rader.regions.nbt.tags.TagCompound;
+import fr.rader.regions.nbt.tags.TagString;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Immutable block state, made of a block name and its properties.
+ * Two states with the same name and properties are equal, whatever the order of the properties.
+ * <p>
+ * {@link #intern()} returns the canonical instance of a state from the {@link BlockStateRegistry},
+ * which also gives it a dense int ID.
+ */
+public final class BlockState {
+
+    private final String name;
+    private final SortedMap<String, String> properties;
+    private final int hash;
+
+    // only set on the canonical instance, by the registry
+    private int id = -1;
+
+    private BlockState(String name, SortedMap<String, String> properties) {
+        if(name == null) throw new IllegalArgumentException("Block name is null");
+
+        this.name = name;
+        this.properties = properties;
+        this.hash = 31 * name.hashCode() + properties.hashCode();
+    }
+
+    public static BlockState of(String name) {
+        return new BlockState(name, Collections.emptySortedMap());
+    }
+
+    public static BlockState of(String name, Map<String, String> properties) {
+        if(properties == null || properties.isEmpty()) {
+            return of(name);
+        }
+
+        return new BlockState(name, Collections.unmodifiableSortedMap(new TreeMap<>(properties)));
+    }
+
+    /**
+     * Create a state from a palette entry
+     * @param tag Compound holding a <code>Name</code> string and an optional <code>Properties</code> compound
+     * @exception NBTFormatException if the compound has no <code>Name</code> string
+     */
+    public static BlockState fromTag(TagCompound tag) {
+        String name = tag.getString("Name", null);
+        if(name == null) {
+            throw new NBTFormatException("[BlockState] -> [#fromTag(tag)] palette entry has no Name string");
+        }
+
+        TagCompound properties = tag.getCompound("Properties");
+        if(properties == null) {
+            return of(name);
+        }
+
+        SortedMap<String, String> map = new TreeMap<>();
+        for(TagBase property : properties.getTags()) {
+            if(property instanceof TagString) {
+                map.put(property.getName(), ((TagString) property).getValue());
+            }
+        }
+
+        return new BlockState(name, Collections.unmodifiableSortedMap(map));
+    }
+
+    /**
+     * Create a state from a view over a palette entry
+     * @exception NBTFormatException if the entry has no <code>Name</code> string
+     */
+    public static BlockState fromView(NBTView view) {
+        NBTView nameView = view.get("Name");
+        if(nameView == null || nameView.getTagID() != TagString.TAG_ID) {
+            throw new NBTFormatException("[BlockState] -> [#fromView(view)] palette entry has no Name string");
+        }
+
+        String name = nameView.getAsString();
+
+        NBTView properties = view.get("Properties");
+        if(properties == null || properties.getTagID() != TagCompound.TAG_ID) {
+            return of(name);
+        }
+
+        SortedMap<String, String> map = new TreeMap<>();
+        for(NBTView property : properties.getEntries()) {
+            if(property.getTagID() == TagString.TAG_ID) {
+                map.put(property.getName(), property.getAsString());
+            }
+        }
+
+        return new BlockState(name, Collections.unmodifiableSortedMap(map));
+    }
+
+    /**
+     * @return a new palette entry holding this state
+     */
+    public TagCompound toTag() {
+        TagCompound tag = new TagCompound();
+        tag.add(new TagString("Name", name));
+
+        if(!properties.isEmpty()) {
+            TagCompound propertiesTag = new TagCompound("Properties");
+
+            for(Map.Entry<String, String> property : properties.entrySet()) {
+                propertiesTag.add(new TagString(property.getKey(), property.getValue()));
+            }
+
+            tag.add(propertiesTag);
+        }
+
+        return tag;
+    }
+
+    /**
+     * @return the canonical instance of this state
+     */
+    public BlockState intern() {
+        return (id != -1) ? this : BlockStateRegistry.intern(this);
+    }
+
+    /**
+     * @return the dense ID of this state in the {@link BlockStateRegistry}
+     */
+    public int getID() {
+        return (id != -1) ? id : intern().id;
+    }
+
+    void setID(int id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getProperty(String key) {
+        return properties.get(key);
+    }
+
+    public SortedMap<String, String> getProperties() {
+        return properties;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if(this == object) return true;
+        if(!(object instanceof BlockState)) return false;
+
+        BlockState state = (BlockState) object;
+
+        return hash == state.hash && name.equals(state.name) && properties.equals(state.properties);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return properties.isEmpty() ? name : name + properties;
+    }
+}
@@ -0,0 +1,73 @@
+package fr.rader.regions.mca;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global registry interning every block state and giving each unique state a dense int ID.
+ * IDs are given in the order states are first seen, and never change for the lifetime of the JVM.
+ */
+public class BlockStateRegistry {
+
+    private static final Map<BlockState, BlockState> STATES = new ConcurrentHashMap<>();
+    private static final Object LOCK = new Object();
+
+    private static volatile BlockState[] byID = new BlockState[256];
+    private static volatile int size = 0;
+
+    public static final BlockState AIR = BlockState.of("minecraft:air").intern();
+
+    /**
+     * @return the canonical instance of <code>state</code>, registering it if it was never seen before
+     */
+    public static BlockState intern(BlockState state) {
+        BlockState canonical = STATES.get(state);
+        if(canonical != null) {
+            return canonical;
+        }
+
+        synchronized(LOCK) {
+            canonical = STATES.get(state);
+            if(canonical != null) {
+                return canonical;
+            }
+
+            // the first instance we see becomes the canonical one
+            canonical = state;
+            canonical.setID(size);
+
+            BlockState[] states = byID;
+            if(size == states.length) {
+                states = Arrays.copyOf(states, size * 2);
+            }
+
+            states[size] = canonical;
+            byID = states;
+            size++;
+
+            STATES.put(canonical, canonical);
+        }
+
+        return canonical;
+    }
+
+    public static int getID(BlockState state) {
+        return state.getID();
+    }
+
+    public static BlockState get(int id) {
+        if(id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("[BlockStateRegistry] -> [#get(id)] id must be between 0 and " + (size - 1) + " (id is " + id + ")");
+        }
+
+        return byID[id];
+    }
+
+    /**
+     * @return number of registered states, every ID is smaller than this
+     */
+    public static int size() {
+        return size;
+    }
+}
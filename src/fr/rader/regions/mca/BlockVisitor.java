@@ -0,0 +1,10 @@
+package fr.rader.regions.mca;
+
+/**
+ * Receives the blocks decoded by the <code>forEachBlock</code> methods
+ */
+@FunctionalInterface
+public interface BlockVisitor {
+
+    void visit(int x, int y, int z, BlockState state);
+}
@@ -1,67 +1,650 @@
 package fr.rader.regions.mca;
 
+import fr.rader.regions.nbt.NBTFormatException;
+import fr.rader.regions.nbt.NBTLimits;
+import fr.rader.regions.nbt.NBTPath;
+import fr.rader.regions.nbt.NBTReadContext;
+import fr.rader.regions.nbt.NBTView;
+import fr.rader.regions.nbt.tags.TagBase;
+import fr.rader.regions.nbt.tags.TagByte;
 import fr.rader.regions.nbt.tags.TagCompound;
+import fr.rader.regions.nbt.tags.TagInt;
 import fr.rader.regions.nbt.tags.TagList;
 import fr.rader.regions.utils.DataReader;
+import fr.rader.regions.utils.DataWriter;
+import fr.rader.regions.utils.HashingDataWriter;
+import fr.rader.regions.utils.HashingInputStream;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.ZipException;
 
 public class Chunk {
 
+    private static final NBTPath SECTIONS_PATH = NBTPath.compile("Level.Sections[*]");
+
+    // lists that block editing doesn't need, they are kept as raw bytes until they are accessed
+    private static final String[] LAZY_PATHS = {
+            "Level.Entities",
+            "Level.TileEntities",
+            "Level.TileTicks",
+            "Level.LiquidTicks"
+    };
+
     private TagCompound data;
 
     private Section[] sections = new Section[16];
 
     private int lastUpdate;
 
+    // sections created during a batch join it
+    private int batchDepth = 0;
+
+    // new chunks use the layout of the current version
+    private int dataVersion = Section.PADDED_BLOCK_STATES_VERSION;
+
+    // content hash of the data as it was read, used to know if the chunk has to be written again
+    private long savedHash;
+
+    // chunks loaded from a view have no data to write the sections back to
+    private boolean readOnly = false;
+
     public Chunk(int lastUpdate) {
         this.lastUpdate = lastUpdate;
     }
 
     public void deserialize(RandomAccessFile raf) throws IOException {
-        DataReader reader = new DataReader(DataCompression.decompress(raf));
-        data = reader.readNBT();
+        deserialize(raf, NBTLimits.CHUNK);
+    }
+
+    /**
+     * Read the chunk at the current position of the file
+     * @param limits Limits checked while decoding the chunk data, {@link NBTLimits#CHUNK} by default
+     * @exception ChunkReadException when the chunk data is corrupt or goes over the limits
+     * @exception IOException when an I/O error occurs.
+     */
+    public void deserialize(RandomAccessFile raf, NBTLimits limits) throws IOException {
+        // nothing is kept from a previous read, even if this one fails
+        clear();
+        readOnly = false;
+
+        try {
+            HashingInputStream inputStream = new HashingInputStream(DataCompression.decompress(raf));
+
+            NBTReadContext context = new NBTReadContext(limits);
+            context.setLazyPaths(LAZY_PATHS);
+
+            DataReader reader = new DataReader(inputStream);
+            reader.setNBTContext(context);
+
+            data = reader.readNBT();
+            savedHash = inputStream.getHash();
+
+            // sections are built here too, corrupt block states or palettes are reported like the rest of the data
+            if(data != null) {
+                loadSections();
+            }
+        } catch (EOFException | ZipException | NBTFormatException e) {
+            clear();
+            throw new ChunkReadException("[Chunk] -> [#deserialize(raf, limits)] corrupt chunk data: " + e.getMessage(), e);
+        } catch (UncheckedIOException e) {
+            clear();
+            throw new ChunkReadException("[Chunk] -> [#deserialize(raf, limits)] corrupt chunk data: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
 
-        TagList<TagCompound> tagSections = data.get("Level").getAsTagCompound().get("Sections").getAsCompoundList();
+    private void loadSections() {
+        dataVersion = data.getInt("DataVersion", 0);
 
-        for(TagCompound sectionTag : tagSections) {
-            int sectionIndex = sectionTag.get("Y").getAsByte();
+        SECTIONS_PATH.forEach(data, tag -> {
+            if(!(tag instanceof TagCompound)) {
+                return;
+            }
+
+            TagCompound sectionTag = (TagCompound) tag;
+
+            int sectionIndex = sectionTag.getByte("Y", (byte) -1);
             if(sectionIndex < 0 || sectionIndex > 15) {
-                continue;
+                return;
             }
 
-            Section section = new Section(sectionTag);
+            Section section = new Section(sectionTag, dataVersion);
             if(section.isEmpty()) {
-                continue;
+                return;
             }
 
             sections[sectionIndex] = section;
+        });
+    }
+
+    private void clear() {
+        data = null;
+        sections = new Section[16];
+    }
+
+    private boolean hasSections() {
+        for(Section section : sections) {
+            if(section != null) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Load the sections from a view over the decompressed chunk, without building the chunk compound.
+     * Chunks loaded this way are read-only, they don't keep the rest of the chunk data
+     * @param root View over the chunk compound, see {@link DataCompression#decompressToBuffer(RandomAccessFile, NBTLimits)}
+     * @exception ChunkReadException when the chunk data is corrupt or goes over the limits of the view
+     */
+    public void deserialize(NBTView root) throws ChunkReadException {
+        // nothing is kept from a previous read, even if this one fails
+        clear();
+        readOnly = true;
+
+        if(root == null || root.getTagID() != TagCompound.TAG_ID) {
+            throw new ChunkReadException("[Chunk] -> [#deserialize(root)] chunk data is not a compound", null);
+        }
+
+        try {
+            NBTView dataVersionView = root.get("DataVersion");
+            dataVersion = (dataVersionView != null && dataVersionView.getTagID() == TagInt.TAG_ID) ? dataVersionView.getAsInt() : 0;
+
+            SECTIONS_PATH.forEach(root, sectionView -> {
+                if(sectionView.getTagID() != TagCompound.TAG_ID) {
+                    return;
+                }
+
+                // same as loadSections(), sections without a Y byte are skipped
+                NBTView yView = sectionView.get("Y");
+                if(yView == null || yView.getTagID() != TagByte.TAG_ID) {
+                    return;
+                }
+
+                int sectionIndex = yView.getAsByte();
+                if(sectionIndex < 0 || sectionIndex > 15) {
+                    return;
+                }
+
+                Section section = new Section(sectionView, dataVersion);
+                if(section.isEmpty()) {
+                    return;
+                }
+
+                sections[sectionIndex] = section;
+            });
+        } catch (NBTFormatException e) {
+            clear();
+            throw new ChunkReadException("[Chunk] -> [#deserialize(root)] corrupt chunk data: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the state of a block, or null if y is not between 0 and 255 or its section doesn't exist.
+     * Only the 4 lowest bits of the x and z coordinates are used
+     */
+    public BlockState getBlockStateAt(int x, int y, int z) {
+        if(y < 0 || y > 255) {
+            return null;
+        }
+
+        Section section = sections[y >> 4];
+
+        return (section != null) ? section.getBlockStateAt(x, y, z) : null;
+    }
+
+    /**
+     * Call <code>visitor</code> for every block of the existing sections, a section at a time.
+     * The x and z coordinates given to the visitor go from 0 to 15, y from 0 to 255
+     */
+    public void forEachBlock(BlockVisitor visitor) {
+        for(int i = 0; i < sections.length; i++) {
+            Section section = sections[i];
+            if(section == null) {
+                continue;
+            }
+
+            int offsetY = i << 4;
+            section.forEachBlock((x, y, z, state) -> visitor.visit(x, offsetY + y, z, state));
+        }
+    }
+
+    /**
+     * Call <code>visitor</code> for every block matching <code>predicate</code>, skipping the sections whose
+     * palette has no matching state. The x and z coordinates given to the visitor go from 0 to 15, y from 0 to 255
+     */
+    public void findBlocks(Predicate<BlockState> predicate, BlockVisitor visitor) {
+        for(int i = 0; i < sections.length; i++) {
+            Section section = sections[i];
+            if(section == null) {
+                continue;
+            }
+
+            int offsetY = i << 4;
+            section.findBlocks(predicate, (x, y, z, state) -> visitor.visit(x, offsetY + y, z, state));
         }
     }
 
+    /**
+     * Check the palettes of the sections, without reading the blocks
+     * @return false if no block of the chunk can match <code>predicate</code>
+     */
+    public boolean mayContain(Predicate<BlockState> predicate) {
+        for(Section section : sections) {
+            if(section != null && section.mayContain(predicate)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the section at the given index (<code>y >> 4</code>), or null if it doesn't exist.
+     * The sections of a chunk loaded from a view must not be edited
+     */
+    public Section getSection(int sectionIndex) {
+        return sections[sectionIndex];
+    }
+
     public void setBlockStateAt(int x, int y, int z, TagCompound state) {
+        setBlockStateAt(x, y, z, BlockState.fromTag(state));
+    }
+
+    /**
+     * Only the 4 lowest bits of the x and z coordinates are used, y goes from 0 to 255
+     * @exception IllegalArgumentException if y is not between 0 and 255
+     * @exception IllegalStateException if the chunk was loaded from a view
+     */
+    public void setBlockStateAt(int x, int y, int z, BlockState state) {
+        checkWritable("setBlockStateAt(x, y, z, state)");
+
+        if(y < 0 || y > 255) {
+            throw new IllegalArgumentException("[Chunk] -> [#setBlockStateAt(x, y, z, state)] y must go from 0 to 255 (y is " + y + ")");
+        }
+
         int sectionIndex = y >> 4; // y >> 4 is the same as y / 16
 
+        getOrCreateSection(sectionIndex).setBlockStateAt(x, y, z, state);
+    }
+
+    private Section getOrCreateSection(int sectionIndex) {
         Section section = sections[sectionIndex];
 
         if(section == null) {
-            section = Section.createSection();
+            section = Section.createSection(dataVersion);
+            for(int i = 0; i < batchDepth; i++) {
+                section.beginBatch();
+            }
+
             sections[sectionIndex] = section;
         }
 
-        section.setBlockStateAt(x, y, z, state);
+        return section;
+    }
+
+    /**
+     * Set every block of a box, the bounds being inclusive. Only the 4 lowest bits of the x and z coordinates are used,
+     * y goes from 0 to 255. Missing sections are created, see {@link Section#fill(int, int, int, int, int, int, BlockState)}
+     */
+    public void fill(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, BlockState state) {
+        checkWritable("fill(minX, minY, minZ, maxX, maxY, maxZ, state)");
+        checkBox(minY, maxY);
+
+        for(int sectionIndex = minY >> 4; sectionIndex <= maxY >> 4; sectionIndex++) {
+            int fromY = Math.max(minY, sectionIndex << 4);
+            int toY = Math.min(maxY, (sectionIndex << 4) + 15);
+
+            getOrCreateSection(sectionIndex).fill(minX, fromY, minZ, maxX, toY, maxZ, state);
+        }
+    }
+
+    /**
+     * Replace the blocks of a box matching <code>predicate</code>, the bounds being inclusive. Only the 4 lowest bits
+     * of the x and z coordinates are used, y goes from 0 to 255. Missing sections are left as they are,
+     * see {@link Section#replace(int, int, int, int, int, int, Predicate, BlockState)}
+     */
+    public void replace(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, Predicate<BlockState> predicate, BlockState state) {
+        checkWritable("replace(minX, minY, minZ, maxX, maxY, maxZ, predicate, state)");
+        checkBox(minY, maxY);
+
+        for(int sectionIndex = minY >> 4; sectionIndex <= maxY >> 4; sectionIndex++) {
+            Section section = sections[sectionIndex];
+            if(section == null) {
+                continue;
+            }
+
+            int fromY = Math.max(minY, sectionIndex << 4);
+            int toY = Math.min(maxY, (sectionIndex << 4) + 15);
+
+            section.replace(minX, fromY, minZ, maxX, toY, maxZ, predicate, state);
+        }
+    }
+
+    private void checkBox(int minY, int maxY) {
+        if(minY < 0 || maxY > 255 || minY > maxY) {
+            throw new IllegalArgumentException("[Chunk] -> [#checkBox(minY, maxY)] y must go from 0 to 255 (box goes from " + minY + " to " + maxY + ")");
+        }
+    }
+
+    private void checkWritable(String method) {
+        if(readOnly) {
+            throw new IllegalStateException("[Chunk] -> [#" + method + "] chunk was loaded from a view, it is read-only");
+        }
+    }
+
+    /**
+     * Start a bulk edit on every section of the chunk, see {@link Section#beginBatch()}
+     * @exception IllegalStateException if the chunk was loaded from a view
+     */
+    public void beginBatch() {
+        checkWritable("beginBatch()");
+
+        batchDepth++;
+
+        for(Section section : sections) {
+            if(section != null) {
+                section.beginBatch();
+            }
+        }
+    }
+
+    /**
+     * End a bulk edit, repacking the sections whose palette outgrew their block states
+     * @exception IllegalStateException if no batch was started
+     */
+    public void endBatch() {
+        if(batchDepth == 0) {
+            throw new IllegalStateException("[Chunk] -> [#endBatch()] no batch was started");
+        }
+
+        batchDepth--;
+
+        for(Section section : sections) {
+            if(section != null) {
+                section.endBatch();
+            }
+        }
+    }
+
+    /**
+     * Write the modified sections back to the chunk compound
+     * @return the chunk compound
+     */
+    public TagCompound serialize() {
+        if(data == null) {
+            throw new IllegalStateException("[Chunk] -> [#serialize()] chunk was loaded from a view, it has no data to serialize");
+        }
+
+        writeSections(data, true);
+
+        return data;
+    }
+
+    /**
+     * Write the chunk compound as {@link #serialize()} would make it, without changing or copying it. Only the
+     * compounds leading to the modified sections are written entry by entry, with the palette and the block states
+     * of the sections in place of the ones they hold, everything else is written as it is. Pending batches are left as they are
+     */
+    private void writeSerialized(DataWriter writer) {
+        if(data == null) {
+            throw new IllegalStateException("[Chunk] -> [#writeSerialized(writer)] chunk was loaded from a view, it has no data to serialize");
+        }
+
+        boolean modified = false;
+        for(Section section : sections) {
+            modified |= section != null && section.isModified();
+        }
+
+        if(!modified) {
+            data.write(writer);
+            return;
+        }
+
+        List<TagBase> entries = new ArrayList<>(data.getTags());
+
+        TagBase level = find(entries, "Level");
+        if(!(level instanceof TagCompound)) {
+            throw new IllegalStateException("[Chunk] -> [#writeSerialized(writer)] chunk has no Level compound");
+        }
+
+        writeCompound(writer, data.getName(), entries, level, levelWriter -> writeSerializedLevel(levelWriter, (TagCompound) level));
+    }
+
+    private void writeSerializedLevel(DataWriter writer, TagCompound level) {
+        List<TagBase> entries = new ArrayList<>(level.getTags());
+
+        // a missing list, or a list of something else, is replaced by a new list
+        TagBase sectionsTag = find(entries, "Sections");
+        if(!(sectionsTag instanceof TagList) || ((TagList<?>) sectionsTag).getChildrenID() != TagCompound.TAG_ID) {
+            TagList<TagCompound> empty = new TagList<>(TagCompound.class, "Sections");
+
+            if(sectionsTag != null) {
+                entries.set(entries.indexOf(sectionsTag), empty);
+            } else {
+                entries.add(empty);
+            }
+
+            sectionsTag = empty;
+        }
+
+        TagList<TagCompound> tagSections = ((TagList<?>) sectionsTag).getAsCompoundList();
+        writeCompound(writer, level.getName(), entries, sectionsTag, sectionsWriter -> writeSerializedSections(sectionsWriter, tagSections));
+    }
+
+    private void writeSerializedSections(DataWriter writer, TagList<TagCompound> tagSections) {
+        List<TagCompound> elements = new ArrayList<>(tagSections.getTags());
+
+        // the compounds of the modified sections are only patched while they are written
+        TagCompound[] patches = new TagCompound[elements.size()];
+        boolean[] written = new boolean[sections.length];
+        for(int i = 0; i < elements.size(); i++) {
+            int sectionIndex = elements.get(i).getByte("Y", (byte) -1);
+            if(sectionIndex < 0 || sectionIndex > 15 || sections[sectionIndex] == null) {
+                continue;
+            }
+
+            if(sections[sectionIndex].isModified()) {
+                patches[i] = new TagCompound();
+                sections[sectionIndex].writeTo(patches[i]);
+            }
+
+            written[sectionIndex] = true;
+        }
+
+        for(int i = 0; i < sections.length; i++) {
+            if(sections[i] == null || written[i]) {
+                continue;
+            }
+
+            TagCompound sectionTag = new TagCompound();
+            writeSection(sections[i], sectionTag, false);
+            sectionTag.put(new TagByte("Y", i));
+            elements.add(sectionTag);
+        }
+
+        writer.writeByte(TagList.TAG_ID);
+        writer.writeModifiedUTF8(tagSections.getName());
+        writer.writeByte((writer.isCanonical() && elements.isEmpty()) ? 0 : TagCompound.TAG_ID);
+        writer.writeInt(elements.size());
+
+        for(int i = 0; i < elements.size(); i++) {
+            TagCompound patch = (i < patches.length) ? patches[i] : null;
+            if(patch == null) {
+                elements.get(i).write(writer);
+                continue;
+            }
+
+            // same as putting the tags of the patch in the section compound
+            List<TagBase> entries = new ArrayList<>(elements.get(i).getTags());
+            for(TagBase tag : patch.getTags()) {
+                TagBase replaced = find(entries, tag.getName());
+
+                if(replaced != null) {
+                    entries.set(entries.indexOf(replaced), tag);
+                } else {
+                    entries.add(tag);
+                }
+            }
+
+            writeCompound(writer, null, entries, null, null);
+        }
+    }
+
+    /**
+     * Write a compound made of <code>entries</code>, in the order {@link TagCompound#write(DataWriter)} would write them
+     * @param special Entry written by <code>specialWriter</code> instead of being written as it is, or null
+     */
+    private static void writeCompound(DataWriter writer, String name, List<TagBase> entries, TagBase special, Consumer<DataWriter> specialWriter) {
+        if(name != null) {
+            writer.writeByte(TagCompound.TAG_ID);
+            writer.writeModifiedUTF8(name);
+        }
+
+        if(writer.isCanonical() && entries.size() > 1) {
+            entries.sort(Comparator.comparing(TagBase::getName));
+        }
+
+        for(TagBase tag : entries) {
+            if(tag == special) {
+                specialWriter.accept(writer);
+            } else {
+                tag.write(writer);
+            }
+        }
+
+        writer.writeByte(0);
+    }
+
+    private static TagBase find(List<TagBase> entries, String name) {
+        for(TagBase tag : entries) {
+            if(tag.getName().equals(name)) {
+                return tag;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param commit true to make the written compounds the section compounds and clear the modified flags,
+     *               false to only write the modified sections to <code>root</code>
+     */
+    private void writeSections(TagCompound root, boolean commit) {
+        TagCompound level = root.getCompound("Level");
+        if(level == null) {
+            throw new IllegalStateException("[Chunk] -> [#writeSections(root, commit)] chunk has no Level compound");
+        }
+
+        TagList<?> sectionsTag = level.getList("Sections");
+        TagList<TagCompound> tagSections;
+        if(sectionsTag == null || sectionsTag.getChildrenID() != TagCompound.TAG_ID) {
+            // nothing to write, the chunk is left as it was read
+            if(!hasSections()) {
+                return;
+            }
+
+            tagSections = new TagList<>(TagCompound.class, "Sections");
+            level.put(tagSections);
+        } else {
+            tagSections = sectionsTag.getAsCompoundList();
+        }
+
+        // section compounds are fetched from the chunk compound every time they are written to,
+        // the ones held by the sections may have been frozen by a snapshot
+        boolean[] written = new boolean[sections.length];
+        for(int i = 0; i < tagSections.size(); i++) {
+            int sectionIndex = tagSections.getTags().get(i).getByte("Y", (byte) -1);
+            if(sectionIndex < 0 || sectionIndex > 15 || sections[sectionIndex] == null) {
+                continue;
+            }
+
+            if(commit || sections[sectionIndex].isModified()) {
+                writeSection(sections[sectionIndex], tagSections.get(i), commit);
+            }
+
+            written[sectionIndex] = true;
+        }
+
+        for(int i = 0; i < sections.length; i++) {
+            if(sections[i] == null || written[i]) {
+                continue;
+            }
+
+            TagCompound sectionTag = new TagCompound();
+            writeSection(sections[i], sectionTag, commit);
+            sectionTag.put(new TagByte("Y", i));
+            tagSections.add(sectionTag);
+        }
+    }
+
+    private void writeSection(Section section, TagCompound sectionTag, boolean commit) {
+        if(commit) {
+            section.serialize(sectionTag);
+        } else if(section.isModified()) {
+            section.writeTo(sectionTag);
+        }
+    }
+
+    /**
+     * Create an immutable snapshot of the chunk compound, which can be read from other threads
+     * while this chunk keeps being edited. Only the parts edited after the snapshot are copied
+     */
+    public TagCompound snapshot() {
+        return serialize().snapshot();
+    }
+
+    /**
+     * @return content hash of the serialized chunk, the chunk itself is not serialized
+     */
+    public long getContentHash() {
+        HashingDataWriter writer = new HashingDataWriter();
+        writeSerialized(writer);
+
+        return writer.getHash();
+    }
+
+    /**
+     * @return hash of the canonical encoding of the serialized chunk, chunks with the same content
+     * have the same canonical hash whatever order their tags are stored in
+     */
+    public long getCanonicalHash() {
+        HashingDataWriter writer = new HashingDataWriter();
+        writer.setCanonical(true);
+        writeSerialized(writer);
+
+        return writer.getHash();
+    }
+
+    /**
+     * @return true if the content of the chunk changed since it was read, and has to be written again.
+     * Always false for chunks loaded from a view, as they are read-only
+     */
+    public boolean hasChanged() {
+        return data != null && getContentHash() != savedHash;
     }
 
     public static Chunk createChunk() {
         Chunk chunk  = new Chunk(0);
-        chunk.data = new TagCompound();
+        chunk.data = new TagCompound("");
         chunk.data.add(new TagCompound("Level"));
 
         return chunk;
     }
 
+    /**
+     * Compact the palette and the block states of every section, see {@link Section#cleanUpBlocksAndPalettes()}
+     * @exception IllegalStateException if the chunk was loaded from a view
+     */
     public void cleanUpBlocksAndPalettes() {
+        checkWritable("cleanUpBlocksAndPalettes()");
+
         for(Section section : sections) {
             if(section != null) {
                 section.cleanUpBlocksAndPalettes();
@@ -0,0 +1,32 @@
+package fr.rader.regions.mca;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a chunk cannot be read, because its data is corrupt or goes over the
+ * {@link fr.rader.regions.nbt.NBTLimits} of the reader. Only this chunk is lost,
+ * the other chunks of the region can still be read.
+ */
+public class ChunkReadException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int chunkIndex;
+
+    public ChunkReadException(String message, Throwable cause) {
+        this(-1, message, cause);
+    }
+
+    public ChunkReadException(int chunkIndex, String message, Throwable cause) {
+        super(message, cause);
+
+        this.chunkIndex = chunkIndex;
+    }
+
+    /**
+     * @return index of the chunk in its region, or -1 if it is not known
+     */
+    public int getChunkIndex() {
+        return chunkIndex;
+    }
+}
@@ -1,10 +1,13 @@
 package fr.rader.regions.mca;
 
+import fr.rader.regions.nbt.NBTLimits;
 import fr.rader.regions.utils.DataReader;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
 
 public class DataCompression {
 
@@ -13,9 +16,45 @@ public class DataCompression {
 
     public static InputStream decompress(RandomAccessFile raf) throws IOException {
         int length = raf.readInt();
+
+        // the length is read from the file, don't trust it before allocating the buffer
+        if(length < 1 || length > raf.length() - raf.getFilePointer()) {
+            throw new ChunkReadException("[DataCompression] -> [#decompress(raf)] invalid chunk length: " + length, null);
+        }
+
         return decompress(raf.readByte(), new DataReader(raf).readFollowingBytes(length));
     }
 
+    public static ByteBuffer decompressToBuffer(RandomAccessFile raf) throws IOException {
+        return decompressToBuffer(raf, NBTLimits.CHUNK);
+    }
+
+    /**
+     * Decompress a chunk to a buffer, which can then be read with a {@link fr.rader.regions.nbt.NBTView}
+     * @param limits The chunk cannot decompress to more than {@link NBTLimits#getMaxBytes()} bytes
+     * @exception ChunkReadException when the compressed data is corrupt or decompresses to too many bytes
+     * @exception IOException when an I/O error occurs.
+     */
+    public static ByteBuffer decompressToBuffer(RandomAccessFile raf, NBTLimits limits) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try(InputStream inputStream = decompress(raf)) {
+            int length;
+            byte[] buffer = new byte[8192];
+            while((length = inputStream.read(buffer)) > 0) {
+                if(outputStream.size() + (long) length > limits.getMaxBytes()) {
+                    throw new ChunkReadException("[DataCompression] -> [#decompressToBuffer(raf, limits)] chunk decompresses to more than " + limits.getMaxBytes() + " bytes", null);
+                }
+
+                outputStream.write(buffer, 0, length);
+            }
+        } catch (EOFException | ZipException e) {
+            throw new ChunkReadException("[DataCompression] -> [#decompressToBuffer(raf, limits)] corrupt chunk data: " + e.getMessage(), e);
+        }
+
+        return ByteBuffer.wrap(outputStream.toByteArray());
+    }
+
     public static InputStream decompress(byte compressionType, byte[] data) throws IOException {
         switch(compressionType) {
             case VERSION_GZIP:
@@ -23,7 +62,7 @@ public class DataCompression {
             case VERSION_DEFLATE:
                 return new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)));
             default:
-                throw new IllegalStateException("[DataCompression] -> [#decompress(compressionType, data)] Unknown compression type: " + compressionType);
+                throw new ChunkReadException("[DataCompression] -> [#decompress(compressionType, data)] Unknown compression type: " + compressionType, null);
         }
     }
 }
@@ -0,0 +1,108 @@
+package fr.rader.regions.mca;
+
+import fr.rader.regions.nbt.NBTView;
+import fr.rader.regions.nbt.tags.TagCompound;
+import fr.rader.regions.nbt.tags.TagList;
+import fr.rader.regions.utils.IntIntMap;
+
+import java.util.Arrays;
+
+/**
+ * Palette of a section, mapping the local indices stored in the block states
+ * to the IDs of the {@link BlockStateRegistry}, and the other way around in constant time
+ */
+class Palette {
+
+    private int[] states;           // registry ID of every local index
+    private int size = 0;
+
+    private final IntIntMap indices; // registry ID -> local index
+
+    Palette() {
+        this(16);
+    }
+
+    Palette(int expectedSize) {
+        this.states = new int[Math.max(expectedSize, 1)];
+        this.indices = new IntIntMap(expectedSize);
+    }
+
+    static Palette fromTag(TagList<TagCompound> tag) {
+        Palette palette = new Palette(tag.size());
+
+        for(TagCompound state : tag) {
+            palette.append(BlockState.fromTag(state).getID());
+        }
+
+        return palette;
+    }
+
+    static Palette fromView(NBTView view) {
+        Palette palette = new Palette(view.size());
+
+        for(int i = 0; i < view.size(); i++) {
+            palette.append(BlockState.fromView(view.get(i)).getID());
+        }
+
+        return palette;
+    }
+
+    TagList<TagCompound> toTag() {
+        TagList<TagCompound> tag = new TagList<>(TagCompound.class, "Palette");
+
+        for(int i = 0; i < size; i++) {
+            tag.add(BlockStateRegistry.get(states[i]).toTag());
+        }
+
+        return tag;
+    }
+
+    /**
+     * @return local index of the state, or -1 if the palette does not contain it
+     */
+    int indexOf(int stateID) {
+        return indices.get(stateID, -1);
+    }
+
+    /**
+     * @return local index of the state, adding it at the end of the palette if needed
+     */
+    int add(int stateID) {
+        int index = indices.get(stateID, -1);
+        if(index != -1) {
+            return index;
+        }
+
+        return append(stateID);
+    }
+
+    /**
+     * @return registry ID of the state at the given local index
+     */
+    int get(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("[Palette] -> [#get(index)] index must be between 0 and " + (size - 1) + " (index is " + index + ")");
+        }
+
+        return states[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int append(int stateID) {
+        if(size == states.length) {
+            states = Arrays.copyOf(states, size * 2);
+        }
+
+        // palettes read from disk may contain the same state twice, the first index is kept for lookups
+        if(!indices.containsKey(stateID)) {
+            indices.put(stateID, size);
+        }
+
+        states[size] = stateID;
+
+        return size++;
+    }
+}
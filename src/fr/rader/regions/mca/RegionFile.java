@@ -1,10 +1,17 @@
 package fr.rader.regions.mca;
 
+import fr.rader.regions.nbt.NBTLimits;
 import fr.rader.regions.nbt.tags.TagCompound;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
 
 public class RegionFile {
 
@@ -13,6 +20,12 @@ public class RegionFile {
     private int regionX;
     private int regionZ;
 
+    // chunks added during a batch join it
+    private int batchDepth = 0;
+
+    private NBTLimits limits = NBTLimits.CHUNK;
+    private final List<ChunkReadException> errors = new ArrayList<>();
+
     public RegionFile(int regionX, int regionZ) {
         this.regionX = regionX;
         this.regionZ = regionZ;
@@ -22,8 +35,12 @@ public class RegionFile {
         deserialize(new RandomAccessFile(file, "r"));
     }
 
+    /**
+     * Read every chunk of the region. Corrupt chunks are left out, see {@link #getErrors()}
+     */
     public void deserialize(RandomAccessFile raf) throws IOException {
         this.chunks = new Chunk[1024];
+        this.errors.clear();
 
         for(int i = 0; i < 1024; i++) {
             raf.seek(i * 4);
@@ -40,16 +57,259 @@ public class RegionFile {
             int timestamp = raf.readInt();
             raf.seek(4096L * offset);
             Chunk chunk = new Chunk(timestamp);
-            chunk.deserialize(raf);
+            try {
+                chunk.deserialize(raf, limits);
+            } catch (ChunkReadException e) {
+                // only this chunk is lost, keep reading the region
+                errors.add(new ChunkReadException(i, e.getMessage(), e.getCause()));
+                continue;
+            }
 
             chunks[i] = chunk;
         }
     }
 
+    /**
+     * Set the limits checked while decoding the chunks, {@link NBTLimits#CHUNK} by default
+     */
+    public void setLimits(NBTLimits limits) {
+        if(limits == null) throw new IllegalArgumentException("Limits cannot be null");
+
+        this.limits = limits;
+    }
+
+    /**
+     * @return the chunks that could not be read by the last call to {@link #deserialize(RandomAccessFile)}
+     */
+    public List<ChunkReadException> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * @return the state of a block, or null if y is not between 0 and 255 or its chunk or its section doesn't exist
+     */
+    public BlockState getBlockStateAt(int x, int y, int z) {
+        Chunk chunk = getChunk(x >> 4, z >> 4);
+
+        return (chunk != null) ? chunk.getBlockStateAt(x, y, z) : null;
+    }
+
+    /**
+     * Call <code>visitor</code> for every block of the existing chunks and sections, a section at a time.
+     * The x and z coordinates given to the visitor go from 0 to 511, y from 0 to 255
+     */
+    public void forEachBlock(BlockVisitor visitor) {
+        if(chunks == null) {
+            return;
+        }
+
+        for(int i = 0; i < chunks.length; i++) {
+            Chunk chunk = chunks[i];
+            if(chunk == null) {
+                continue;
+            }
+
+            int offsetX = (i & 0x1f) << 4;
+            int offsetZ = (i >> 5) << 4;
+            chunk.forEachBlock((x, y, z, state) -> visitor.visit(offsetX + x, y, offsetZ + z, state));
+        }
+    }
+
+    /**
+     * Call <code>visitor</code> for every block of the region matching <code>predicate</code>. Only the sections
+     * whose palette holds a matching state are decoded, see {@link Section#findBlocks(Predicate, BlockVisitor)}.
+     * The x and z coordinates given to the visitor go from 0 to 511, y from 0 to 255
+     */
+    public void findBlocks(Predicate<BlockState> predicate, BlockVisitor visitor) {
+        if(chunks == null) {
+            return;
+        }
+
+        for(int i = 0; i < chunks.length; i++) {
+            Chunk chunk = chunks[i];
+            if(chunk == null) {
+                continue;
+            }
+
+            int offsetX = (i & 0x1f) << 4;
+            int offsetZ = (i >> 5) << 4;
+            chunk.findBlocks(predicate, (x, y, z, state) -> visitor.visit(offsetX + x, y, offsetZ + z, state));
+        }
+    }
+
     public void setBlockStateAt(int x, int y, int z, TagCompound state) {
         createChunkIfMissing(x, z).setBlockStateAt(x, y, z, state);
     }
 
+    public void setBlockStateAt(int x, int y, int z, BlockState state) {
+        createChunkIfMissing(x, z).setBlockStateAt(x, y, z, state);
+    }
+
+    /**
+     * Set every block of a box, the bounds being inclusive. The box is split by chunk and the chunks
+     * are filled in parallel, see {@link Section#fill(int, int, int, int, int, int, BlockState)}
+     */
+    public void fill(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, BlockState state) {
+        BlockState canonical = state.intern();
+
+        forEachChunk(minX, minZ, maxX, maxZ, true, (chunk, fromX, fromZ, toX, toZ) ->
+                chunk.fill(fromX, minY, fromZ, toX, maxY, toZ, canonical));
+    }
+
+    /**
+     * Replace the blocks of a box matching <code>predicate</code>, the bounds being inclusive. The chunks are
+     * processed in parallel, so the predicate must be thread safe. Missing chunks and sections are left as they are,
+     * see {@link Section#replace(int, int, int, int, int, int, Predicate, BlockState)}
+     */
+    public void replace(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, Predicate<BlockState> predicate, BlockState state) {
+        BlockState canonical = state.intern();
+
+        forEachChunk(minX, minZ, maxX, maxZ, false, (chunk, fromX, fromZ, toX, toZ) ->
+                chunk.replace(fromX, minY, fromZ, toX, maxY, toZ, predicate, canonical));
+    }
+
+    /**
+     * Copy the blocks of a box (bounds inclusive) so its lowest corner ends up at <code>dstX, dstY, dstZ</code>.
+     * The box is read before anything is written, so both boxes can overlap. Missing chunks and sections are copied as air
+     */
+    public void copy(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, int dstX, int dstY, int dstZ) {
+        checkBox(minX, minZ, maxX, maxZ);
+        checkBox(dstX, dstZ, dstX + maxX - minX, dstZ + maxZ - minZ);
+
+        int sizeX = maxX - minX + 1;
+        int sizeY = maxY - minY + 1;
+        int sizeZ = maxZ - minZ + 1;
+
+        if(maxY < minY || minY < 0 || maxY > 255 || dstY < 0 || dstY + sizeY > 256) {
+            throw new IllegalArgumentException("[RegionFile] -> [#copy()] y must go from 0 to 255");
+        }
+
+        // registry ID of every block of the box, indexed by (y * sizeZ + z) * sizeX + x
+        int[] blocks = new int[sizeX * sizeY * sizeZ];
+        Arrays.fill(blocks, BlockStateRegistry.AIR.getID());
+
+        forEachChunk(minX, minZ, maxX, maxZ, false, (chunk, fromX, fromZ, toX, toZ) -> {
+            for(int y = minY; y <= maxY; y++) {
+                for(int z = fromZ; z <= toZ; z++) {
+                    for(int x = fromX; x <= toX; x++) {
+                        BlockState block = chunk.getBlockStateAt(x, y, z);
+
+                        if(block != null) {
+                            blocks[((y - minY) * sizeZ + (z - minZ)) * sizeX + (x - minX)] = block.getID();
+                        }
+                    }
+                }
+            }
+        });
+
+        int offsetX = dstX - minX;
+        int offsetZ = dstZ - minZ;
+
+        forEachChunk(dstX, dstZ, dstX + sizeX - 1, dstZ + sizeZ - 1, true, (chunk, fromX, fromZ, toX, toZ) -> {
+            for(int y = 0; y < sizeY; y++) {
+                for(int z = fromZ; z <= toZ; z++) {
+                    int row = (y * sizeZ + (z - offsetZ - minZ)) * sizeX - offsetX - minX;
+
+                    // rows are written as runs of the same state
+                    int runStart = fromX;
+                    for(int x = fromX + 1; x <= toX + 1; x++) {
+                        if(x <= toX && blocks[row + x] == blocks[row + runStart]) {
+                            continue;
+                        }
+
+                        // missing sections already are air, filling them would create empty sections
+                        int state = blocks[row + runStart];
+                        if(state != BlockStateRegistry.AIR.getID() || chunk.getSection((dstY + y) >> 4) != null) {
+                            chunk.fill(runStart, dstY + y, z, x - 1, dstY + y, z, BlockStateRegistry.get(state));
+                        }
+
+                        runStart = x;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Split a box by chunk, and run <code>action</code> on every chunk in parallel with the part of the box it holds
+     * @param create true to create the missing chunks, false to skip them
+     */
+    private void forEachChunk(int minX, int minZ, int maxX, int maxZ, boolean create, ChunkAction action) {
+        checkBox(minX, minZ, maxX, maxZ);
+
+        List<Runnable> tasks = new ArrayList<>();
+
+        for(int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+            for(int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+                Chunk chunk = create ? createChunkIfMissing(chunkX << 4, chunkZ << 4) : getChunk(chunkX, chunkZ);
+                if(chunk == null) {
+                    continue;
+                }
+
+                int fromX = Math.max(minX, chunkX << 4);
+                int fromZ = Math.max(minZ, chunkZ << 4);
+                int toX = Math.min(maxX, (chunkX << 4) + 15);
+                int toZ = Math.min(maxZ, (chunkZ << 4) + 15);
+
+                tasks.add(() -> action.apply(chunk, fromX, fromZ, toX, toZ));
+            }
+        }
+
+        tasks.parallelStream().forEach(Runnable::run);
+    }
+
+    private void checkBox(int minX, int minZ, int maxX, int maxZ) {
+        if(minX > maxX || minZ > maxZ || (maxX >> 4) - (minX >> 4) >= 32 || (maxZ >> 4) - (minZ >> 4) >= 32) {
+            throw new IllegalArgumentException("[RegionFile] -> [#checkBox()] box must fit in a region (" + minX + ", " + minZ + " to " + maxX + ", " + maxZ + ")");
+        }
+    }
+
+    @FunctionalInterface
+    private interface ChunkAction {
+
+        void apply(Chunk chunk, int minX, int minZ, int maxX, int maxZ);
+    }
+
+    /**
+     * Start a bulk edit on every chunk of the region: the block states of every section are repacked
+     * at most once until the matching {@link #endBatch()}, see {@link Section#beginBatch()}
+     */
+    public void beginBatch() {
+        batchDepth++;
+
+        if(chunks == null) {
+            return;
+        }
+
+        for(Chunk chunk : chunks) {
+            if(chunk != null) {
+                chunk.beginBatch();
+            }
+        }
+    }
+
+    /**
+     * End a bulk edit, repacking the sections whose palette outgrew their block states
+     * @exception IllegalStateException if no batch was started
+     */
+    public void endBatch() {
+        if(batchDepth == 0) {
+            throw new IllegalStateException("[RegionFile] -> [#endBatch()] no batch was started");
+        }
+
+        batchDepth--;
+
+        if(chunks == null) {
+            return;
+        }
+
+        for(Chunk chunk : chunks) {
+            if(chunk != null) {
+                chunk.endBatch();
+            }
+        }
+    }
+
     private Chunk createChunkIfMissing(int x, int z) {
         int chunkX = x >> 4;
         int chunkZ = z >> 4;
@@ -71,6 +331,12 @@ public class RegionFile {
             chunks = new Chunk[1024];
         }
 
+        if(chunk != null) {
+            for(int i = 0; i < batchDepth; i++) {
+                chunk.beginBatch();
+            }
+        }
+
         chunks[index] = chunk;
     }
 
@@ -89,7 +355,7 @@ public class RegionFile {
     }
 
     public int getChunkIndex(int x, int z) {
-        return (x & 0x1f) + (z & 0x1f) << 0x1f;
+        return (x & 0x1f) | ((z & 0x1f) << 5);
     }
 
     public void checkIndex(int index) {
@@ -98,12 +364,19 @@ public class RegionFile {
         }
     }
 
+    /**
+     * Compact the palette and the block states of every section of the region,
+     * the chunks are cleaned up in parallel. See {@link Section#cleanUpBlocksAndPalettes()}
+     */
     public void cleanUpBlocksAndPalettes() {
-        for(Chunk chunk : chunks) {
-            if(chunk != null) {
-                chunk.cleanUpBlocksAndPalettes();
-            }
+        if(chunks == null) {
+            return;
         }
+
+        Arrays.stream(chunks)
+                .parallel()
+                .filter(Objects::nonNull)
+                .forEach(Chunk::cleanUpBlocksAndPalettes);
     }
 }
 
@@ -1,82 +1,728 @@
 package fr.rader.regions.mca;
 
-import fr.rader.regions.nbt.tags.TagBase;
-import fr.rader.regions.nbt.tags.TagCompound;
+import fr.rader.regions.nbt.NBTFormatException;
+import fr.rader.regions.nbt.NBTView;
 import fr.rader.regions.nbt.tags.TagList;
-import fr.rader.regions.nbt.tags.TagString;
-import fr.rader.regions.utils.BitReader;
+import fr.rader.regions.nbt.tags.TagCompound;
+import fr.rader.regions.nbt.tags.TagLongArray;
+import fr.rader.regions.utils.PackedIntArray;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.function.Predicate;
 
 public class Section {
 
     private TagCompound data;
-    public TagList<TagCompound> palette;
+    private Palette palette;
+
+    /**
+     * First data version (20w17a, 1.16) where block states don't span two longs
+     */
+    public static final int PADDED_BLOCK_STATES_VERSION = 2527;
+
+    /**
+     * Largest palette a section keeps in memory, sections using more states store their blocks
+     * with the IDs of the {@link BlockStateRegistry} instead (like the global palette of the game)
+     */
+    public static final int MAX_PALETTE_SIZE = 256;
 
-    private long[] blockStates;
+    private static final int BLOCKS = 4096;
+
+    // palette index of every block, null when every block is the first state of the palette:
+    // most sections are only air or only stone, they don't need any block states until a different block is set
+    private PackedIntArray blockStates;
     private byte[] blockLight;
     private byte[] skyLight;
 
-    // tells bob if the chunk has to be rebuilt because the palette is 1 bit bigger
-    // when we move from 15 to 16 blocks in the chunk (so palette.size() == 15 to 16),
-    // the amount of bits used to count every block changes, it goes from 4 to 5:
+    // when the palette grows past a power of two (from 16 to 17 states for example),
+    // the palette indices take one more bit and every block has to be repacked:
     // 0b00001111 -> 15 (4 bits)
     // 0b00010000 -> 16 (5 bits)
-    // every blocks will then have to be rebuilt because they cannot index the new block
-    private boolean needsRebuilding = false;
+    // outside of a batch the block states are repacked right away. During a batch they are unpacked
+    // in this array the first time the palette outgrows them, and repacked once when the batch ends
+    private int[] pendingBlocks;
+    private int batchDepth = 0;
+
+    // true if the palette or the block states changed since the section was read or serialized
+    private boolean modified = false;
+
+    // layout the block states are stored with in the chunk, they are always padded in memory
+    private boolean spanning = false;
+
+    // true when the block states hold registry IDs instead of palette indices, the palette is then
+    // only rebuilt when the section is serialized, since chunks always store indices
+    private boolean direct = false;
 
     public Section(TagCompound dataRoot) {
+        this(dataRoot, PADDED_BLOCK_STATES_VERSION);
+    }
+
+    /**
+     * @param dataVersion DataVersion of the chunk, telling how the block states are packed
+     * @exception NBTFormatException if the palette or the block states are malformed
+     */
+    public Section(TagCompound dataRoot, int dataVersion) {
         this.data = dataRoot;
+        this.spanning = dataVersion < PADDED_BLOCK_STATES_VERSION;
 
-        if(dataRoot.get("Palette") == null) {
+        TagList<TagCompound> paletteTag = dataRoot.getCompoundList("Palette");
+        if(paletteTag == null) {
             return;
         }
 
-        palette = dataRoot.get("Palette").getAsCompoundList();
+        palette = Palette.fromTag(paletteTag);
 
-        TagBase tag = dataRoot.get("BlockStates");
-        blockStates = (tag != null) ? tag.getAsLongArray() : null;
+        // the block states are a copy, they can be changed in place
+        long[] states = dataRoot.getLongArray("BlockStates");
+        blockStates = (states != null && !isUniform(states)) ? wrapBlockStates(states) : null;
 
-        tag = dataRoot.get("BlockLight");
-        blockLight = (tag != null) ? tag.getAsByteArray() : null;
+        blockLight = dataRoot.getByteArray("BlockLight");
+        skyLight = dataRoot.getByteArray("SkyLight");
+    }
 
-        tag = dataRoot.get("SkyLight");
-        skyLight = (tag != null) ? tag.getAsByteArray() : null;
+    /**
+     * Create a section from a view over the encoded data, without building the section compound.
+     * Only the palette and the block states are read, the block states being bulk copied from the buffer
+     * and the palette entries being interned without building any tag
+     */
+    public Section(NBTView view) {
+        this(view, PADDED_BLOCK_STATES_VERSION);
+    }
+
+    /**
+     * @param dataVersion DataVersion of the chunk, telling how the block states are packed
+     * @exception NBTFormatException if the palette or the block states are malformed
+     */
+    public Section(NBTView view, int dataVersion) {
+        this.spanning = dataVersion < PADDED_BLOCK_STATES_VERSION;
+
+        // same as the compound constructor, a palette that isn't a list of compounds means there is no palette
+        NBTView paletteView = view.get("Palette");
+        if(paletteView == null || paletteView.getTagID() != TagList.TAG_ID) {
+            return;
+        }
+
+        int childrenID = paletteView.getChildrenID();
+        if(childrenID != 0 && childrenID != TagCompound.TAG_ID) {
+            return;
+        }
+
+        palette = Palette.fromView(paletteView);
+
+        NBTView blockStatesView = view.get("BlockStates");
+        if(blockStatesView != null && blockStatesView.getTagID() == TagLongArray.TAG_ID) {
+            LongBuffer buffer = blockStatesView.getAsLongArray();
+
+            long[] states = new long[buffer.remaining()];
+            buffer.get(states);
+
+            blockStates = isUniform(states) ? null : wrapBlockStates(states);
+        }
     }
 
     private Section() {
     }
 
     public static Section createSection() {
-        Section section = new Section();
-        section.blockStates = new long[256];
-        section.palette = new TagList<>(TagCompound.class);
-
-        TagCompound airBlock = new TagCompound();
-        airBlock.add(new TagString("Name", "minecraft:air"));
+        return createSection(PADDED_BLOCK_STATES_VERSION);
+    }
 
-        section.palette.add(airBlock);
+    /**
+     * @param dataVersion DataVersion of the chunk the section is added to
+     */
+    public static Section createSection(int dataVersion) {
+        Section section = new Section();
+        section.spanning = dataVersion < PADDED_BLOCK_STATES_VERSION;
+        section.palette = new Palette();
+        section.palette.add(BlockStateRegistry.AIR.getID());
         section.data = new TagCompound();
+        section.modified = true;
 
         return section;
     }
 
     public void setBlockStateAt(int x, int y, int z, TagCompound state) {
-        int bitsPerBlock = getBitsUsed(palette.size());
-        int paletteIndex = addToPalette(state);
+        setBlockStateAt(x, y, z, BlockState.fromTag(state));
+    }
+
+    public void setBlockStateAt(int x, int y, int z, BlockState state) {
+        int stateID = state.getID();
+
+        if(isUniform() && palette.get(0) == stateID) {
+            return;
+        }
+
+        int value = prepareWrite(stateID);
+        int blockIndex = getBlockIndex(x, y, z);
+
+        if(pendingBlocks != null) {
+            pendingBlocks[blockIndex] = value;
+        } else {
+            blockStates.set(blockIndex, value);
+        }
+    }
+
+    /**
+     * Set every block of a box, the bounds being inclusive and only their 4 lowest bits being used.
+     * Filling the whole section only resets its palette, other boxes are written one row at a time
+     */
+    public void fill(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, BlockState state) {
+        minX &= 0x0f; minY &= 0x0f; minZ &= 0x0f;
+        maxX &= 0x0f; maxY &= 0x0f; maxZ &= 0x0f;
+
+        int stateID = state.getID();
+
+        if(isUniform() && palette.get(0) == stateID) {
+            return;
+        }
+
+        if(minX == 0 && minY == 0 && minZ == 0 && maxX == 15 && maxY == 15 && maxZ == 15) {
+            reset(stateID);
+            return;
+        }
+
+        int value = prepareWrite(stateID);
+
+        for(int y = minY; y <= maxY; y++) {
+            // whole layers are a single run
+            if(minX == 0 && maxX == 15 && minZ == 0 && maxZ == 15) {
+                writeRun(getBlockIndex(0, y, 0), getBlockIndex(15, y, 15) + 1, value);
+                continue;
+            }
+
+            for(int z = minZ; z <= maxZ; z++) {
+                writeRun(getBlockIndex(minX, y, z), getBlockIndex(maxX, y, z) + 1, value);
+            }
+        }
+    }
+
+    /**
+     * Replace the blocks of a box matching <code>predicate</code>, the bounds being inclusive and only their 4 lowest bits being used.
+     * The predicate is called once per state, sections without any matching state are not read.
+     * The section is left untouched (and not modified) if no block of the box is replaced
+     */
+    public void replace(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, Predicate<BlockState> predicate, BlockState state) {
+        minX &= 0x0f; minY &= 0x0f; minZ &= 0x0f;
+        maxX &= 0x0f; maxY &= 0x0f; maxZ &= 0x0f;
+
+        int stateID = state.getID();
+
+        // 0 unknown, 1 matches, 2 doesn't match
+        byte[] matches = new byte[Math.max(BlockStateRegistry.size(), stateID + 1)];
+
+        if(isUniform()) {
+            if(palette.get(0) == stateID || !matches(palette.get(0), predicate, matches)) {
+                return;
+            }
+
+            if(minX == 0 && minY == 0 && minZ == 0 && maxX == 15 && maxY == 15 && maxZ == 15) {
+                reset(stateID);
+                return;
+            }
+        } else if(!direct) {
+            boolean any = false;
+            for(int i = 0; i < palette.size() && !any; i++) {
+                any = matches(palette.get(i), predicate, matches);
+            }
+
+            if(!any) {
+                return;
+            }
+        }
+
+        // the state is only added to the palette once a block is actually replaced
+        int value = -1;
+
+        for(int y = minY; y <= maxY; y++) {
+            for(int z = minZ; z <= maxZ; z++) {
+                for(int x = minX; x <= maxX; x++) {
+                    int blockIndex = getBlockIndex(x, y, z);
+                    int blockID = getStateID(blockIndex);
+
+                    if(blockID == stateID || !matches(blockID, predicate, matches)) {
+                        continue;
+                    }
+
+                    if(value == -1) {
+                        value = prepareWrite(stateID);
+                    }
+
+                    writeRun(blockIndex, blockIndex + 1, value);
+                }
+            }
+        }
+    }
 
-        needsRebuilding = (getBitsUsed(palette.size()) - bitsPerBlock) != 0;
+    private boolean matches(int stateID, Predicate<BlockState> predicate, byte[] matches) {
+        if(matches[stateID] == 0) {
+            matches[stateID] = predicate.test(BlockStateRegistry.get(stateID)) ? (byte) 1 : (byte) 2;
+        }
 
-        BitReader reader = new BitReader(blockStates, getBitsUsed(palette.size()));
-        reader.jumpToValue(getBlockIndex(x, y, z));
-        // todo:
-        //  reader.write(paletteIndex);
+        return matches[stateID] == 1;
     }
 
-    private int addToPalette(TagCompound data) {
-        if(!palette.getTags().contains(data)) {
-            palette.add(data);
+    /**
+     * Replace every block with the same state, dropping the palette and the block states
+     */
+    private void reset(int stateID) {
+        palette = new Palette();
+        palette.add(stateID);
+
+        blockStates = null;
+        pendingBlocks = null;
+        direct = false;
+        modified = true;
+    }
+
+    /**
+     * Make room for a state in the palette and the block states
+     * @return the value to write in the block states for this state
+     */
+    private int prepareWrite(int stateID) {
+        modified = true;
+
+        if(direct) {
+            if(getBitsUsed(stateID) > blockStates.getBitsPerValue()) {
+                // the registry grew past a power of two since the section switched
+                blockStates = blockStates.resize(getBitsUsed(BlockStateRegistry.size() - 1));
+            }
+
+            return stateID;
+        }
+
+        int paletteIndex = palette.add(stateID);
+
+        if(palette.size() > MAX_PALETTE_SIZE) {
+            switchToDirect();
+            return prepareWrite(stateID);
         }
 
-        return palette.getTags().indexOf(data);
+        if(pendingBlocks != null) {
+            return paletteIndex;
+        }
+
+        int bitsPerBlock = getBitsUsed(palette.size() - 1);
+        if(blockStates == null) {
+            blockStates = new PackedIntArray(bitsPerBlock, BLOCKS);
+        } else if(blockStates.getBitsPerValue() != bitsPerBlock) {
+            // the new index doesn't fit in the current number of bits
+            if(batchDepth > 0) {
+                pendingBlocks = new int[BLOCKS];
+                blockStates.unpack(pendingBlocks);
+                return paletteIndex;
+            }
+
+            blockStates = blockStates.resize(bitsPerBlock);
+        }
+
+        return paletteIndex;
+    }
+
+    /**
+     * Write a value returned by {@link #prepareWrite(int)} from <code>fromIndex</code> (inclusive) to <code>toIndex</code> (exclusive)
+     */
+    private void writeRun(int fromIndex, int toIndex, int value) {
+        if(pendingBlocks != null) {
+            Arrays.fill(pendingBlocks, fromIndex, toIndex, value);
+        } else {
+            blockStates.fill(fromIndex, toIndex, value);
+        }
+    }
+
+    /**
+     * @return registry ID of the state of a block
+     */
+    private int getStateID(int blockIndex) {
+        if(direct) {
+            return blockStates.get(blockIndex);
+        }
+
+        if(pendingBlocks != null) {
+            return palette.get(pendingBlocks[blockIndex]);
+        }
+
+        if(blockStates == null) {
+            return palette.get(0);
+        }
+
+        return palette.get(blockStates.get(blockIndex));
+    }
+
+    public BlockState getBlockStateAt(int x, int y, int z) {
+        return BlockStateRegistry.get(getStateID(getBlockIndex(x, y, z)));
+    }
+
+    /**
+     * Decode the registry ID of every block in one pass, indexed by <code>(y << 8) | (z << 4) | x</code>
+     * @param out Array of at least 4096 values receiving the IDs, which are unsigned (read them with <code>& 0xffff</code>)
+     * @exception IllegalStateException if an ID doesn't fit in 16 bits
+     */
+    public void unpackTo(short[] out) {
+        if(out.length < BLOCKS) {
+            throw new IllegalArgumentException("[Section] -> [#unpackTo(out)] array must hold " + BLOCKS + " blocks (length is " + out.length + ")");
+        }
+
+        if(isUniform()) {
+            Arrays.fill(out, 0, BLOCKS, toShortID(palette.get(0)));
+            return;
+        }
+
+        if(direct) {
+            int[] blocks = new int[BLOCKS];
+            blockStates.unpack(blocks);
+
+            for(int i = 0; i < BLOCKS; i++) {
+                out[i] = toShortID(blocks[i]);
+            }
+
+            return;
+        }
+
+        short[] lookup = new short[palette.size()];
+        for(int i = 0; i < lookup.length; i++) {
+            lookup[i] = toShortID(palette.get(i));
+        }
+
+        if(pendingBlocks != null) {
+            for(int i = 0; i < BLOCKS; i++) {
+                out[i] = lookup[pendingBlocks[i]];
+            }
+
+            return;
+        }
+
+        // indices above the palette size would be corrupt data, the lookup has room for every packed value
+        blockStates.unpack(out, Arrays.copyOf(lookup, 1 << blockStates.getBitsPerValue()));
+    }
+
+    private short toShortID(int stateID) {
+        if(stateID > 0xffff) {
+            throw new IllegalStateException("[Section] -> [#unpackTo(out)] state ID " + stateID + " doesn't fit in 16 bits");
+        }
+
+        return (short) stateID;
+    }
+
+    /**
+     * Call <code>visitor</code> for every block of the section, decoded in one pass.
+     * The coordinates given to the visitor go from 0 to 15
+     */
+    public void forEachBlock(BlockVisitor visitor) {
+        if(isUniform()) {
+            BlockState state = BlockStateRegistry.get(palette.get(0));
+
+            for(int i = 0; i < BLOCKS; i++) {
+                visitor.visit(i & 0x0f, i >> 8, (i >> 4) & 0x0f, state);
+            }
+
+            return;
+        }
+
+        int[] blocks = pendingBlocks;
+        if(blocks == null) {
+            blocks = new int[BLOCKS];
+            blockStates.unpack(blocks);
+        }
+
+        if(direct) {
+            for(int i = 0; i < BLOCKS; i++) {
+                visitor.visit(i & 0x0f, i >> 8, (i >> 4) & 0x0f, BlockStateRegistry.get(blocks[i]));
+            }
+
+            return;
+        }
+
+        BlockState[] states = new BlockState[palette.size()];
+        for(int i = 0; i < states.length; i++) {
+            states[i] = BlockStateRegistry.get(palette.get(i));
+        }
+
+        for(int i = 0; i < BLOCKS; i++) {
+            visitor.visit(i & 0x0f, i >> 8, (i >> 4) & 0x0f, states[blocks[i]]);
+        }
+    }
+
+    /**
+     * Check the palette of the section, without reading the blocks
+     * @return false if no block of the section can match <code>predicate</code>
+     */
+    public boolean mayContain(Predicate<BlockState> predicate) {
+        if(direct) {
+            return true;
+        }
+
+        if(isUniform()) {
+            return predicate.test(BlockStateRegistry.get(palette.get(0)));
+        }
+
+        for(int i = 0; i < palette.size(); i++) {
+            if(predicate.test(BlockStateRegistry.get(palette.get(i)))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Call <code>visitor</code> for every block matching <code>predicate</code>. The palette is checked first,
+     * the blocks are only decoded if one of its states matches. The coordinates given to the visitor go from 0 to 15
+     */
+    public void findBlocks(Predicate<BlockState> predicate, BlockVisitor visitor) {
+        if(isUniform()) {
+            BlockState state = BlockStateRegistry.get(palette.get(0));
+
+            if(predicate.test(state)) {
+                forEachBlock(visitor);
+            }
+
+            return;
+        }
+
+        if(direct) {
+            byte[] matches = new byte[BlockStateRegistry.size()];
+
+            forEachBlock((x, y, z, state) -> {
+                if(matches(state.getID(), predicate, matches)) {
+                    visitor.visit(x, y, z, state);
+                }
+            });
+
+            return;
+        }
+
+        // the predicate is only called once per palette entry
+        BlockState[] states = new BlockState[palette.size()];
+        boolean[] matches = new boolean[palette.size()];
+        boolean any = false;
+
+        for(int i = 0; i < states.length; i++) {
+            states[i] = BlockStateRegistry.get(palette.get(i));
+            matches[i] = predicate.test(states[i]);
+            any |= matches[i];
+        }
+
+        if(!any) {
+            return;
+        }
+
+        int[] blocks = pendingBlocks;
+        if(blocks == null) {
+            blocks = new int[BLOCKS];
+            blockStates.unpack(blocks);
+        }
+
+        for(int i = 0; i < BLOCKS; i++) {
+            if(matches[blocks[i]]) {
+                visitor.visit(i & 0x0f, i >> 8, (i >> 4) & 0x0f, states[blocks[i]]);
+            }
+        }
+    }
+
+    /**
+     * Start a bulk edit: until the matching {@link #endBatch()}, the block states are repacked
+     * at most once, however many states are added to the palette. Batches can be nested
+     */
+    public void beginBatch() {
+        batchDepth++;
+    }
+
+    /**
+     * End a bulk edit, repacking the block states if the palette outgrew them during the batch
+     * @exception IllegalStateException if no batch was started
+     */
+    public void endBatch() {
+        if(batchDepth == 0) {
+            throw new IllegalStateException("[Section] -> [#endBatch()] no batch was started");
+        }
+
+        if(--batchDepth == 0) {
+            repack();
+        }
+    }
+
+    /**
+     * Pack the blocks unpacked during a batch with the number of bits the palette needs
+     */
+    private void repack() {
+        if(pendingBlocks == null) {
+            return;
+        }
+
+        blockStates = new PackedIntArray(getBitsUsed(palette.size() - 1), BLOCKS);
+        blockStates.pack(pendingBlocks);
+        pendingBlocks = null;
+    }
+
+    /**
+     * Replace the palette indices of every block with the registry IDs they point to
+     */
+    private void switchToDirect() {
+        int[] blocks = pendingBlocks;
+        if(blocks == null) {
+            blocks = new int[BLOCKS];
+
+            if(blockStates != null) {
+                blockStates.unpack(blocks);
+            }
+        }
+
+        int[] stateIDs = new int[palette.size()];
+        for(int i = 0; i < stateIDs.length; i++) {
+            stateIDs[i] = palette.get(i);
+        }
+
+        for(int i = 0; i < BLOCKS; i++) {
+            blocks[i] = stateIDs[blocks[i]];
+        }
+
+        blockStates = new PackedIntArray(getBitsUsed(BlockStateRegistry.size() - 1), BLOCKS);
+        blockStates.pack(blocks);
+        pendingBlocks = null;
+        direct = true;
+    }
+
+    /**
+     * Build the palette of registry IDs unpacked from direct block states,
+     * and replace every ID with its index in the palette
+     */
+    private Palette indexBlocks(int[] blocks) {
+        Palette indexed = new Palette();
+
+        for(int i = 0; i < BLOCKS; i++) {
+            blocks[i] = indexed.add(blocks[i]);
+        }
+
+        return indexed;
+    }
+
+    /**
+     * @return true if the block states hold registry IDs, because the section uses more than {@link #MAX_PALETTE_SIZE} states
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Write the palette and the block states back to the section compound if they changed
+     * @return the section compound
+     */
+    public TagCompound serialize() {
+        if(data == null) {
+            data = new TagCompound();
+            modified = true;
+        }
+
+        return serialize(data);
+    }
+
+    /**
+     * Write the palette and the block states to <code>target</code> if they changed, <code>target</code>
+     * then becomes the section compound. Used when the section compound has been copied by a snapshot,
+     * or when a new section is added to a chunk
+     * @return the section compound
+     */
+    public TagCompound serialize(TagCompound target) {
+        data = target;
+        repack();
+
+        if(modified) {
+            writeTo(data);
+            modified = false;
+        }
+
+        return data;
+    }
+
+    /**
+     * Write the palette and the block states to <code>target</code> without changing the section:
+     * blocks pending in a batch are packed in a copy, and the section stays modified
+     */
+    void writeTo(TagCompound target) {
+        if(direct) {
+            // chunks store palette indices, the palette is rebuilt from the blocks
+            int[] blocks = new int[BLOCKS];
+            blockStates.unpack(blocks);
+
+            Palette indexed = indexBlocks(blocks);
+
+            PackedIntArray indices = new PackedIntArray(getBitsUsed(indexed.size() - 1), BLOCKS);
+            indices.pack(blocks);
+
+            target.put(indexed.toTag());
+            target.put(TagLongArray.wrap("BlockStates", spanning ? indices.toSpanning() : indices.getData()));
+            return;
+        }
+
+        target.put(palette.toTag());
+        target.put(TagLongArray.wrap("BlockStates", serializeBlockStates()));
+    }
+
+    public boolean isModified() {
+        return modified;
+    }
+
+    private long[] serializeBlockStates() {
+        PackedIntArray states = blockStates;
+        if(pendingBlocks != null) {
+            states = new PackedIntArray(getBitsUsed(palette.size() - 1), BLOCKS);
+            states.pack(pendingBlocks);
+        }
+
+        if(states == null) {
+            // every index is 0, the longs don't need to be packed
+            return new long[getBlockStatesLength()];
+        }
+
+        return spanning ? states.toSpanning() : states.getData().clone();
+    }
+
+    /**
+     * @return number of longs the block states take in the chunk, given the size of the palette and the layout
+     */
+    private int getBlockStatesLength() {
+        int bitsPerBlock = getBitsUsed(palette.size() - 1);
+
+        return spanning ? PackedIntArray.getSpanningDataLength(bitsPerBlock, BLOCKS) : PackedIntArray.getDataLength(bitsPerBlock, BLOCKS);
+    }
+
+    /**
+     * @return true if every block of the block states read from a section is the first state of the palette
+     * @exception NBTFormatException if the length of the array doesn't match the size of the palette
+     */
+    private boolean isUniform(long[] states) {
+        int length = getBlockStatesLength();
+        if(states.length != length) {
+            throw new NBTFormatException("[Section] -> [#isUniform(states)] a palette of " + palette.size() + " states needs " + length + " longs of block states (got " + states.length + ")");
+        }
+
+        if(palette.size() == 1) {
+            return true;
+        }
+
+        for(long value : states) {
+            if(value != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Wrap block states read from a section, the number of bits per block is given by the size of the palette.
+     * Block states of chunks older than 1.16 are converted to the padded layout
+     * @exception IllegalArgumentException if the length of the array doesn't match the size of the palette
+     */
+    private PackedIntArray wrapBlockStates(long[] states) {
+        int bitsPerBlock = getBitsUsed(palette.size() - 1);
+
+        if(spanning) {
+            return PackedIntArray.fromSpanning(bitsPerBlock, BLOCKS, states);
+        }
+
+        return new PackedIntArray(bitsPerBlock, BLOCKS, states);
     }
 
     private int getBlockIndex(int x, int y, int z) {
@@ -89,15 +735,107 @@ public class Section {
         return Math.max(Integer.SIZE - Integer.numberOfLeadingZeros(value), 4);
     }
 
+    /**
+     * Drop the palette entries no block uses anymore (and the duplicated ones), and repack
+     * the block states with the smallest number of bits the remaining palette needs.
+     * Sections storing registry IDs go back to a palette if they use few enough states
+     */
     public void cleanUpBlocksAndPalettes() {
-        // todo:
+        if(palette == null) {
+            return;
+        }
+
+        if(direct) {
+            int[] blocks = new int[BLOCKS];
+            blockStates.unpack(blocks);
+
+            Palette indexed = indexBlocks(blocks);
+            if(indexed.size() > MAX_PALETTE_SIZE) {
+                return;
+            }
+
+            // enough states were removed to go back to a palette
+            palette = indexed;
+            direct = false;
+            modified = true;
+
+            if(palette.size() == 1) {
+                blockStates = null;
+                return;
+            }
+
+            blockStates = new PackedIntArray(getBitsUsed(palette.size() - 1), BLOCKS);
+            blockStates.pack(blocks);
+            return;
+        }
+
+        int[] blocks = pendingBlocks;
+        if(blocks == null && blockStates != null) {
+            blocks = new int[BLOCKS];
+            blockStates.unpack(blocks);
+        }
+
+        boolean[] used = new boolean[palette.size()];
+        if(blocks == null) {
+            used[0] = true;
+        } else {
+            for(int block : blocks) {
+                used[block] = true;
+            }
+        }
+
+        // the new palette keeps the order of the entries that are still used
+        Palette compacted = new Palette(palette.size());
+        int[] remap = new int[palette.size()];
+        for(int i = 0; i < remap.length; i++) {
+            if(used[i]) {
+                remap[i] = compacted.add(palette.get(i));
+            }
+        }
+
+        if(compacted.size() == palette.size()) {
+            return;
+        }
+
+        palette = compacted;
+        modified = true;
+
+        if(blocks == null) {
+            return;
+        }
+
+        pendingBlocks = null;
+
+        // only one state is left, every block is that state
+        if(palette.size() == 1) {
+            blockStates = null;
+            return;
+        }
+
+        for(int i = 0; i < BLOCKS; i++) {
+            blocks[i] = remap[blocks[i]];
+        }
+
+        blockStates = new PackedIntArray(getBitsUsed(palette.size() - 1), BLOCKS);
+        blockStates.pack(blocks);
     }
 
+    /**
+     * @return true if the palette outgrew the block states during the current batch,
+     * they are repacked when the batch ends or when the section is serialized
+     */
     public boolean needsRebuilding() {
-        return needsRebuilding;
+        return pendingBlocks != null;
+    }
+
+    /**
+     * @return true if every block of the section is the same state, which is then stored without any block states
+     */
+    public boolean isUniform() {
+        return blockStates == null && pendingBlocks == null;
     }
 
     public boolean isEmpty() {
-        return this.data == null;
+        return this.palette == null;
     }
 }
@@ -0,0 +1,14 @@
+package fr.rader.regions.nbt;
+
+/**
+ * Thrown when NBT data cannot be decoded: unknown tag IDs, malformed strings, lengths that don't match the data.
+ * The data is most likely corrupt.
+ */
+public class NBTFormatException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public NBTFormatException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,14 @@
+package fr.rader.regions.nbt;
+
+/**
+ * Thrown when NBT data goes over the {@link NBTLimits} of the reader, or has a negative length prefix.
+ * The data is most likely corrupt.
+ */
+public class NBTLimitException extends NBTFormatException {
+
+    private static final long serialVersionUID = 1L;
+
+    public NBTLimitException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,56 @@
+package fr.rader.regions.nbt;
+
+/**
+ * Limits applied while decoding NBT data, checked before anything is allocated so corrupt
+ * length prefixes or deeply nested tags fail with a {@link NBTLimitException} instead of
+ * running out of memory or overflowing the stack.
+ */
+public final class NBTLimits {
+
+    /**
+     * Limits used by default for NBT files (level data, structures...), large enough for any file written by the game
+     */
+    public static final NBTLimits DEFAULT = new NBTLimits(128L * 1024 * 1024, 512, 16L * 1024 * 1024);
+
+    /**
+     * Limits used for chunks. A region file stores at most 1 MB of compressed data per chunk, and the chunks
+     * written by the game hold a few hundred KB once decoded: a corrupt chunk can't make the reader allocate more than 8 MB
+     */
+    public static final NBTLimits CHUNK = new NBTLimits(8L * 1024 * 1024, 512, 2L * 1024 * 1024);
+
+    public static final NBTLimits UNLIMITED = new NBTLimits(Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    private final long maxBytes;
+    private final int maxDepth;
+    private final long maxElements;
+
+    /**
+     * @param maxBytes Maximum number of bytes held by the decoded payloads (arrays, strings and primitives)
+     * @param maxDepth Maximum number of nested compounds and lists
+     * @param maxElements Maximum number of tags and list elements
+     */
+    public NBTLimits(long maxBytes, int maxDepth, long maxElements) {
+        if(maxBytes < 0 || maxDepth < 0 || maxElements < 0) throw new IllegalArgumentException("Limits cannot be negative");
+
+        this.maxBytes = maxBytes;
+        this.maxDepth = maxDepth;
+        this.maxElements = maxElements;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public long getMaxElements() {
+        return maxElements;
+    }
+
+    @Override
+    public String toString() {
+        return "NBTLimits{maxBytes=" + maxBytes + ", maxDepth=" + maxDepth + ", maxElements=" + maxElements + "}";
+    }
+}
@@ -0,0 +1,246 @@
+package fr.rader.regions.nbt;
+
+import fr.rader.regions.nbt.tags.TagBase;
+import fr.rader.regions.nbt.tags.TagCompound;
+import fr.rader.regions.nbt.tags.TagList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Path to one or several tags, compiled once and then evaluated against trees or {@link NBTView}s
+ * without parsing the path again. Misses (missing tags, wrong types, out of range indices) never throw,
+ * they give null or no match.
+ * <p>
+ * Paths are made of tag names separated by dots, a name can be followed by <code>[index]</code> to get
+ * an element of a list, or <code>[*]</code> (or <code>[]</code>) to look into every element of the list:
+ * <pre>
+ *     Level.InhabitedTime
+ *     Level.Sections[*].Palette[0].Name
+ * </pre>
+ * The root compound name is not part of the path.
+ */
+public class NBTPath {
+
+    private static final byte NAME = 0;
+    private static final byte INDEX = 1;
+    private static final byte ALL = 2;
+
+    private final String path;
+
+    // one entry per step, names are only set for NAME steps and indices for INDEX steps
+    private final byte[] kinds;
+    private final String[] names;
+    private final int[] indices;
+
+    // index of the first wildcard step from every step, or the number of steps if there is none
+    private final int[] nextWildcard;
+
+    private NBTPath(String path, List<Byte> kinds, List<String> names, List<Integer> indices) {
+        this.path = path;
+        this.kinds = new byte[kinds.size()];
+        this.names = new String[kinds.size()];
+        this.indices = new int[kinds.size()];
+
+        for(int i = 0; i < kinds.size(); i++) {
+            this.kinds[i] = kinds.get(i);
+            this.names[i] = names.get(i);
+            this.indices[i] = indices.get(i);
+        }
+
+        this.nextWildcard = new int[kinds.size() + 1];
+        this.nextWildcard[kinds.size()] = kinds.size();
+        for(int i = kinds.size() - 1; i >= 0; i--) {
+            this.nextWildcard[i] = (this.kinds[i] == ALL) ? i : this.nextWildcard[i + 1];
+        }
+    }
+
+    public static NBTPath compile(String path) {
+        if(path == null || path.isEmpty()) throw new IllegalArgumentException("Path cannot be null or empty");
+
+        List<Byte> kinds = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<Integer> indices = new ArrayList<>();
+
+        for(String part : path.split("\\.")) {
+            int bracket = part.indexOf('[');
+            String name = (bracket == -1) ? part : part.substring(0, bracket);
+
+            if(name.isEmpty()) throw new IllegalArgumentException("Path \"" + path + "\" contains an empty name");
+
+            kinds.add(NAME);
+            names.add(name);
+            indices.add(-1);
+
+            while(bracket != -1) {
+                int end = part.indexOf(']', bracket);
+                if(end == -1) throw new IllegalArgumentException("Path \"" + path + "\" has an unclosed bracket");
+
+                String index = part.substring(bracket + 1, end);
+                if(index.isEmpty() || index.equals("*")) {
+                    kinds.add(ALL);
+                    indices.add(-1);
+                } else {
+                    int value;
+                    try {
+                        value = Integer.parseInt(index);
+                    } catch (NumberFormatException e) {
+                        value = -1;
+                    }
+
+                    if(value < 0) throw new IllegalArgumentException("Path \"" + path + "\" has an invalid index: " + index);
+
+                    indices.add(value);
+
+                    kinds.add(INDEX);
+                }
+
+                names.add(null);
+
+                bracket = part.indexOf('[', end);
+                if(bracket == -1 && end != part.length() - 1) {
+                    throw new IllegalArgumentException("Path \"" + path + "\" has unexpected characters after \"]\"");
+                }
+            }
+        }
+
+        return new NBTPath(path, kinds, names, indices);
+    }
+
+    /**
+     * @return the first tag matching the path, or null if nothing matches
+     */
+    public TagBase get(TagBase root) {
+        return get(root, 0, kinds.length);
+    }
+
+    /**
+     * @return every tag matching the path, in the order they are stored
+     */
+    public List<TagBase> getAll(TagBase root) {
+        List<TagBase> out = new ArrayList<>();
+        forEach(root, out::add);
+
+        return out;
+    }
+
+    public boolean exists(TagBase root) {
+        return get(root) != null;
+    }
+
+    public void forEach(TagBase root, Consumer<? super TagBase> action) {
+        forEach(root, 0, action);
+    }
+
+    /**
+     * @return the first view matching the path, or null if nothing matches
+     */
+    public NBTView get(NBTView root) {
+        return get(root, 0, kinds.length);
+    }
+
+    public void forEach(NBTView root, Consumer<? super NBTView> action) {
+        forEach(root, 0, action);
+    }
+
+    private TagBase get(TagBase tag, int from, int to) {
+        for(int i = from; i < to && tag != null; i++) {
+            switch(kinds[i]) {
+                case NAME:
+                    if(!(tag instanceof TagCompound)) return null;
+
+                    tag = ((TagCompound) tag).get(names[i]);
+                    break;
+                case INDEX:
+                    if(!(tag instanceof TagList)) return null;
+
+                    TagList<?> list = (TagList<?>) tag;
+                    if(indices[i] >= list.size()) return null;
+
+                    tag = list.get(indices[i]);
+                    break;
+                default:
+                    if(!(tag instanceof TagList)) return null;
+
+                    for(TagBase element : (TagList<?>) tag) {
+                        TagBase match = get(element, i + 1, to);
+                        if(match != null) return match;
+                    }
+
+                    return null;
+            }
+        }
+
+        return tag;
+    }
+
+    private void forEach(TagBase tag, int step, Consumer<? super TagBase> action) {
+        int wildcard = nextWildcard[step];
+
+        tag = get(tag, step, wildcard);
+        if(tag == null) return;
+
+        if(wildcard == kinds.length) {
+            action.accept(tag);
+            return;
+        }
+
+        if(!(tag instanceof TagList)) return;
+
+        for(TagBase element : (TagList<?>) tag) {
+            forEach(element, wildcard + 1, action);
+        }
+    }
+
+    private NBTView get(NBTView view, int from, int to) {
+        for(int i = from; i < to && view != null; i++) {
+            switch(kinds[i]) {
+                case NAME:
+                    if(view.getTagID() != TagCompound.TAG_ID) return null;
+
+                    view = view.get(names[i]);
+                    break;
+                case INDEX:
+                    if(view.getTagID() != TagList.TAG_ID || indices[i] >= view.size()) return null;
+
+                    view = view.get(indices[i]);
+                    break;
+                default:
+                    if(view.getTagID() != TagList.TAG_ID) return null;
+
+                    for(int j = 0; j < view.size(); j++) {
+                        NBTView match = get(view.get(j), i + 1, to);
+                        if(match != null) return match;
+                    }
+
+                    return null;
+            }
+        }
+
+        return view;
+    }
+
+    private void forEach(NBTView view, int step, Consumer<? super NBTView> action) {
+        int wildcard = nextWildcard[step];
+
+        view = get(view, step, wildcard);
+        if(view == null) return;
+
+        if(wildcard == kinds.length) {
+            action.accept(view);
+            return;
+        }
+
+        if(view.getTagID() != TagList.TAG_ID) return;
+
+        for(int j = 0; j < view.size(); j++) {
+            forEach(view.get(j), wildcard + 1, action);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
@@ -0,0 +1,157 @@
+package fr.rader.regions.nbt;
+
+import fr.rader.regions.nbt.tags.*;
+import fr.rader.regions.utils.DataReader;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a NBT Compound while only keeping the tags matching a set of paths.
+ * Every other tag is skipped using its length prefix, without being allocated.
+ * <p>
+ * Paths are made of tag names separated by dots, a list can be suffixed by <code>[]</code>
+ * to make the path more readable, the next names are then looked up in every element of the list:
+ * <pre>
+ *     Level.InhabitedTime
+ *     Level.Sections[].Palette
+ *     Level.TileEntities[].id
+ * </pre>
+ * The root compound name is not part of the path.
+ */
+public class NBTProjection {
+
+    private final Node root = new Node();
+
+    public NBTProjection(String... paths) {
+        for(String path : paths) {
+            addPath(path);
+        }
+    }
+
+    public NBTProjection addPath(String path) {
+        if(path == null || path.isEmpty()) throw new IllegalArgumentException("Path cannot be null or empty");
+
+        Node node = root;
+        for(String name : path.split("\\.")) {
+            if(name.endsWith("[]")) {
+                name = name.substring(0, name.length() - 2);
+            }
+
+            if(name.isEmpty()) throw new IllegalArgumentException("Path \"" + path + "\" contains an empty name");
+
+            node = node.children.computeIfAbsent(name, key -> new Node());
+        }
+
+        node.keepAll = true;
+
+        return this;
+    }
+
+    /**
+     * Read a NBT Compound, only keeping the tags matching the projection
+     * @return Sparse TagCompound, or null if the data starts with an end tag
+     * @exception IOException when an I/O error occurs.
+     * @exception EOFException when the end of file has been reached.
+     */
+    public TagCompound read(DataReader reader) throws IOException {
+        int tagID = reader.readByte();
+        if(tagID == 0) return null;
+
+        if(tagID != TagCompound.TAG_ID) {
+            throw new NBTFormatException("[NBTProjection] -> [#read(reader)] root tag must be a TagCompound (got " + tagID + ")");
+        }
+
+        return readCompound(reader.readModifiedUTF8(reader.readShort()), root, reader);
+    }
+
+    private TagCompound readCompound(String name, Node node, DataReader reader) throws IOException {
+        TagCompound compound = new TagCompound(name);
+        reader.getNBTContext().enter();
+
+        int tagID;
+        while((tagID = reader.readByte()) != 0) {
+            String tagName = reader.getNBTContext().getStringCache().readString(reader, reader.readShort());
+            Node child = node.children.get(tagName);
+
+            if(child == null) {
+                reader.skipTagPayload(tagID);
+                continue;
+            }
+
+            reader.getNBTContext().reserve(1, 0);
+            TagBase tag = readTag(tagID, tagName, child, reader);
+            if(tag != null) {
+                compound.add(tag);
+            }
+        }
+
+        reader.getNBTContext().exit();
+
+        return compound;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private TagList<?> readList(String name, Node node, DataReader reader) throws IOException {
+        int childrenID = reader.readByte();
+        int length = reader.readInt();
+
+        if(childrenID != TagCompound.TAG_ID && childrenID != TagList.TAG_ID) {
+            // the path goes deeper than what a list of primitives holds, nothing can match
+            for(int i = 0; i < length && childrenID != 0; i++) {
+                reader.skipTagPayload(childrenID);
+            }
+
+            return null;
+        }
+
+        reader.getNBTContext().reserve(length, 0);
+        reader.getNBTContext().enter();
+
+        TagList list;
+        if(childrenID == TagCompound.TAG_ID) {
+            list = new TagList<>(TagCompound.class, name);
+            for(int i = 0; i < length; i++) {
+                list.add(readCompound(null, node, reader));
+            }
+        } else {
+            list = new TagList<>(TagList.class, name);
+            for(int i = 0; i < length; i++) {
+                TagList<?> element = readList(null, node, reader);
+
+                // keep the indices of the outer list in sync with the data
+                list.add((element != null) ? element : new TagList<>(TagCompound.class));
+            }
+        }
+
+        reader.getNBTContext().exit();
+
+        return list;
+    }
+
+    private TagBase readTag(int tagID, String name, Node node, DataReader reader) throws IOException {
+        if(!node.keepAll) {
+            switch(tagID) {
+                case 9:
+                    return readList(name, node, reader);
+                case 10:
+                    return readCompound(name, node, reader);
+                default:
+                    // the path goes deeper than a primitive tag, nothing can match
+                    reader.skipTagPayload(tagID);
+                    return null;
+            }
+        }
+
+        return TagType.byID(tagID).read(name, reader);
+    }
+
+    private static class Node {
+
+        private final Map<String, Node> children = new HashMap<>();
+
+        // true if the whole tag has to be read, without looking at its children
+        private boolean keepAll = false;
+    }
+}
@@ -0,0 +1,180 @@
+package fr.rader.regions.nbt;
+
+import fr.rader.regions.nbt.tags.TagPool;
+
+import java.util.Arrays;
+
+/**
+ * State of the NBT data being decoded by a {@link fr.rader.regions.utils.DataReader}: the budget checked
+ * against the {@link NBTLimits}, the names of the compounds being read (to find the lists kept as raw bytes)
+ * and the pool the tags are taken from. The budget starts again every time a root tag is read.
+ * <p>
+ * Contexts are not thread safe, every reader needs its own.
+ */
+public final class NBTReadContext {
+
+    private final NBTLimits limits;
+
+    private int depth;
+    private long bytes;
+    private long elements;
+
+    // paths of the lists kept as raw bytes, and names of the compounds being read
+    private String[][] lazyPaths;
+    private String[] names = new String[16];
+    private int nameDepth;
+
+    // pool the decoded tags are taken from, null to allocate them
+    private TagPool tagPool;
+
+    // names and short strings read with this context
+    private final NBTStringCache stringCache = new NBTStringCache();
+
+    public NBTReadContext() {
+        this(NBTLimits.DEFAULT);
+    }
+
+    /**
+     * @param limits Limits checked while reading NBT data
+     */
+    public NBTReadContext(NBTLimits limits) {
+        if(limits == null) throw new IllegalArgumentException("Limits cannot be null");
+
+        this.limits = limits;
+    }
+
+    public NBTLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Set the lists kept as raw bytes while reading a tree, they are only decoded when they are accessed
+     * and written back as they are if they never are. Lists are transparent in the paths,
+     * which are made of the names of the compounds holding the list, separated by dots:
+     * <pre>
+     *     Level.TileEntities
+     * </pre>
+     * The root compound name is not part of the path
+     */
+    public void setLazyPaths(String... paths) {
+        if(paths == null || paths.length == 0) {
+            this.lazyPaths = null;
+            return;
+        }
+
+        this.lazyPaths = new String[paths.length][];
+        for(int i = 0; i < paths.length; i++) {
+            this.lazyPaths[i] = paths[i].split("\\.");
+        }
+    }
+
+    /**
+     * @return the cache the names and short strings are read with, see {@link NBTStringCache}
+     */
+    public NBTStringCache getStringCache() {
+        return stringCache;
+    }
+
+    public TagPool getTagPool() {
+        return tagPool;
+    }
+
+    /**
+     * Take the decoded tags from a pool instead of allocating them, see {@link TagPool}
+     * @param tagPool Pool to use, or null to allocate the tags
+     */
+    public void setTagPool(TagPool tagPool) {
+        this.tagPool = tagPool;
+    }
+
+    /**
+     * Start a new budget, called every time a root tag is read
+     */
+    public void reset() {
+        Arrays.fill(names, 0, nameDepth, null);
+
+        nameDepth = 0;
+        depth = 0;
+        bytes = 0;
+        elements = 0;
+    }
+
+    /**
+     * Called before reading the payload of a compound or a list
+     * @exception NBTLimitException when the data is nested too deeply
+     */
+    public void enter() {
+        if(++depth > limits.getMaxDepth()) {
+            throw new NBTLimitException("[NBTReadContext] -> [#enter()] NBT data is nested deeper than " + limits.getMaxDepth() + " tags");
+        }
+    }
+
+    /**
+     * Called after reading the payload of a compound or a list
+     */
+    public void exit() {
+        depth--;
+    }
+
+    /**
+     * Account for elements about to be read, before allocating anything for them
+     * @param count Number of elements, usually read from a length prefix
+     * @param elementSize Size of one element in bytes, 0 if it is not known
+     * @exception NBTLimitException when the count is negative or goes over the limits
+     */
+    public void reserve(long count, int elementSize) {
+        if(count < 0) {
+            throw new NBTLimitException("[NBTReadContext] -> [#reserve(count, elementSize)] negative length: " + count);
+        }
+
+        elements += count;
+        if(elements > limits.getMaxElements()) {
+            throw new NBTLimitException("[NBTReadContext] -> [#reserve(count, elementSize)] NBT data holds more than " + limits.getMaxElements() + " elements");
+        }
+
+        // count is at most an int, and an element at most 8 bytes, this cannot overflow
+        bytes += count * elementSize;
+        if(bytes > limits.getMaxBytes()) {
+            throw new NBTLimitException("[NBTReadContext] -> [#reserve(count, elementSize)] NBT data holds more than " + limits.getMaxBytes() + " bytes");
+        }
+    }
+
+    /**
+     * @return true if the list named <code>name</code>, in the compound being read, has to be kept as raw bytes
+     */
+    public boolean isLazy(String name) {
+        if(lazyPaths == null) return false;
+
+        for(String[] path : lazyPaths) {
+            if(path.length != nameDepth + 1 || !path[nameDepth].equals(name)) continue;
+
+            boolean matches = true;
+            for(int i = 0; i < nameDepth && matches; i++) {
+                matches = path[i].equals(names[i]);
+            }
+
+            if(matches) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Called before reading the payload of a compound entry, to know where the lazy lists are
+     */
+    public void pushName(String name) {
+        if(lazyPaths == null) return;
+
+        if(nameDepth == names.length) {
+            names = Arrays.copyOf(names, names.length * 2);
+        }
+
+        names[nameDepth++] = name;
+    }
+
+    public void popName() {
+        if(lazyPaths == null) return;
+
+        names[--nameDepth] = null;
+    }
+}
@@ -0,0 +1,99 @@
+package fr.rader.regions.nbt;
+
+import fr.rader.regions.utils.DataReader;
+import fr.rader.regions.utils.ModifiedUTF8;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Short strings read by a {@link NBTReadContext}. Compound keys and values such as block names repeat
+ * all over chunk data, reading one again hands out the bytes and the <code>String</code> read the first time
+ * instead of allocating new ones. The cached arrays are shared by every tag read from them, they must never be modified.
+ * <p>
+ * Like contexts, caches are not thread safe.
+ */
+public final class NBTStringCache {
+
+    // longer strings rarely repeat, they are read as they are
+    public static final int MAX_LENGTH = 64;
+
+    // must be a power of two, a string replaces the one in its slot
+    private static final int SIZE = 512;
+
+    private final byte[][] encoded = new byte[SIZE][];
+    private final String[] decoded = new String[SIZE];
+
+    private final byte[] scratch = new byte[MAX_LENGTH];
+
+    /**
+     * Read the Modified UTF-8 encoding of a string
+     * @param length Length of the string in bytes
+     * @return the bytes of the string, shared with the other strings read with the same bytes
+     * @exception IOException when an I/O error occurs.
+     */
+    public byte[] readEncoded(DataReader reader, int length) throws IOException {
+        if(length > MAX_LENGTH) return reader.readFollowingBytes(length);
+
+        reader.readFully(scratch, 0, length);
+
+        int slot = slot(scratch, length);
+        byte[] cached = encoded[slot];
+        if(cached != null && cached.length == length && matches(cached, scratch)) {
+            return cached;
+        }
+
+        cached = Arrays.copyOf(scratch, length);
+        encoded[slot] = cached;
+        decoded[slot] = null;
+
+        return cached;
+    }
+
+    /**
+     * Read and decode a string
+     * @param length Length of the string in bytes
+     * @exception IOException when an I/O error occurs.
+     * @exception NBTFormatException if the bytes are not valid Modified UTF-8
+     */
+    public String readString(DataReader reader, int length) throws IOException {
+        return decode(readEncoded(reader, length));
+    }
+
+    /**
+     * Decode bytes returned by {@link #readEncoded(DataReader, int)}, strings already decoded are not decoded again
+     * @exception NBTFormatException if the bytes are not valid Modified UTF-8
+     */
+    public String decode(byte[] bytes) {
+        if(bytes.length > MAX_LENGTH) return ModifiedUTF8.decode(bytes);
+
+        int slot = slot(bytes, bytes.length);
+        if(encoded[slot] != bytes) return ModifiedUTF8.decode(bytes);
+
+        String value = decoded[slot];
+        if(value == null) {
+            value = ModifiedUTF8.decode(bytes);
+            decoded[slot] = value;
+        }
+
+        return value;
+    }
+
+    private static int slot(byte[] bytes, int length) {
+        int hash = length;
+        for(int i = 0; i < length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+
+        return (hash ^ (hash >>> 16)) & (SIZE - 1);
+    }
+
+    // compares the first cached.length bytes of the scratch buffer
+    private static boolean matches(byte[] cached, byte[] scratch) {
+        for(int i = 0; i < cached.length; i++) {
+            if(cached[i] != scratch[i]) return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,529 @@
+package fr.rader.regions.nbt;
+
+import fr.rader.regions.nbt.tags.*;
+import fr.rader.regions.utils.DataReader;
+import fr.rader.regions.utils.ModifiedUTF8;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only flyweight over encoded NBT data. Compounds and lists are navigated by offset
+ * directly in the buffer, primitives and arrays are read straight from the bytes without building any tag.
+ * <p>
+ * The data is not trusted: every length is checked against the end of the buffer before it is used,
+ * and lists, nesting and the tags built by {@link #toTag()} are checked against the {@link NBTLimits} of the view.
+ * Malformed data throws a {@link NBTFormatException}.
+ * <p>
+ * Compounds are scanned on every {@link #get(String)}, calling {@link #index()} builds
+ * a small name to offset index the first time, which makes the next lookups constant time.
+ * Lists of variable sized elements build their offset index on the first {@link #get(int)}.
+ */
+public class NBTView {
+
+    private final ByteBuffer buffer;
+    private final NBTLimits limits;
+    private final int tagID;
+    private final String name;
+    private final int offset;   // offset of the payload in the buffer
+
+    private Map<String, Integer> compoundIndex;
+    private int[] listIndex;
+
+    private NBTView(ByteBuffer buffer, NBTLimits limits, int tagID, String name, int offset) {
+        this.buffer = buffer;
+        this.limits = limits;
+        this.tagID = tagID;
+        this.name = name;
+        this.offset = offset;
+    }
+
+    /**
+     * Create a view over the named tag starting at the current position of the buffer (usually the root compound)
+     * @param buffer Decompressed NBT data, the buffer is not copied
+     * @return View of the tag, or null if the data starts with an end tag
+     */
+    public static NBTView wrap(ByteBuffer buffer) {
+        return wrap(buffer, NBTLimits.DEFAULT);
+    }
+
+    /**
+     * @param limits Limits checked while navigating the data
+     * @exception NBTFormatException if the header of the tag is truncated
+     */
+    public static NBTView wrap(ByteBuffer buffer, NBTLimits limits) {
+        if(limits == null) throw new IllegalArgumentException("Limits cannot be null");
+
+        ByteBuffer data = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+
+        int position = data.position();
+        checkRange(data, position, 1);
+
+        int tagID = data.get(position) & 0xff;
+        if(tagID == 0) return null;
+
+        checkRange(data, position + 1, 2);
+        int nameLength = data.getShort(position + 1) & 0xffff;
+
+        return new NBTView(data, limits, tagID, readString(data, position + 3, nameLength), position + 3 + nameLength);
+    }
+
+    public static NBTView wrap(byte[] data) {
+        return wrap(ByteBuffer.wrap(data));
+    }
+
+    public static NBTView wrap(byte[] data, NBTLimits limits) {
+        return wrap(ByteBuffer.wrap(data), limits);
+    }
+
+    public int getTagID() {
+        return tagID;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the entry of a compound
+     * @param name Name of the entry
+     * @return View of the entry, or null if the compound does not contain it
+     */
+    public NBTView get(String name) {
+        checkTagID(TagCompound.TAG_ID, "get(name)");
+
+        if(compoundIndex != null) {
+            Integer position = compoundIndex.get(name);
+            return (position == null) ? null : entryAt(position, name);
+        }
+
+        byte[] nameBytes = ModifiedUTF8.encode(name);
+
+        int position = offset;
+        int entryID;
+        while((entryID = byteAt(position)) != 0) {
+            int nameLength = shortAt(position + 1);
+            int payload = checkRange(position + 3, nameLength);
+
+            if(nameMatches(position + 3, nameLength, nameBytes)) {
+                return new NBTView(buffer, limits, entryID, name, payload);
+            }
+
+            position = skipPayload(entryID, payload);
+        }
+
+        return null;
+    }
+
+    /**
+     * @return views over every entry of a compound, in the order they are stored
+     */
+    public List<NBTView> getEntries() {
+        checkTagID(TagCompound.TAG_ID, "getEntries()");
+
+        List<NBTView> entries = new ArrayList<>();
+
+        int position = offset;
+        int entryID;
+        while((entryID = byteAt(position)) != 0) {
+            int nameLength = shortAt(position + 1);
+            int payload = checkRange(position + 3, nameLength);
+
+            entries.add(new NBTView(buffer, limits, entryID, readString(buffer, position + 3, nameLength), payload));
+            position = skipPayload(entryID, payload);
+        }
+
+        return entries;
+    }
+
+    public boolean has(String name) {
+        return get(name) != null;
+    }
+
+    /**
+     * Build the name to offset index of this compound if it does not exist yet
+     * @return this view
+     */
+    public NBTView index() {
+        checkTagID(TagCompound.TAG_ID, "index()");
+
+        if(compoundIndex != null) {
+            return this;
+        }
+
+        Map<String, Integer> index = new HashMap<>();
+
+        int position = offset;
+        int entryID;
+        while((entryID = byteAt(position)) != 0) {
+            int nameLength = shortAt(position + 1);
+
+            index.put(readString(buffer, position + 3, nameLength), position);
+            position = skipPayload(entryID, position + 3 + nameLength);
+        }
+
+        this.compoundIndex = index;
+
+        return this;
+    }
+
+    /**
+     * Get an element of a list
+     * @param index Index of the element
+     * @return View of the element
+     */
+    public NBTView get(int index) {
+        checkTagID(TagList.TAG_ID, "get(index)");
+
+        int length = size();
+        if(index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("[NBTView] -> [#get(index)] index must be between 0 and " + (length - 1) + " (index is " + index + ")");
+        }
+
+        int childrenID = getChildrenID();
+        int elementsOffset = offset + 5;
+
+        // the elements are all in the buffer, size() checked it
+        int payloadSize = TagType.getPayloadSize(childrenID);
+        if(payloadSize > 0) {
+            return new NBTView(buffer, limits, childrenID, null, elementsOffset + index * payloadSize);
+        }
+
+        if(listIndex == null) {
+            int[] offsets = new int[length];
+
+            int position = elementsOffset;
+            for(int i = 0; i < length; i++) {
+                offsets[i] = position;
+                position = skipPayload(childrenID, position);
+            }
+
+            listIndex = offsets;
+        }
+
+        return new NBTView(buffer, limits, childrenID, null, listIndex[index]);
+    }
+
+    public int getChildrenID() {
+        checkTagID(TagList.TAG_ID, "getChildrenID()");
+
+        return byteAt(offset);
+    }
+
+    /**
+     * @return number of elements of a list or an array, or number of entries of a compound
+     * @exception NBTFormatException if the elements don't fit in the buffer
+     */
+    public int size() {
+        switch(tagID) {
+            case 7:
+                return arrayLength(offset, 1);
+            case 11:
+                return arrayLength(offset, 4);
+            case 12:
+                return arrayLength(offset, 8);
+            case 9:
+                return listLength(offset);
+            case 10:
+                if(compoundIndex != null) {
+                    return compoundIndex.size();
+                }
+
+                int size = 0;
+                int position = offset;
+                int entryID;
+                while((entryID = byteAt(position)) != 0) {
+                    position = skipPayload(entryID, checkRange(position + 3, shortAt(position + 1)));
+                    size++;
+                }
+
+                return size;
+            default:
+                throw new IllegalStateException("[NBTView] -> [#size()] tag " + tagID + " does not have a size");
+        }
+    }
+
+    public int getAsByte() {
+        checkTagID(TagByte.TAG_ID, "getAsByte()");
+        return (byte) byteAt(offset);
+    }
+
+    public int getAsShort() {
+        checkTagID(TagShort.TAG_ID, "getAsShort()");
+        return (short) shortAt(offset);
+    }
+
+    public int getAsInt() {
+        checkTagID(TagInt.TAG_ID, "getAsInt()");
+        return intAt(offset);
+    }
+
+    public long getAsLong() {
+        checkTagID(TagLong.TAG_ID, "getAsLong()");
+        checkRange(offset, 8);
+        return buffer.getLong(offset);
+    }
+
+    public float getAsFloat() {
+        checkTagID(TagFloat.TAG_ID, "getAsFloat()");
+        checkRange(offset, 4);
+        return buffer.getFloat(offset);
+    }
+
+    public double getAsDouble() {
+        checkTagID(TagDouble.TAG_ID, "getAsDouble()");
+        checkRange(offset, 8);
+        return buffer.getDouble(offset);
+    }
+
+    public String getAsString() {
+        checkTagID(TagString.TAG_ID, "getAsString()");
+        return readString(buffer, offset + 2, shortAt(offset));
+    }
+
+    /**
+     * @return read-only slice of the buffer holding the bytes of the array
+     */
+    public ByteBuffer getAsByteArray() {
+        checkTagID(TagByteArray.TAG_ID, "getAsByteArray()");
+        return slice(offset + 4, arrayLength(offset, 1));
+    }
+
+    /**
+     * @return read-only slice of the buffer holding the ints of the array
+     */
+    public IntBuffer getAsIntArray() {
+        checkTagID(TagIntArray.TAG_ID, "getAsIntArray()");
+        return slice(offset + 4, arrayLength(offset, 4) * 4).asIntBuffer();
+    }
+
+    /**
+     * @return read-only slice of the buffer holding the longs of the array
+     */
+    public LongBuffer getAsLongArray() {
+        checkTagID(TagLongArray.TAG_ID, "getAsLongArray()");
+        return slice(offset + 4, arrayLength(offset, 8) * 8).asLongBuffer();
+    }
+
+    /**
+     * Build the tag this view points to, only use this for small subtrees
+     * @return Tag holding a copy of the data
+     * @exception NBTFormatException if the data is malformed or goes over the limits of the view
+     */
+    public TagBase toTag() {
+        switch(tagID) {
+            case 1:
+                return new TagByte(name, getAsByte());
+            case 2:
+                return new TagShort(name, getAsShort());
+            case 3:
+                return new TagInt(name, getAsInt());
+            case 4:
+                return new TagLong(name, getAsLong());
+            case 5:
+                return new TagFloat(name, getAsFloat());
+            case 6:
+                return new TagDouble(name, getAsDouble());
+            case 8:
+                return new TagString(name, getAsString());
+            default:
+                break;
+        }
+
+        int length = skipPayload(tagID, offset) - offset;
+        byte[] payload = new byte[length];
+        ByteBuffer data = buffer.duplicate();
+        data.position(offset);
+        data.get(payload);
+
+        DataReader reader = new DataReader(new ByteArrayInputStream(payload));
+        reader.setNBTContext(new NBTReadContext(limits));
+
+        try {
+            return TagType.byID(tagID).read(name, reader);
+        } catch (IOException e) {
+            // skipping the payload checked that every length fits in it, reading it from memory cannot run out of bytes
+            throw new IllegalStateException("[NBTView] -> [#toTag()] could not read tag " + tagID, e);
+        }
+    }
+
+    private NBTView entryAt(int position, String name) {
+        int entryID = byteAt(position);
+        int nameLength = shortAt(position + 1);
+
+        return new NBTView(buffer, limits, entryID, name, position + 3 + nameLength);
+    }
+
+    private ByteBuffer slice(int position, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(position + length).position(position);
+
+        return slice.slice().order(ByteOrder.BIG_ENDIAN).asReadOnlyBuffer();
+    }
+
+    // the name has been checked to fit in the buffer
+    private boolean nameMatches(int position, int length, byte[] name) {
+        if(length != name.length) return false;
+
+        for(int i = 0; i < length; i++) {
+            if(buffer.get(position + i) != name[i]) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return offset of the byte right after the payload starting at <code>position</code>
+     */
+    private int skipPayload(int tagID, int position) {
+        return skipPayload(tagID, position, 0);
+    }
+
+    private int skipPayload(int tagID, int position, int depth) {
+        if(depth > limits.getMaxDepth()) {
+            throw new NBTLimitException("[NBTView] -> [#skipPayload(tagID, position)] NBT data is nested deeper than " + limits.getMaxDepth() + " tags");
+        }
+
+        switch(tagID) {
+            case 1:
+                return checkRange(position, 1);
+            case 2:
+                return checkRange(position, 2);
+            case 3:
+            case 5:
+                return checkRange(position, 4);
+            case 4:
+            case 6:
+                return checkRange(position, 8);
+            case 7:
+                return checkRange(position + 4, arrayLength(position, 1));
+            case 8:
+                return checkRange(position + 2, shortAt(position));
+            case 9:
+                int childrenID = byteAt(position);
+                int length = listLength(position);
+                position += 5;
+
+                int payloadSize = TagType.getPayloadSize(childrenID);
+                if(payloadSize >= 0) {
+                    return checkRange(position, (long) length * payloadSize);
+                }
+
+                for(int i = 0; i < length; i++) {
+                    position = skipPayload(childrenID, position, depth + 1);
+                }
+
+                return position;
+            case 10:
+                int entryID;
+                while((entryID = byteAt(position)) != 0) {
+                    position = skipPayload(entryID, checkRange(position + 3, shortAt(position + 1)), depth + 1);
+                }
+
+                return position + 1;
+            case 11:
+                return checkRange(position + 4, arrayLength(position, 4) * 4L);
+            case 12:
+                return checkRange(position + 4, arrayLength(position, 8) * 8L);
+            default:
+                throw new NBTFormatException("Unexpected tag: " + Integer.toHexString(tagID));
+        }
+    }
+
+    /**
+     * @return length of the array whose payload starts at <code>position</code>
+     * @exception NBTFormatException if the length is negative or the elements don't fit in the buffer
+     */
+    private int arrayLength(int position, int elementSize) {
+        int length = intAt(position);
+        if(length < 0) {
+            throw new NBTLimitException("[NBTView] -> [#arrayLength(position, elementSize)] negative length: " + length);
+        }
+
+        checkRange(position + 4, (long) length * elementSize);
+
+        return length;
+    }
+
+    /**
+     * @return length of the list whose payload starts at <code>position</code>, 0 for lists of end tags
+     * @exception NBTFormatException if the length is negative, goes over the limits or cannot fit in the buffer
+     */
+    private int listLength(int position) {
+        int childrenID = byteAt(position);
+        int length = intAt(position + 1);
+
+        // lists of end tags have no elements, whatever their length
+        if(childrenID == 0) return 0;
+
+        if(length < 0) {
+            throw new NBTLimitException("[NBTView] -> [#listLength(position)] negative length: " + length);
+        }
+
+        if(length > limits.getMaxElements()) {
+            throw new NBTLimitException("[NBTView] -> [#listLength(position)] list holds more than " + limits.getMaxElements() + " elements");
+        }
+
+        // every element takes at least one byte
+        checkRange(position + 5, (long) length * Math.max(TagType.getPayloadSize(childrenID), 1));
+
+        return length;
+    }
+
+    private int byteAt(int position) {
+        checkRange(position, 1);
+        return buffer.get(position) & 0xff;
+    }
+
+    private int shortAt(int position) {
+        checkRange(position, 2);
+        return buffer.getShort(position) & 0xffff;
+    }
+
+    private int intAt(int position) {
+        checkRange(position, 4);
+        return buffer.getInt(position);
+    }
+
+    private int checkRange(int position, long length) {
+        return checkRange(buffer, position, length);
+    }
+
+    /**
+     * @return offset of the byte right after the <code>length</code> bytes starting at <code>position</code>
+     * @exception NBTFormatException if the bytes go past the end of the buffer
+     */
+    private static int checkRange(ByteBuffer buffer, int position, long length) {
+        long end = position + length;
+        if(position < 0 || end > buffer.limit()) {
+            throw new NBTFormatException("[NBTView] -> [#checkRange(position, length)] " + length + " bytes at offset " + position + " go past the end of the data (" + buffer.limit() + " bytes)");
+        }
+
+        return (int) end;
+    }
+
+    private void checkTagID(int expected, String method) {
+        if(tagID != expected) {
+            throw new IllegalStateException("[NBTView] -> [#" + method + "] tag is a " + tagID + ", expected " + expected);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer, int position, int length) {
+        checkRange(buffer, position, length);
+
+        byte[] bytes = new byte[length];
+        ByteBuffer data = buffer.duplicate();
+        data.position(position);
+        data.get(bytes);
+
+        return ModifiedUTF8.decode(bytes);
+    }
+}
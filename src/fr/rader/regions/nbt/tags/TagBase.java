@@ -1,17 +1,43 @@
 package fr.rader.regions.nbt.tags;
 
+import fr.rader.regions.utils.DataReader;
 import fr.rader.regions.utils.DataWriter;
+import fr.rader.regions.utils.HashingDataWriter;
+import fr.rader.regions.utils.ModifiedUTF8;
 
-public abstract class TagBase {
+import java.io.IOException;
+import java.util.Objects;
 
-    private final String simpleName = this.getClass().getSimpleName();
-    private final String type = capitalizeFirst(getTagNameFromClass());
+public abstract class TagBase {
 
     private String name;
     private byte tagID;
 
+    // Modified UTF-8 encoding of the name, built the first time the tag is written
+    // (or kept from the data the tag was read from) and dropped when the name changes
+    private volatile byte[] encodedName;
+
+    // compound or list holding this tag, used to invalidate the cached hashes when this tag changes
+    private TagBase parent;
+
+    // frozen tags are part of an immutable snapshot, they can be shared but never change
+    private boolean frozen = false;
+
     public abstract void write(DataWriter writer);
 
+    /**
+     * @return true if the value of this tag is structurally equal to the value of <code>tag</code>,
+     * which is always of the same class as this tag
+     */
+    protected abstract boolean valueEquals(TagBase tag);
+
+    protected abstract int valueHashCode();
+
+    /**
+     * @return a mutable deep copy of this tag
+     */
+    public abstract TagBase copy();
+
     public void setID(byte id) {
         this.tagID = id;
     }
@@ -21,16 +47,170 @@ public abstract class TagBase {
     }
 
     public void setName(String name) {
+        checkMutable("setName(name)");
+
         this.name = name;
+        this.encodedName = null;
+        markChanged();
     }
 
     public String getName() {
         return this.name;
     }
 
+    /**
+     * @return the Modified UTF-8 encoding of the name, or null if the tag has no name
+     */
+    byte[] getEncodedName() {
+        byte[] encoded = this.encodedName;
+
+        if(encoded == null && name != null) {
+            encoded = ModifiedUTF8.encode(name);
+            this.encodedName = encoded;
+        }
+
+        return encoded;
+    }
+
+    /**
+     * Keep the bytes the name has been decoded from, so they don't have to be encoded again
+     */
+    void setEncodedName(byte[] encodedName) {
+        this.encodedName = encodedName;
+    }
+
+    /**
+     * Write the ID and the name of the tag, if it has one. List elements don't have a header
+     */
+    protected void writeHeader(DataWriter writer) {
+        if(name != null) {
+            writer.writeByte(tagID);
+            writer.writeModifiedUTF8(getEncodedName());
+        }
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Make this tag (and everything it holds) immutable
+     */
+    void freeze() {
+        this.frozen = true;
+    }
+
+    /**
+     * @return a mutable copy of this frozen tag. Compounds and lists only copy their own
+     * list of tags, the tags they hold stay shared until they are accessed
+     */
+    TagBase thaw() {
+        return copy();
+    }
+
+    /**
+     * Read the payload of a recycled tag, see {@link TagPool}
+     */
+    void readPayload(DataReader reader) throws IOException {
+        throw new UnsupportedOperationException("[" + getClass().getSimpleName() + "] -> [#readPayload(reader)] tag cannot be recycled");
+    }
+
+    /**
+     * Reset this tag before it goes back to <code>pool</code>, the tags it holds are released to the pool too
+     */
+    void recycle(TagPool pool) {
+        this.name = null;
+        this.encodedName = null;
+        this.parent = null;
+    }
+
+    protected void checkMutable(String method) {
+        if(frozen) {
+            throw new UnsupportedOperationException("[" + getClass().getSimpleName() + "] -> [#" + method + "] tag is part of an immutable snapshot");
+        }
+    }
+
+    /**
+     * Called by compounds and lists before adding <code>tag</code>. A tag can only have one parent to tell
+     * when it changes, frozen tags never change and can be shared
+     * @exception IllegalArgumentException if the tag already is in a compound or a list
+     */
+    void checkOrphan(String method, TagBase tag) {
+        if(tag.parent != null && !tag.frozen) {
+            throw new IllegalArgumentException("[" + getClass().getSimpleName() + "] -> [#" + method + "] tag is already in a compound or a list, add a copy of it instead");
+        }
+    }
+
+    void setParent(TagBase parent) {
+        // frozen tags can be shared by several compounds or lists, and never change anyway
+        if(!frozen) {
+            this.parent = parent;
+        }
+    }
+
+    /**
+     * Must be called every time the value of a tag changes, so the compounds
+     * and lists holding it drop their cached hash
+     */
+    protected void markChanged() {
+        TagBase tag = this;
+
+        // a container without a cached hash can't have parents with a cached hash,
+        // hashing a parent always hashes its children first
+        while(tag != null && tag.invalidateHash()) {
+            tag = tag.parent;
+        }
+    }
+
+    /**
+     * Drop the cached hash of this tag
+     * @return false if there was no cached hash, true otherwise
+     */
+    boolean invalidateHash() {
+        return true;
+    }
+
+    /**
+     * Stable 64 bits hash (FNV-1a) of the encoded form of this tag, two tags with the same
+     * content hash can be considered identical, which allows skipping the rewrite of unchanged data
+     */
+    public long contentHash() {
+        HashingDataWriter writer = new HashingDataWriter();
+        write(writer);
+
+        return writer.getHash();
+    }
+
+    /**
+     * Same as {@link #contentHash()}, but hashes the canonical encoding (see {@link DataWriter#setCanonical(boolean)}),
+     * tags that are {@link #equals(Object) equal} have the same canonical hash
+     */
+    public long canonicalHash() {
+        HashingDataWriter writer = new HashingDataWriter();
+        writer.setCanonical(true);
+        write(writer);
+
+        return writer.getHash();
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if(this == object) return true;
+        if(object == null || getClass() != object.getClass()) return false;
+
+        TagBase tag = (TagBase) object;
+
+        return Objects.equals(name, tag.name) && valueEquals(tag);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hashCode(name) + valueHashCode();
+    }
+
     public TagByte getAsTagByte() {
         if(!(this instanceof TagByte)) {
-            throw new ClassCastException("Cannot cast to TagByte, please use #getAs" + simpleName + "() instead.");
+            throw new ClassCastException("Cannot cast to TagByte, please use #getAs" + getClass().getSimpleName() + "() instead.");
         }
 
         return (TagByte) this;
@@ -38,7 +218,7 @@ public abstract class TagBase {
 
     public TagShort getAsTagShort() {
         if(!(this instanceof TagShort)) {
-            throw new ClassCastException("Cannot cast to TagShort, please use #getAs" + simpleName + "() instead.");
+            throw new ClassCastException("Cannot cast to TagShort, please use #getAs" + getClass().getSimpleName() + "() instead.");
         }
 
         return (TagShort) this;
@@ -46,7 +226,7 @@ public abstract class TagBase {
 
     public TagInt getAsTagInt() {
         if(!(this instanceof TagInt)) {
-            throw new ClassCastException("Cannot cast to TagInt, please use #getAs" + simpleName + "() instead.");
+            throw new ClassCastException("Cannot cast to TagInt, please use #getAs" + getClass().getSimpleName() + "() instead.");
         }
 
         return (TagInt) this;
@@ -54,7 +234,7 @@ public abstract class TagBase {
 
     public TagLong getAsTagLong() {
         if(!(this instanceof TagLong)) {
-            throw new ClassCastException("Cannot cast to TagLong, please use #getAs" + simpleName + "() instead.");
+            throw new ClassCastException("Cannot cast to TagLong, please use #getAs" + getClass().getSimpleName() + "() instead.");
         }
 
         return (TagLong) this;
@@ -62,7 +242,7 @@ public abstract class TagBase {
 
     public TagFloat getAsTagFloat() {
         if(!(this instanceof TagFloat)) {
-            throw new ClassCastException("Cannot cast to TagFloat, please use #getAs" + simpleName + "() instead.");
+            throw new ClassCastException("Cannot cast to TagFloat, please use #getAs" + getClass().getSimpleName() + "() instead.");
         }
 
         return (TagFloat) this;
@@ -70,7 +250,7 @@ public abstract class TagBase {
 
     public TagDouble getAsTagDouble() {
         if(!(this instanceof TagDouble)) {
-            throw new ClassCastException("Cannot cast to TagDouble, please use #getAs" + simpleName + "() instead.");
+            throw new ClassCastException("Cannot cast to TagDouble, please use #getAs" + getClass().getSimpleName() + "() instead.");
         }
 
         return (TagDouble) this;
@@ -78,7 +258,7 @@ public abstract class TagBase {
 
     public TagByteArray getAsTagByteArray() {
         if(!(this instanceof TagByteArray)) {
-            throw new ClassCastException("Cannot cast to TagByteArray, please use #getAs" + simpleName + "() instead.");
+            throw new ClassCastException("Cannot cast to TagByteArray, please use #getAs" + getClass().getSimpleName() + "() instead.");
         }
 
         return (TagByteArray) this;
@@ -86,7 +266,7 @@ public abstract class TagBase {
 
     public TagString getAsTagString() {
         if(!(this instanceof TagString)) {
-            throw new ClassCastException("Cannot cast to TagString, please use #getAs" + simpleName + "() instead.");
+            throw new ClassCastException("Cannot cast to TagString, please use #getAs" + getClass().getSimpleName() + "() instead.");
         }
 
         return (TagString) this;
@@ -94,7 +274,7 @@ public abstract class TagBase {
 
     public TagCompound getAsTagCompound() {
         if(!(this instanceof TagCompound)) {
-            throw new ClassCastException("Cannot cast to TagCompound, please use #getAs" + simpleName + "() instead.");
+            throw new ClassCastException("Cannot cast to TagCompound, please use #getAs" + getClass().getSimpleName() + "() instead.");
         }
 
         return (TagCompound) this;
@@ -102,7 +282,7 @@ public abstract class TagBase {
 
     public TagIntArray getAsTagIntArray() {
         if(!(this instanceof TagIntArray)) {
-            throw new ClassCastException("Cannot cast to TagIntArray, please use #getAs" + simpleName + "() instead.");
+            throw new ClassCastException("Cannot cast to TagIntArray, please use #getAs" + getClass().getSimpleName() + "() instead.");
         }
 
         return (TagIntArray) this;
@@ -110,95 +290,95 @@ public abstract class TagBase {
 
     public TagLongArray getAsTagLongArray() {
         if(!(this instanceof TagLongArray)) {
-            throw new ClassCastException("Cannot cast to TagLongArray, please use #getAs" + simpleName + "() instead.");
+            throw new ClassCastException("Cannot cast to TagLongArray, please use #getAs" + getClass().getSimpleName() + "() instead.");
         }
 
         return (TagLongArray) this;
     }
 
     public int getAsByte() {
-        try {
-            return getAsTagByte().getValue();
-        } catch (ClassCastException e) {
-            throw new ClassCastException("Cannot get as byte, please use #getAs" + type + "() instead.");
+        if(this instanceof TagByte) {
+            return ((TagByte) this).getValue();
         }
+
+        throw new ClassCastException("Cannot get as byte, please use #getAs" + getType() + "() instead.");
     }
 
     public int getAsShort() {
-        try {
-            return getAsTagByte().getValue();
-        } catch (ClassCastException e) {
-            throw new ClassCastException("Cannot get as short, please use #getAs" + type + "() instead.");
+        if(this instanceof TagShort) {
+            return ((TagShort) this).getValue();
         }
+
+        throw new ClassCastException("Cannot get as short, please use #getAs" + getType() + "() instead.");
     }
 
     public int getAsInt() {
-        try {
-            return getAsTagInt().getValue();
-        } catch (ClassCastException e) {
-            throw new ClassCastException("Cannot get as int, please use #getAs" + type + "() instead.");
+        if(this instanceof TagInt) {
+            return ((TagInt) this).getValue();
         }
+
+        throw new ClassCastException("Cannot get as int, please use #getAs" + getType() + "() instead.");
     }
 
     public long getAsLong() {
-        try {
-            return getAsTagLong().getValue();
-        } catch (ClassCastException e) {
-            throw new ClassCastException("Cannot get as long, please use #getAs" + type + "() instead.");
+        if(this instanceof TagLong) {
+            return ((TagLong) this).getValue();
         }
+
+        throw new ClassCastException("Cannot get as long, please use #getAs" + getType() + "() instead.");
     }
 
     public float getAsFloat() {
-        try {
-            return getAsTagFloat().getValue();
-        } catch (ClassCastException e) {
-            throw new ClassCastException("Cannot get as float, please use #getAs" + type + "() instead.");
+        if(this instanceof TagFloat) {
+            return ((TagFloat) this).getValue();
         }
+
+        throw new ClassCastException("Cannot get as float, please use #getAs" + getType() + "() instead.");
     }
 
     public double getAsDouble() {
-        try {
-            return getAsTagDouble().getValue();
-        } catch (ClassCastException e) {
-            throw new ClassCastException("Cannot get as double, please use #getAs" + type + "() instead.");
+        if(this instanceof TagDouble) {
+            return ((TagDouble) this).getValue();
         }
+
+        throw new ClassCastException("Cannot get as double, please use #getAs" + getType() + "() instead.");
     }
 
     public byte[] getAsByteArray() {
-        try {
-            return getAsTagByteArray().getValue();
-        } catch (ClassCastException e) {
-            throw new ClassCastException("Cannot get as byte array, please use #getAs" + type + "() instead.");
+        if(this instanceof TagByteArray) {
+            return ((TagByteArray) this).getValue();
         }
+
+        throw new ClassCastException("Cannot get as byte array, please use #getAs" + getType() + "() instead.");
     }
 
     public String getAsString() {
-        try {
-            return getAsTagString().getValue();
-        } catch (ClassCastException e) {
-            throw new ClassCastException("Cannot get as string, please use #getAs" + type + "() instead.");
+        if(this instanceof TagString) {
+            return ((TagString) this).getValue();
         }
+
+        throw new ClassCastException("Cannot get as string, please use #getAs" + getType() + "() instead.");
     }
 
     public int[] getAsIntArray() {
-        try {
-            return getAsTagIntArray().getValue();
-        } catch (ClassCastException e) {
-            throw new ClassCastException("Cannot get as int array, please use #getAs" + type + "() instead.");
+        if(this instanceof TagIntArray) {
+            return ((TagIntArray) this).getValue();
         }
+
+        throw new ClassCastException("Cannot get as int array, please use #getAs" + getType() + "() instead.");
     }
 
     public long[] getAsLongArray() {
-        try {
-            return getAsTagLongArray().getValue();
-        } catch (ClassCastException e) {
-            throw new ClassCastException("Cannot get as long array, please use #getAs" + type + "() instead.");
+        if(this instanceof TagLongArray) {
+            return ((TagLongArray) this).getValue();
         }
+
+        throw new ClassCastException("Cannot get as long array, please use #getAs" + getType() + "() instead.");
     }
 
     public TagList<TagByte> getAsByteList() {
         if(!(this instanceof TagList)) {
-            throw new ClassCastException("Cannot cast to TagList<TagByte> because the class does not match (tag is a " + simpleName + ").");
+            throw new ClassCastException("Cannot cast to TagList<TagByte> because the class does not match (tag is a " + getClass().getSimpleName() + ").");
         }
 
         @SuppressWarnings("unchecked")
@@ -213,7 +393,7 @@ public abstract class TagBase {
 
     public TagList<TagShort> getAsShortList() {
         if(!(this instanceof TagList)) {
-            throw new ClassCastException("Cannot cast to TagList<TagShort> because the class does not match (tag is a " + simpleName + ").");
+            throw new ClassCastException("Cannot cast to TagList<TagShort> because the class does not match (tag is a " + getClass().getSimpleName() + ").");
         }
 
         @SuppressWarnings("unchecked")
@@ -228,7 +408,7 @@ public abstract class TagBase {
 
     public TagList<TagInt> getAsIntList() {
         if(!(this instanceof TagList)) {
-            throw new ClassCastException("Cannot cast to TagList<TagInt> because the class does not match (tag is a " + simpleName + ").");
+            throw new ClassCastException("Cannot cast to TagList<TagInt> because the class does not match (tag is a " + getClass().getSimpleName() + ").");
         }
 
         @SuppressWarnings("unchecked")
@@ -243,7 +423,7 @@ public abstract class TagBase {
 
     public TagList<TagLong> getAsLongList() {
         if(!(this instanceof TagList)) {
-            throw new ClassCastException("Cannot cast to TagList<TagLong> because the class does not match (tag is a " + simpleName + ").");
+            throw new ClassCastException("Cannot cast to TagList<TagLong> because the class does not match (tag is a " + getClass().getSimpleName() + ").");
         }
 
         @SuppressWarnings("unchecked")
@@ -258,7 +438,7 @@ public abstract class TagBase {
 
     public TagList<TagFloat> getAsFloatList() {
         if(!(this instanceof TagList)) {
-            throw new ClassCastException("Cannot cast to TagList<TagFloat> because the class does not match (tag is a " + simpleName + ").");
+            throw new ClassCastException("Cannot cast to TagList<TagFloat> because the class does not match (tag is a " + getClass().getSimpleName() + ").");
         }
 
         @SuppressWarnings("unchecked")
@@ -273,7 +453,7 @@ public abstract class TagBase {
 
     public TagList<TagDouble> getAsDoubleList() {
         if(!(this instanceof TagList)) {
-            throw new ClassCastException("Cannot cast to TagList<TagDouble> because the class does not match (tag is a " + simpleName + ").");
+            throw new ClassCastException("Cannot cast to TagList<TagDouble> because the class does not match (tag is a " + getClass().getSimpleName() + ").");
         }
 
         @SuppressWarnings("unchecked")
@@ -288,7 +468,7 @@ public abstract class TagBase {
 
     public TagList<TagByteArray> getAsByteArrayList() {
         if(!(this instanceof TagList)) {
-            throw new ClassCastException("Cannot cast to TagList<TagByteArray> because the class does not match (tag is a " + simpleName + ").");
+            throw new ClassCastException("Cannot cast to TagList<TagByteArray> because the class does not match (tag is a " + getClass().getSimpleName() + ").");
         }
 
         @SuppressWarnings("unchecked")
@@ -303,7 +483,7 @@ public abstract class TagBase {
 
     public TagList<TagString> getAsStringList() {
         if(!(this instanceof TagList)) {
-            throw new ClassCastException("Cannot cast to TagList<TagString> because the class does not match (tag is a " + simpleName + ").");
+            throw new ClassCastException("Cannot cast to TagList<TagString> because the class does not match (tag is a " + getClass().getSimpleName() + ").");
         }
 
         @SuppressWarnings("unchecked")
@@ -318,7 +498,7 @@ public abstract class TagBase {
 
     public TagList<TagList<?>> getAsListList() {
         if(!(this instanceof TagList)) {
-            throw new ClassCastException("Cannot cast to TagList<TagList<?>> because the class does not match (tag is a " + simpleName + ").");
+            throw new ClassCastException("Cannot cast to TagList<TagList<?>> because the class does not match (tag is a " + getClass().getSimpleName() + ").");
         }
 
         @SuppressWarnings("unchecked")
@@ -333,7 +513,7 @@ public abstract class TagBase {
 
     public TagList<TagCompound> getAsCompoundList() {
         if(!(this instanceof TagList)) {
-            throw new ClassCastException("Cannot cast to TagList<TagCompound> because the class does not match (tag is a " + simpleName + ").");
+            throw new ClassCastException("Cannot cast to TagList<TagCompound> because the class does not match (tag is a " + getClass().getSimpleName() + ").");
         }
 
         @SuppressWarnings("unchecked")
@@ -352,7 +532,7 @@ public abstract class TagBase {
 
     public TagList<TagIntArray> getAsIntArrayList() {
         if(!(this instanceof TagList)) {
-            throw new ClassCastException("Cannot cast to TagList<TagIntArray> because the class does not match (tag is a " + simpleName + ").");
+            throw new ClassCastException("Cannot cast to TagList<TagIntArray> because the class does not match (tag is a " + getClass().getSimpleName() + ").");
         }
 
         @SuppressWarnings("unchecked")
@@ -367,7 +547,7 @@ public abstract class TagBase {
 
     public TagList<TagLongArray> getAsLongArrayList() {
         if(!(this instanceof TagList)) {
-            throw new ClassCastException("Cannot cast to TagList<TagLongArray> because the class does not match (tag is a " + simpleName + ").");
+            throw new ClassCastException("Cannot cast to TagList<TagLongArray> because the class does not match (tag is a " + getClass().getSimpleName() + ").");
         }
 
         @SuppressWarnings("unchecked")
@@ -382,12 +562,16 @@ public abstract class TagBase {
 
     public TagList<?> getAsUnknownList() {
         if(!(this instanceof TagList)) {
-            throw new ClassCastException("Cannot cast to TagList<?> because the class does not match (tag is a " + simpleName + ").");
+            throw new ClassCastException("Cannot cast to TagList<?> because the class does not match (tag is a " + getClass().getSimpleName() + ").");
         }
 
         return (TagList<?>) this;
     }
 
+    private String getType() {
+        return capitalizeFirst(getTagNameFromClass());
+    }
+
     private String capitalizeFirst(String string) {
         char[] charString = string.toCharArray();
         charString[0] = Character.toUpperCase(charString[0]);
@@ -1,7 +1,10 @@
 package fr.rader.regions.nbt.tags;
 
+import fr.rader.regions.utils.DataReader;
 import fr.rader.regions.utils.DataWriter;
 
+import java.io.IOException;
+
 public class TagByte extends TagBase {
 
     public static final byte TAG_ID = 1;
@@ -24,17 +27,36 @@ public class TagByte extends TagBase {
     }
 
     public void setValue(int value) {
+        checkMutable("setValue(value)");
+
         this.value = value & 0xff;
+        markChanged();
+    }
+
+    @Override
+    void readPayload(DataReader reader) throws IOException {
+        setValue(reader.readByte());
     }
 
     @Override
     public void write(DataWriter writer) {
-        if(getName() != null) {
-            writer.writeByte(TAG_ID);
-            writer.writeShort(getName().length());
-            writer.writeString(getName());
-        }
+        writeHeader(writer);
 
         writer.writeByte(value);
     }
+
+    @Override
+    protected boolean valueEquals(TagBase tag) {
+        return value == ((TagByte) tag).value;
+    }
+
+    @Override
+    protected int valueHashCode() {
+        return value;
+    }
+
+    @Override
+    public TagByte copy() {
+        return new TagByte(getName(), value);
+    }
 }
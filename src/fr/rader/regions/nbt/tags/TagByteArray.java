@@ -1,21 +1,22 @@
 package fr.rader.regions.nbt.tags;
 
+import fr.rader.regions.utils.DataReader;
 import fr.rader.regions.utils.DataWriter;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.util.Arrays;
 
 public class TagByteArray extends TagBase {
 
     public static final byte TAG_ID = 7;
 
-    private List<Byte> value;
+    private byte[] value;
 
     public TagByteArray(String name) {
         setID(TAG_ID);
         setName(name);
 
-        this.value = new ArrayList<>();
+        this.value = new byte[0];
     }
 
     public TagByteArray(byte[] value) {
@@ -30,71 +31,119 @@ public class TagByteArray extends TagBase {
         setValue(value);
     }
 
-    public byte[] getValue() {
-        byte[] out = new byte[value.size()];
-
-        for(int i = 0; i < value.size(); i++) {
-            out[i] = value.get(i);
+    /**
+     * Create a tag holding <code>value</code> without copying it. The caller gives the array away
+     * and must not change it afterwards
+     */
+    public static TagByteArray wrap(String name, byte[] value) {
+        TagByteArray tag = new TagByteArray(name);
+        if(value != null) {
+            tag.value = value;
         }
 
-        return out;
+        return tag;
     }
 
-    public void setValue(byte[] value) {
-        if(this.value == null) {
-            this.value = new ArrayList<>();
-        }
+    /**
+     * @return a copy of the array held by this tag
+     */
+    public byte[] getValue() {
+        return value.clone();
+    }
 
-        if(value == null) {
-            return;
-        }
+    /**
+     * Replace the array held by this tag with a copy of <code>value</code>
+     */
+    public void setValue(byte[] value) {
+        checkMutable("setValue(value)");
 
-        for(byte b : value) {
-            this.value.add(b);
-        }
+        this.value = (value != null) ? value.clone() : new byte[0];
+        markChanged();
     }
 
     public void add(byte value) {
-        this.value.add(value);
+        checkMutable("add(value)");
+
+        this.value = Arrays.copyOf(this.value, this.value.length + 1);
+        this.value[this.value.length - 1] = value;
+        markChanged();
     }
 
     public byte get(int index) {
         validateIndex("get(index)", index);
 
-        return this.value.get(index);
+        return this.value[index];
     }
 
     public void remove(int index) {
+        checkMutable("remove(index)");
+
         validateIndex("remove(index)", index);
 
-        this.value.remove(index);
+        byte[] out = new byte[this.value.length - 1];
+        System.arraycopy(this.value, 0, out, 0, index);
+        System.arraycopy(this.value, index + 1, out, index, out.length - index);
+
+        this.value = out;
+        markChanged();
     }
 
     public void replace(int index, byte value) {
+        checkMutable("replace(index, value)");
+
         validateIndex("replace(index, value)", index);
 
-        this.value.set(index, value);
+        this.value[index] = value;
+        markChanged();
+    }
+
+    public int size() {
+        return this.value.length;
     }
 
     private void validateIndex(String method, int index) {
-        if(this.value.size() == 0) {
+        if(this.value.length == 0) {
             throw new IndexOutOfBoundsException("[TagByteArray] -> [#" + method + "] cannot replace value in an empty list (index is " + index + ")");
         }
 
-        if(index < 0 || index >= this.value.size()) {
-            throw new IndexOutOfBoundsException("[TagByteArray] -> [#" + method + "] index must be " + ((this.value.size() == 1) ? "" : "between 0 and ") + (this.value.size() - 1) + " (index is " + index + ")");
+        if(index < 0 || index >= this.value.length) {
+            throw new IndexOutOfBoundsException("[TagByteArray] -> [#" + method + "] index must be " + ((this.value.length == 1) ? "" : "between 0 and ") + (this.value.length - 1) + " (index is " + index + ")");
         }
     }
 
     @Override
-    public void write(DataWriter writer) {
-        if(getName() != null) {
-            writer.writeByte(TAG_ID);
-            writer.writeShort(getName().length());
-            writer.writeString(getName());
+    void readPayload(DataReader reader) throws IOException {
+        int length = reader.readInt();
+        reader.getNBTContext().reserve(length, 1);
+
+        // the array of a recycled tag is reused when it has the right length
+        if(value.length != length) {
+            value = new byte[length];
         }
 
-        writer.writeInt(value.size());
-        writer.writeByteArray(getValue());
+        reader.readFully(value, 0, length);
+    }
+
+    @Override
+    public void write(DataWriter writer) {
+        writeHeader(writer);
+
+        writer.writeInt(value.length);
+        writer.writeByteArray(value);
+    }
+
+    @Override
+    protected boolean valueEquals(TagBase tag) {
+        return Arrays.equals(value, ((TagByteArray) tag).value);
+    }
+
+    @Override
+    protected int valueHashCode() {
+        return Arrays.hashCode(value);
+    }
+
+    @Override
+    public TagByteArray copy() {
+        return wrap(getName(), value.clone());
     }
 }
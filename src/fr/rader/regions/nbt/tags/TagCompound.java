@@ -1,10 +1,14 @@
 package fr.rader.regions.nbt.tags;
 
+import fr.rader.regions.nbt.NBTReadContext;
 import fr.rader.regions.utils.DataReader;
 import fr.rader.regions.utils.DataWriter;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 public class TagCompound extends TagBase {
@@ -13,6 +17,9 @@ public class TagCompound extends TagBase {
 
     private final List<TagBase> tags;
 
+    // structural hash of the tags, 0 when it has to be computed again
+    private int hash = 0;
+
     public TagCompound() {
         setID(TAG_ID);
 
@@ -35,69 +42,68 @@ public class TagCompound extends TagBase {
         try {
             readCompound(reader);
         } catch (IOException e) {
-            e.printStackTrace();
+            // don't keep a truncated compound, it would be written back as is
+            throw new UncheckedIOException("[TagCompound] -> [#TagCompound(name, reader)] could not read the compound", e);
         }
     }
 
     private void readCompound(DataReader reader) throws IOException {
-        while(true) {
-            int tagID = reader.readByte();
-            if(tagID == 0) return;
-
-            String tagName = reader.readString(reader.readShort());
-
-            switch(tagID) {
-                case 1:
-                    add(new TagByte(tagName, reader.readByte()));
-                    break;
-                case 2:
-                    add(new TagShort(tagName, reader.readShort()));
-                    break;
-                case 3:
-                    add(new TagInt(tagName, reader.readInt()));
-                    break;
-                case 4:
-                    add(new TagLong(tagName, reader.readLong()));
-                    break;
-                case 5:
-                    add(new TagFloat(tagName, reader.readFloat()));
-                    break;
-                case 6:
-                    add(new TagDouble(tagName, reader.readDouble()));
-                    break;
-                case 7:
-                    add(new TagByteArray(tagName, reader.readFollowingBytes(reader.readInt())));
-                    break;
-                case 8:
-                    add(new TagString(tagName, reader.readString(reader.readShort())));
-                    break;
-                case 9:
-                    add(new TagList<>(tagName, reader));
-                    break;
-                case 10:
-                    add(new TagCompound(tagName, reader));
-                    break;
-                case 11:
-                    add(new TagIntArray(tagName, reader.readIntArray(reader.readInt())));
-                    break;
-                case 12:
-                    add(new TagLongArray(tagName, reader.readLongArray(reader.readInt())));
-                    break;
-                default:
-                    throw new IllegalStateException("Unexpected tag: " + Integer.toHexString(tagID));
+        NBTReadContext context = reader.getNBTContext();
+        context.enter();
+
+        int tagID;
+        while((tagID = reader.readByte()) != 0) {
+            byte[] encodedName = context.getStringCache().readEncoded(reader, reader.readShort());
+
+            TagType<?> type = TagType.byID(tagID);
+            context.reserve(1, Math.max(type.getPayloadSize(), 0));
+
+            String tagName = context.getStringCache().decode(encodedName);
+
+            TagBase tag;
+            if(tagID == TagList.TAG_ID && context.isLazy(tagName)) {
+                tag = TagList.lazy(tagName, reader.readRawTagPayload(tagID), context.getLimits());
+            } else {
+                context.pushName(tagName);
+                tag = type.read(tagName, reader);
+                context.popName();
             }
+
+            tag.setEncodedName(encodedName);
+            add(tag);
         }
+
+        context.exit();
+    }
+
+    @Override
+    void readPayload(DataReader reader) throws IOException {
+        readCompound(reader);
+    }
+
+    @Override
+    void recycle(TagPool pool) {
+        for(TagBase tag : tags) {
+            pool.release(tag);
+        }
+
+        tags.clear();
+        hash = 0;
+
+        super.recycle(pool);
     }
 
     @Override
     public void write(DataWriter writer) {
-        if(getName() != null) {
-            writer.writeByte(TAG_ID);
-            writer.writeShort(getName().length());
-            writer.writeString(getName());
+        writeHeader(writer);
+
+        List<TagBase> entries = tags;
+        if(writer.isCanonical() && tags.size() > 1) {
+            entries = new ArrayList<>(tags);
+            entries.sort(Comparator.comparing(TagBase::getName));
         }
 
-        for(TagBase tag : tags) {
+        for(TagBase tag : entries) {
             tag.write(writer);
         }
 
@@ -105,45 +111,87 @@ public class TagCompound extends TagBase {
     }
 
     public void add(TagBase nbt) {
+        checkMutable("add(nbt)");
+
         if(nbt.getName() == null) throw new IllegalArgumentException("NBT Tag must have a name");
+        checkOrphan("add(nbt)", nbt);
 
         tags.add(nbt);
+        nbt.setParent(this);
+        markChanged();
+    }
+
+    /**
+     * Add a tag, replacing the tag with the same name if there is one
+     */
+    public void put(TagBase nbt) {
+        checkMutable("put(nbt)");
+
+        if(nbt.getName() == null) throw new IllegalArgumentException("NBT Tag must have a name");
+
+        for(int i = 0; i < tags.size(); i++) {
+            if(tags.get(i).getName().equals(nbt.getName())) {
+                if(tags.get(i) == nbt) return;
+                checkOrphan("put(nbt)", nbt);
+
+                tags.set(i, nbt).setParent(null);
+                nbt.setParent(this);
+                markChanged();
+                return;
+            }
+        }
+
+        add(nbt);
     }
 
     public void remove(int index) {
+        checkMutable("remove(index)");
+
         validateIndex("remove(index)", index);
 
-        tags.remove(index);
+        tags.remove(index).setParent(null);
+        markChanged();
     }
 
     public void remove(TagBase nbt) {
-        tags.remove(nbt);
+        // tags are compared structurally, look for the instance itself
+        for(int i = 0; i < tags.size(); i++) {
+            if(tags.get(i) == nbt) {
+                remove(i);
+                return;
+            }
+        }
     }
 
     public void replace(int index, TagBase nbt) {
+        checkMutable("replace(index, nbt)");
+
         validateIndex("replace(index, nbt)", index);
 
         if(nbt.getName() == null) throw new IllegalArgumentException("NBT Tag must have a name");
 
-        tags.set(index, nbt);
+        if(tags.get(index) == nbt) return;
+        checkOrphan("replace(index, nbt)", nbt);
+
+        tags.set(index, nbt).setParent(null);
+        nbt.setParent(this);
+        markChanged();
     }
 
     public TagBase get(int index) {
         validateIndex("get(index)", index);
 
-        return tags.get(index);
+        return mutableAt(index);
     }
 
     public TagBase get(String name) {
-        for(TagBase tag : tags) {
-            if(tag.getName().equals(name)) return tag;
-        }
+        int index = indexOf(name);
 
-        return null;
+        return (index != -1) ? mutableAt(index) : null;
     }
 
     public boolean has(String name) {
-        return get(name) != null;
+        return find(name) != null;
     }
 
     /**
@@ -151,7 +199,160 @@ public class TagCompound extends TagBase {
      * @return true if the list contains something at the given index, false otherwise
      */
     public boolean has(int index) {
-        return get(index) != null;
+        validateIndex("has(index)", index);
+
+        return tags.get(index) != null;
+    }
+
+    /*
+     * Typed getters, they look the tag up once and give the default value (or null) if the tag
+     * is missing or has another type, without throwing
+     */
+
+    public byte getByte(String name, byte defaultValue) {
+        TagBase tag = find(name);
+        return (tag instanceof TagByte) ? (byte) ((TagByte) tag).getValue() : defaultValue;
+    }
+
+    public short getShort(String name, short defaultValue) {
+        TagBase tag = find(name);
+        return (tag instanceof TagShort) ? (short) ((TagShort) tag).getValue() : defaultValue;
+    }
+
+    public int getInt(String name, int defaultValue) {
+        TagBase tag = find(name);
+        return (tag instanceof TagInt) ? ((TagInt) tag).getValue() : defaultValue;
+    }
+
+    public long getLong(String name, long defaultValue) {
+        TagBase tag = find(name);
+        return (tag instanceof TagLong) ? ((TagLong) tag).getValue() : defaultValue;
+    }
+
+    public float getFloat(String name, float defaultValue) {
+        TagBase tag = find(name);
+        return (tag instanceof TagFloat) ? ((TagFloat) tag).getValue() : defaultValue;
+    }
+
+    public double getDouble(String name, double defaultValue) {
+        TagBase tag = find(name);
+        return (tag instanceof TagDouble) ? ((TagDouble) tag).getValue() : defaultValue;
+    }
+
+    public String getString(String name, String defaultValue) {
+        TagBase tag = find(name);
+        return (tag instanceof TagString) ? ((TagString) tag).getValue() : defaultValue;
+    }
+
+    /**
+     * @return a copy of the array held by the tag, or null
+     */
+    public byte[] getByteArray(String name) {
+        TagBase tag = find(name);
+        return (tag instanceof TagByteArray) ? ((TagByteArray) tag).getValue() : null;
+    }
+
+    /**
+     * @return a copy of the array held by the tag, or null
+     */
+    public int[] getIntArray(String name) {
+        TagBase tag = find(name);
+        return (tag instanceof TagIntArray) ? ((TagIntArray) tag).getValue() : null;
+    }
+
+    /**
+     * @return a copy of the array held by the tag, or null
+     */
+    public long[] getLongArray(String name) {
+        TagBase tag = find(name);
+        return (tag instanceof TagLongArray) ? ((TagLongArray) tag).getValue() : null;
+    }
+
+    public TagCompound getCompound(String name) {
+        int index = indexOf(name);
+        if(index == -1 || !(tags.get(index) instanceof TagCompound)) return null;
+
+        return (TagCompound) mutableAt(index);
+    }
+
+    public TagList<?> getList(String name) {
+        int index = indexOf(name);
+        if(index == -1 || !(tags.get(index) instanceof TagList)) return null;
+
+        return (TagList<?>) mutableAt(index);
+    }
+
+    /**
+     * @return the list of compounds, or null if the tag is missing or is not a list of compounds.
+     * Like {@link TagBase#getAsCompoundList()}, lists of end tags give a new empty list
+     */
+    @SuppressWarnings("unchecked")
+    public TagList<TagCompound> getCompoundList(String name) {
+        TagList<?> list = getList(name);
+        if(list == null) return null;
+
+        if(list.getChildrenID() == 0) {
+            return new TagList<>(TagCompound.class, list.getName());
+        }
+
+        return (list.getChildrenID() == TagCompound.TAG_ID) ? (TagList<TagCompound>) list : null;
+    }
+
+    /**
+     * Create an immutable snapshot of this compound. Nothing is copied, the tags are frozen and shared
+     * between the snapshot and this compound, which stays mutable and only copies a tag when it is accessed again.
+     * <p>
+     * Tags fetched from this compound before the snapshot are part of the snapshot, they have to be fetched again to be changed
+     * @return the snapshot, or this compound if it is already frozen
+     */
+    public TagCompound snapshot() {
+        if(isFrozen()) {
+            return this;
+        }
+
+        TagCompound snapshot = shallowCopy();
+        snapshot.freeze();
+
+        return snapshot;
+    }
+
+    private TagBase find(String name) {
+        for(TagBase tag : tags) {
+            if(tag.getName().equals(name)) return tag;
+        }
+
+        return null;
+    }
+
+    private int indexOf(String name) {
+        for(int i = 0; i < tags.size(); i++) {
+            if(tags.get(i).getName().equals(name)) return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return the tag at the given index, replacing it with a mutable copy first if it is shared with a snapshot
+     */
+    private TagBase mutableAt(int index) {
+        TagBase tag = tags.get(index);
+
+        if(tag.isFrozen() && !isFrozen()) {
+            tag = tag.thaw();
+            tag.setParent(this);
+            tags.set(index, tag);
+        }
+
+        return tag;
+    }
+
+    private TagCompound shallowCopy() {
+        TagCompound copy = new TagCompound(getName());
+        copy.tags.addAll(tags);
+        copy.hash = hash;
+
+        return copy;
     }
 
     public boolean isEmpty() {
@@ -162,8 +363,81 @@ public class TagCompound extends TagBase {
         return tags.size();
     }
 
+    /**
+     * @return read-only view of the tags, use the methods of the compound to change them. Nothing is copied:
+     * tags shared with a snapshot are frozen, fetch them with {@link #get(String)} to change them
+     */
     public List<TagBase> getTags() {
-        return tags;
+        return Collections.unmodifiableList(tags);
+    }
+
+    @Override
+    public TagCompound copy() {
+        TagCompound copy = new TagCompound(getName());
+
+        for(TagBase tag : tags) {
+            copy.add(tag.copy());
+        }
+
+        return copy;
+    }
+
+    @Override
+    void freeze() {
+        if(isFrozen()) {
+            return;
+        }
+
+        super.freeze();
+
+        // stops at the tags frozen by a previous snapshot
+        for(TagBase tag : tags) {
+            tag.freeze();
+        }
+    }
+
+    @Override
+    TagBase thaw() {
+        return shallowCopy();
+    }
+
+    @Override
+    protected boolean valueEquals(TagBase tag) {
+        TagCompound compound = (TagCompound) tag;
+        if(tags.size() != compound.tags.size() || hashCode() != compound.hashCode()) return false;
+
+        // the order of the tags in a compound does not matter
+        for(TagBase child : tags) {
+            if(!child.equals(compound.find(child.getName()))) return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    protected int valueHashCode() {
+        int hash = this.hash;
+
+        if(hash == 0) {
+            for(TagBase child : tags) {
+                hash += child.hashCode();
+            }
+
+            // 0 means "not computed"
+            if(hash == 0) hash = 1;
+
+            this.hash = hash;
+        }
+
+        return hash;
+    }
+
+    @Override
+    boolean invalidateHash() {
+        if(hash == 0) return false;
+
+        hash = 0;
+        return true;
     }
 
     private void validateIndex(String method, int index) {
@@ -1,7 +1,10 @@
 package fr.rader.regions.nbt.tags;
 
+import fr.rader.regions.utils.DataReader;
 import fr.rader.regions.utils.DataWriter;
 
+import java.io.IOException;
+
 public class TagDouble extends TagBase {
 
     public static final byte TAG_ID = 6;
@@ -24,17 +27,36 @@ public class TagDouble extends TagBase {
     }
 
     public void setValue(double value) {
+        checkMutable("setValue(value)");
+
         this.value = value;
+        markChanged();
+    }
+
+    @Override
+    void readPayload(DataReader reader) throws IOException {
+        setValue(reader.readDouble());
     }
 
     @Override
     public void write(DataWriter writer) {
-        if(getName() != null) {
-            writer.writeByte(TAG_ID);
-            writer.writeShort(getName().length());
-            writer.writeString(getName());
-        }
+        writeHeader(writer);
 
         writer.writeDouble(value);
     }
+
+    @Override
+    protected boolean valueEquals(TagBase tag) {
+        return Double.doubleToLongBits(value) == Double.doubleToLongBits(((TagDouble) tag).value);
+    }
+
+    @Override
+    protected int valueHashCode() {
+        return Double.hashCode(value);
+    }
+
+    @Override
+    public TagDouble copy() {
+        return new TagDouble(getName(), value);
+    }
 }
@@ -1,7 +1,10 @@
 package fr.rader.regions.nbt.tags;
 
+import fr.rader.regions.utils.DataReader;
 import fr.rader.regions.utils.DataWriter;
 
+import java.io.IOException;
+
 public class TagFloat extends TagBase {
 
     public static final byte TAG_ID = 5;
@@ -24,17 +27,36 @@ public class TagFloat extends TagBase {
     }
 
     public void setValue(float value) {
+        checkMutable("setValue(value)");
+
         this.value = value;
+        markChanged();
+    }
+
+    @Override
+    void readPayload(DataReader reader) throws IOException {
+        setValue(reader.readFloat());
     }
 
     @Override
     public void write(DataWriter writer) {
-        if(getName() != null) {
-            writer.writeByte(TAG_ID);
-            writer.writeShort(getName().length());
-            writer.writeString(getName());
-        }
+        writeHeader(writer);
 
         writer.writeFloat(value);
     }
+
+    @Override
+    protected boolean valueEquals(TagBase tag) {
+        return Float.floatToIntBits(value) == Float.floatToIntBits(((TagFloat) tag).value);
+    }
+
+    @Override
+    protected int valueHashCode() {
+        return Float.hashCode(value);
+    }
+
+    @Override
+    public TagFloat copy() {
+        return new TagFloat(getName(), value);
+    }
 }
@@ -1,7 +1,10 @@
 package fr.rader.regions.nbt.tags;
 
+import fr.rader.regions.utils.DataReader;
 import fr.rader.regions.utils.DataWriter;
 
+import java.io.IOException;
+
 public class TagInt extends TagBase {
 
     public static final byte TAG_ID = 3;
@@ -24,17 +27,36 @@ public class TagInt extends TagBase {
     }
 
     public void setValue(int value) {
+        checkMutable("setValue(value)");
+
         this.value = value;
+        markChanged();
+    }
+
+    @Override
+    void readPayload(DataReader reader) throws IOException {
+        setValue(reader.readInt());
     }
 
     @Override
     public void write(DataWriter writer) {
-        if(getName() != null) {
-            writer.writeByte(TAG_ID);
-            writer.writeShort(getName().length());
-            writer.writeString(getName());
-        }
+        writeHeader(writer);
 
         writer.writeInt(value);
     }
+
+    @Override
+    protected boolean valueEquals(TagBase tag) {
+        return value == ((TagInt) tag).value;
+    }
+
+    @Override
+    protected int valueHashCode() {
+        return value;
+    }
+
+    @Override
+    public TagInt copy() {
+        return new TagInt(getName(), value);
+    }
 }
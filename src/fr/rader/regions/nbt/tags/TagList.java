@@ -1,10 +1,12 @@
 package fr.rader.regions.nbt.tags;
 
+import fr.rader.regions.nbt.NBTLimits;
+import fr.rader.regions.nbt.NBTReadContext;
 import fr.rader.regions.utils.DataReader;
 import fr.rader.regions.utils.DataWriter;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.function.Consumer;
 
@@ -16,10 +18,20 @@ public class TagList<T extends TagBase> extends TagBase implements Iterable<T> {
 
     private byte childrenID;
 
+    // structural hash of the tags, 0 when it has to be computed again
+    private int hash = 0;
+
+    // payload the list has been read from (children ID, length and elements), as long as it has not been decoded
+    private volatile byte[] rawPayload;
+
+    // limits the payload has been checked against, applied again when it is decoded.
+    // Set before the payload and kept once it is decoded, so it is always there when the payload is
+    private NBTLimits rawLimits;
+
     public TagList(Class<T> tagsClass) {
         setID(TAG_ID);
 
-        this.childrenID = getIDFromClass(tagsClass);
+        this.childrenID = TagType.getID(tagsClass);
         this.tags = new ArrayList<>();
     }
 
@@ -27,7 +39,15 @@ public class TagList<T extends TagBase> extends TagBase implements Iterable<T> {
         setID(TAG_ID);
         setName(name);
 
-        this.childrenID = getIDFromClass(tagsClass);
+        this.childrenID = TagType.getID(tagsClass);
+        this.tags = new ArrayList<>();
+    }
+
+    private TagList(byte childrenID, String name) {
+        setID(TAG_ID);
+        setName(name);
+
+        this.childrenID = childrenID;
         this.tags = new ArrayList<>();
     }
 
@@ -41,76 +61,129 @@ public class TagList<T extends TagBase> extends TagBase implements Iterable<T> {
             this.childrenID = (byte) reader.readByte();
             readList(reader);
         } catch (IOException e) {
-            e.printStackTrace();
+            // don't keep a truncated list, it would be written back as is
+            throw new UncheckedIOException("[TagList] -> [#TagList(name, reader)] could not read the list", e);
         }
     }
 
-    private byte getIDFromClass(Class<T> tagClass) {
-        try {
-            Field field = tagClass.getField("TAG_ID");
-            return field.getByte(field);
-        } catch (NoSuchFieldException | IllegalAccessException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Create a list from its encoded payload, which is only decoded the first time the list is accessed.
+     * Until then, writing the list copies the payload back as it is
+     * @param rawPayload Children ID, length and elements of the list, as read by {@link DataReader#readRawTagPayload(int)}
+     * @param limits Limits of the reader the payload has been read with
+     */
+    static TagList<?> lazy(String name, byte[] rawPayload, NBTLimits limits) {
+        if(rawPayload.length < 5) throw new IllegalArgumentException("Payload is too short to hold a list");
+
+        TagList<?> list = new TagList<>(rawPayload[0], name);
+        list.rawLimits = limits;
+        list.rawPayload = rawPayload;
+
+        return list;
+    }
+
+    /**
+     * @return true if the list has been decoded, false if it only holds its payload
+     */
+    public boolean isDecoded() {
+        return rawPayload == null;
+    }
+
+    /**
+     * Decode the payload of a lazy list. Frozen lists can be shared, this can be called from several threads.
+     * The payload has been checked when it was read, decoding it with the same limits doesn't fail.
+     * Tags are not taken from the pool of the reader, pools are not thread safe
+     */
+    @SuppressWarnings("unchecked")
+    private void decode() {
+        if(rawPayload == null) return;
+
+        synchronized(this) {
+            byte[] payload = rawPayload;
+            if(payload == null) return;
+
+            DataReader reader = new DataReader(payload);
+            reader.setNBTContext(new NBTReadContext(rawLimits));
+
+            try {
+                reader.skip(1);
+                int length = reader.readInt();
+
+                if(length > 0 && childrenID != 0) {
+                    TagType<T> type = (TagType<T>) TagType.byID(childrenID);
+                    reader.getNBTContext().reserve(length, Math.max(type.getPayloadSize(), 0));
+
+                    for(int i = 0; i < length; i++) {
+                        T tag = type.read(null, reader);
+                        tag.setParent(this);
+
+                        // the elements of a snapshot are part of the snapshot
+                        if(isFrozen()) tag.freeze();
+
+                        tags.add(tag);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("[TagList] -> [#decode()] could not decode the list", e);
+            }
 
-        throw new IllegalStateException("Class \"" + tagClass.getSimpleName() + "\" does not contain a \"TAG_ID\" field.");
+            rawPayload = null;
+        }
     }
 
+    @SuppressWarnings("unchecked")
     private void readList(DataReader reader) throws IOException {
         int length = reader.readInt();
+
+        // lists of end tags have no elements, whatever their length
+        if(length == 0 || childrenID == 0) return;
+
+        TagType<T> type = (TagType<T>) TagType.byID(childrenID);
+        reader.getNBTContext().reserve(length, Math.max(type.getPayloadSize(), 0));
+
+        reader.getNBTContext().enter();
         for(int i = 0; i < length; i++) {
-            switch(childrenID) {
-                case 1:
-                    add((T) new TagByte(reader.readByte()));
-                    break;
-                case 2:
-                    add((T) new TagShort(reader.readShort()));
-                    break;
-                case 3:
-                    add((T) new TagInt(reader.readInt()));
-                    break;
-                case 4:
-                    add((T) new TagLong(reader.readLong()));
-                    break;
-                case 5:
-                    add((T) new TagFloat(reader.readFloat()));
-                    break;
-                case 6:
-                    add((T) new TagDouble(reader.readDouble()));
-                    break;
-                case 7:
-                    add((T) new TagByteArray(reader.readFollowingBytes(reader.readInt())));
-                    break;
-                case 8:
-                    add((T) new TagString(reader.readString(reader.readShort())));
-                    break;
-                case 9:
-                    add((T) new TagList<>(null, reader));
-                    break;
-                case 10:
-                    add((T) new TagCompound(null, reader));
-                    break;
-                case 11:
-                    add((T) new TagIntArray(reader.readIntArray(reader.readInt())));
-                    break;
-                case 12:
-                    add((T) new TagLongArray(reader.readLongArray(reader.readInt())));
-                    break;
-                default:
-                    throw new IllegalStateException("Unexpected tag: " + Integer.toHexString(childrenID));
-            }
+            add(type.read(null, reader));
+        }
+        reader.getNBTContext().exit();
+    }
+
+    @Override
+    void readPayload(DataReader reader) throws IOException {
+        this.childrenID = (byte) reader.readByte();
+        readList(reader);
+    }
+
+    @Override
+    void recycle(TagPool pool) {
+        for(T tag : tags) {
+            pool.release(tag);
         }
+
+        tags.clear();
+        rawPayload = null;
+        rawLimits = null;
+        hash = 0;
+
+        super.recycle(pool);
     }
 
     @Override
     public void write(DataWriter writer) {
-        if(getName() != null) {
-            writer.writeByte(TAG_ID);
-            writer.writeShort(getName().length());
-            writer.writeString(getName());
+        byte[] payload = rawPayload;
+
+        // the canonical form may not be the one the payload has been written in
+        if(payload != null && !writer.isCanonical()) {
+            writeHeader(writer);
+            writer.writeBytes(payload, 0, payload.length);
+            return;
         }
 
-        writer.writeByte(childrenID);
+        decode();
+        writeHeader(writer);
+
+        // the children ID of empty lists doesn't mean anything, the canonical form uses the end tag
+        writer.writeByte((writer.isCanonical() && tags.isEmpty()) ? 0 : childrenID);
         writer.writeInt(tags.size());
 
         for(T tag : tags) {
@@ -123,38 +196,65 @@ public class TagList<T extends TagBase> extends TagBase implements Iterable<T> {
     }
 
     public void add(T nbt) {
+        checkMutable("add(nbt)");
+        decode();
+
         if(nbt.getName() != null) throw new IllegalArgumentException("NBT Tag must not have a name");
         if(nbt.getTagID() != childrenID) throw new IllegalArgumentException("NBT Tag id must be " + childrenID + " (it is " + nbt.getTagID() + " (" + nbt.getClass().getSimpleName() + ") instead)");
+        checkOrphan("add(nbt)", nbt);
 
         tags.add(nbt);
+        nbt.setParent(this);
+        markChanged();
     }
 
     public void remove(int index) {
+        checkMutable("remove(index)");
+        decode();
+
         validateIndex("remove(index)", index);
 
-        tags.remove(index);
+        tags.remove(index).setParent(null);
+        markChanged();
     }
 
     public void remove(T nbt) {
-        tags.remove(nbt);
+        decode();
+
+        // tags are compared structurally, look for the instance itself
+        for(int i = 0; i < tags.size(); i++) {
+            if(tags.get(i) == nbt) {
+                remove(i);
+                return;
+            }
+        }
     }
 
     public void replace(int index, T nbt) {
+        checkMutable("replace(index, nbt)");
+        decode();
+
         validateIndex("replace(index, nbt)", index);
 
         if(nbt.getName() != null) throw new IllegalArgumentException("NBT Tag must not have a name");
 
-        tags.set(index, nbt);
+        if(tags.get(index) == nbt) return;
+        checkOrphan("replace(index, nbt)", nbt);
+
+        tags.set(index, nbt).setParent(null);
+        nbt.setParent(this);
+        markChanged();
     }
 
     public T get(int index) {
+        decode();
         validateIndex("get(index)", index);
 
-        return tags.get(index);
+        return mutableAt(index);
     }
 
     public boolean isEmpty() {
-        return tags.size() == 0;
+        return size() == 0;
     }
 
     /**
@@ -162,15 +262,171 @@ public class TagList<T extends TagBase> extends TagBase implements Iterable<T> {
      * @return true if the list contains something at the given index, false otherwise
      */
     public boolean has(int index) {
-        return get(index) != null;
+        decode();
+        validateIndex("has(index)", index);
+
+        return tags.get(index) != null;
     }
 
     public int size() {
+        byte[] payload = rawPayload;
+
+        // the length follows the children ID, no need to decode the list for it,
+        // lists of end tags have no elements whatever their length
+        if(payload != null && childrenID != 0) {
+            return (payload[1] & 0xff) << 24 | (payload[2] & 0xff) << 16 | (payload[3] & 0xff) << 8 | (payload[4] & 0xff);
+        }
+
         return tags.size();
     }
 
+    /**
+     * @return read-only view of the tags, use the methods of the list to change them. Nothing is copied:
+     * tags shared with a snapshot are frozen, fetch them with {@link #get(int)} to change them
+     */
     public List<T> getTags() {
-        return tags;
+        decode();
+
+        return Collections.unmodifiableList(tags);
+    }
+
+    /**
+     * Create an immutable snapshot of this list. Nothing is copied, the tags are frozen and shared
+     * between the snapshot and this list, which stays mutable and only copies a tag when it is accessed again.
+     * <p>
+     * Tags fetched from this list before the snapshot are part of the snapshot, they have to be fetched again to be changed
+     * @return the snapshot, or this list if it is already frozen
+     */
+    public TagList<T> snapshot() {
+        if(isFrozen()) {
+            return this;
+        }
+
+        TagList<T> snapshot = shallowCopy();
+        snapshot.freeze();
+
+        return snapshot;
+    }
+
+    /**
+     * @return the tag at the given index, replacing it with a mutable copy first if it is shared with a snapshot
+     */
+    @SuppressWarnings("unchecked")
+    private T mutableAt(int index) {
+        T tag = tags.get(index);
+
+        if(tag.isFrozen() && !isFrozen()) {
+            tag = (T) tag.thaw();
+            tag.setParent(this);
+            tags.set(index, tag);
+        }
+
+        return tag;
+    }
+
+    private TagList<T> shallowCopy() {
+        TagList<T> copy = new TagList<>(childrenID, getName());
+        copy.hash = hash;
+
+        // the payload is never changed, it can be shared
+        byte[] payload = rawPayload;
+        if(payload != null) {
+            copy.rawLimits = rawLimits;
+            copy.rawPayload = payload;
+            return copy;
+        }
+
+        copy.tags.addAll(tags);
+
+        return copy;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public TagList<T> copy() {
+        TagList<T> copy = new TagList<>(childrenID, getName());
+
+        byte[] payload = rawPayload;
+        if(payload != null) {
+            copy.rawLimits = rawLimits;
+            copy.rawPayload = payload;
+            return copy;
+        }
+
+        for(T tag : tags) {
+            copy.add((T) tag.copy());
+        }
+
+        return copy;
+    }
+
+    @Override
+    void freeze() {
+        if(isFrozen()) {
+            return;
+        }
+
+        super.freeze();
+
+        // the elements of a lazy list are frozen when it is decoded
+        if(rawPayload != null) {
+            return;
+        }
+
+        // stops at the tags frozen by a previous snapshot
+        for(T tag : tags) {
+            tag.freeze();
+        }
+    }
+
+    @Override
+    TagBase thaw() {
+        return shallowCopy();
+    }
+
+    @Override
+    protected boolean valueEquals(TagBase tag) {
+        TagList<?> list = (TagList<?>) tag;
+
+        byte[] payload = rawPayload;
+        if(payload != null && Arrays.equals(payload, list.rawPayload)) return true;
+
+        decode();
+        list.decode();
+
+        // empty lists are equal whatever their children ID
+        if(tags.isEmpty() && list.tags.isEmpty()) return true;
+
+        return childrenID == list.childrenID && hashCode() == list.hashCode() && tags.equals(list.tags);
+    }
+
+    @Override
+    protected int valueHashCode() {
+        int hash = this.hash;
+
+        if(hash == 0) {
+            decode();
+
+            hash = tags.isEmpty() ? 0 : childrenID;
+            for(T child : tags) {
+                hash = 31 * hash + child.hashCode();
+            }
+
+            // 0 means "not computed"
+            if(hash == 0) hash = 1;
+
+            this.hash = hash;
+        }
+
+        return hash;
+    }
+
+    @Override
+    boolean invalidateHash() {
+        if(hash == 0) return false;
+
+        hash = 0;
+        return true;
     }
 
     private void validateIndex(String method, int index) {
@@ -1,7 +1,10 @@
 package fr.rader.regions.nbt.tags;
 
+import fr.rader.regions.utils.DataReader;
 import fr.rader.regions.utils.DataWriter;
 
+import java.io.IOException;
+
 public class TagLong extends TagBase {
 
     public static final byte TAG_ID = 4;
@@ -24,17 +27,36 @@ public class TagLong extends TagBase {
     }
 
     public void setValue(long value) {
+        checkMutable("setValue(value)");
+
         this.value = value;
+        markChanged();
+    }
+
+    @Override
+    void readPayload(DataReader reader) throws IOException {
+        setValue(reader.readLong());
     }
 
     @Override
     public void write(DataWriter writer) {
-        if(getName() != null) {
-            writer.writeByte(TAG_ID);
-            writer.writeShort(getName().length());
-            writer.writeString(getName());
-        }
+        writeHeader(writer);
 
         writer.writeLong(value);
     }
+
+    @Override
+    protected boolean valueEquals(TagBase tag) {
+        return value == ((TagLong) tag).value;
+    }
+
+    @Override
+    protected int valueHashCode() {
+        return Long.hashCode(value);
+    }
+
+    @Override
+    public TagLong copy() {
+        return new TagLong(getName(), value);
+    }
 }
@@ -0,0 +1,96 @@
+package fr.rader.regions.nbt.tags;
+
+import java.util.ArrayDeque;
+
+/**
+ * Recycles the tags of trees that are not needed anymore, so scanning many chunks doesn't allocate
+ * new tags for every chunk. Set the pool on the context of the reader with {@link fr.rader.regions.nbt.NBTReadContext#setTagPool(TagPool)},
+ * then give every tree back with {@link #release(TagBase)} once it has been processed:
+ * <pre>
+ *     TagPool pool = new TagPool();
+ *     for(...) {
+ *         DataReader reader = ...;
+ *         reader.getNBTContext().setTagPool(pool);
+ *
+ *         TagCompound chunk = reader.readNBT();
+ *         // process the chunk
+ *         pool.release(chunk);
+ *     }
+ * </pre>
+ * Released tags are reused as they are, nothing taken from a released tree (tags, arrays) can be used after it has been released.
+ * Tags frozen by a snapshot are shared, they are never recycled.
+ * <p>
+ * Pools are not thread safe, use one pool per thread.
+ */
+public class TagPool {
+
+    private final int maxTagsPerType;
+
+    // free tags, indexed by tag ID. Only the types of the NBT format are recycled
+    private final ArrayDeque<?>[] free = new ArrayDeque<?>[TagLongArray.TAG_ID + 1];
+
+    public TagPool() {
+        this(65536);
+    }
+
+    /**
+     * @param maxTagsPerType Maximum number of free tags kept for every type, the others are left to the garbage collector
+     */
+    public TagPool(int maxTagsPerType) {
+        if(maxTagsPerType < 0) throw new IllegalArgumentException("Maximum number of tags cannot be negative");
+
+        this.maxTagsPerType = maxTagsPerType;
+
+        for(int i = 1; i < free.length; i++) {
+            free[i] = new ArrayDeque<TagBase>();
+        }
+    }
+
+    /**
+     * @return a free tag of the given type, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    <T extends TagBase> T obtain(TagType<T> type) {
+        int id = type.getID();
+        if(id >= free.length) return null;
+
+        return (T) free[id].poll();
+    }
+
+    /**
+     * Give a tree back to the pool, with every tag it holds
+     * @param tag Root of the tree, it must not be used anymore
+     */
+    @SuppressWarnings("unchecked")
+    public void release(TagBase tag) {
+        if(tag == null || tag.isFrozen()) return;
+
+        tag.recycle(this);
+
+        int id = tag.getTagID();
+        if(id <= 0 || id >= free.length) return;
+
+        ArrayDeque<TagBase> tags = (ArrayDeque<TagBase>) free[id];
+        if(tags.size() < maxTagsPerType) {
+            tags.push(tag);
+        }
+    }
+
+    /**
+     * @return number of free tags in the pool
+     */
+    public int size() {
+        int size = 0;
+        for(int i = 1; i < free.length; i++) {
+            size += free[i].size();
+        }
+
+        return size;
+    }
+
+    public void clear() {
+        for(int i = 1; i < free.length; i++) {
+            free[i].clear();
+        }
+    }
+}
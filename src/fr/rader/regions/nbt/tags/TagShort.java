@@ -1,7 +1,10 @@
 package fr.rader.regions.nbt.tags;
 
+import fr.rader.regions.utils.DataReader;
 import fr.rader.regions.utils.DataWriter;
 
+import java.io.IOException;
+
 public class TagShort extends TagBase {
 
     public static final byte TAG_ID = 2;
@@ -24,17 +27,36 @@ public class TagShort extends TagBase {
     }
 
     public void setValue(int value) {
+        checkMutable("setValue(value)");
+
         this.value = value & 0xffff;
+        markChanged();
+    }
+
+    @Override
+    void readPayload(DataReader reader) throws IOException {
+        setValue(reader.readShort());
     }
 
     @Override
     public void write(DataWriter writer) {
-        if(getName() != null) {
-            writer.writeByte(TAG_ID);
-            writer.writeShort(getName().length());
-            writer.writeString(getName());
-        }
+        writeHeader(writer);
 
         writer.writeShort(value);
     }
+
+    @Override
+    protected boolean valueEquals(TagBase tag) {
+        return value == ((TagShort) tag).value;
+    }
+
+    @Override
+    protected int valueHashCode() {
+        return value;
+    }
+
+    @Override
+    public TagShort copy() {
+        return new TagShort(getName(), value);
+    }
 }
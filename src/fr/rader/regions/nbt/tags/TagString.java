@@ -1,12 +1,20 @@
 package fr.rader.regions.nbt.tags;
 
+import fr.rader.regions.utils.DataReader;
 import fr.rader.regions.utils.DataWriter;
+import fr.rader.regions.utils.ModifiedUTF8;
+
+import java.io.IOException;
+import java.util.Arrays;
 
 public class TagString extends TagBase {
 
     public static final byte TAG_ID = 8;
 
-    private String value;
+    // at least one of the two is set (unless the value is null), strings read from a stream
+    // only keep their bytes until the value is needed, strings built from a value are encoded when written
+    private volatile String value;
+    private volatile byte[] encodedValue;
 
     public TagString(String value) {
         setID(TAG_ID);
@@ -19,23 +27,111 @@ public class TagString extends TagBase {
         setValue(value);
     }
 
+    private TagString(String name, byte[] encodedValue) {
+        setID(TAG_ID);
+        setName(name);
+
+        this.encodedValue = encodedValue;
+    }
+
+    /**
+     * Create a string from its Modified UTF-8 encoding, which is only decoded when the value is needed.
+     * Until then, writing the tag copies the bytes back as they are
+     * @param name Name of the tag, null for list elements
+     * @param encodedValue Bytes of the value, without the length prefix. The array is not copied
+     */
+    public static TagString fromEncoded(String name, byte[] encodedValue) {
+        if(encodedValue == null) throw new IllegalArgumentException("Encoded value cannot be null");
+
+        return new TagString(name, encodedValue);
+    }
+
+    /**
+     * @return the value, decoded the first time it is needed
+     * @exception fr.rader.regions.nbt.NBTFormatException if the bytes the tag was read from are not valid Modified UTF-8
+     */
     public String getValue() {
-        return this.value;
+        String value = this.value;
+
+        if(value == null && encodedValue != null) {
+            value = ModifiedUTF8.decode(encodedValue);
+            this.value = value;
+        }
+
+        return value;
     }
 
     public void setValue(String value) {
+        checkMutable("setValue(value)");
+
         this.value = value;
+        this.encodedValue = null;
+        markChanged();
+    }
+
+    /**
+     * @return true if the value has been decoded (or set), false if the tag only holds its bytes
+     */
+    public boolean isDecoded() {
+        return value != null || encodedValue == null;
+    }
+
+    private byte[] getEncodedValue() {
+        byte[] encoded = this.encodedValue;
+
+        if(encoded == null && value != null) {
+            encoded = ModifiedUTF8.encode(value);
+            this.encodedValue = encoded;
+        }
+
+        return encoded;
+    }
+
+    @Override
+    void readPayload(DataReader reader) throws IOException {
+        int length = reader.readShort();
+        reader.getNBTContext().reserve(length, 1);
+
+        this.value = null;
+        this.encodedValue = reader.getNBTContext().getStringCache().readEncoded(reader, length);
+    }
+
+    @Override
+    void recycle(TagPool pool) {
+        this.value = null;
+        this.encodedValue = null;
+
+        super.recycle(pool);
     }
 
     @Override
     public void write(DataWriter writer) {
-        if(getName() != null) {
-            writer.writeByte(TAG_ID);
-            writer.writeShort(getName().length());
-            writer.writeString(getName());
-        }
+        writeHeader(writer);
+
+        writer.writeModifiedUTF8(getEncodedValue());
+    }
+
+    /*
+     * strings are compared and hashed using their encoding, so comparing strings
+     * that have not been decoded doesn't decode them
+     */
+
+    @Override
+    protected boolean valueEquals(TagBase tag) {
+        return Arrays.equals(getEncodedValue(), ((TagString) tag).getEncodedValue());
+    }
+
+    @Override
+    protected int valueHashCode() {
+        return Arrays.hashCode(getEncodedValue());
+    }
+
+    @Override
+    public TagString copy() {
+        // the bytes are never changed, they can be shared
+        TagString copy = new TagString(getName(), encodedValue);
+        copy.value = value;
 
-        writer.writeShort(value.length());
-        writer.writeString(value);
+        return copy;
     }
 }
@@ -0,0 +1,235 @@
+package fr.rader.regions.nbt.tags;
+
+import fr.rader.regions.nbt.NBTFormatException;
+import fr.rader.regions.utils.DataReader;
+import fr.rader.regions.utils.DataWriter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the tag types, mapping tag IDs to the code reading, writing and skipping their payload,
+ * and tag classes to their ID. Every tag read from a stream goes through this table.
+ * <p>
+ * The 12 types of the NBT format are registered when the class is loaded, other types can be
+ * registered with {@link #register(int, Class, int, Reader, Skipper)} before reading data that uses them.
+ */
+public final class TagType<T extends TagBase> {
+
+    private static final TagType<?>[] BY_ID = new TagType<?>[256];
+    private static final Map<Class<?>, TagType<?>> BY_CLASS = new ConcurrentHashMap<>();
+
+    public static final TagType<TagByte> BYTE = register(TagByte.TAG_ID, TagByte.class, 1, (name, reader) -> new TagByte(name, reader.readByte()), null);
+    public static final TagType<TagShort> SHORT = register(TagShort.TAG_ID, TagShort.class, 2, (name, reader) -> new TagShort(name, reader.readShort()), null);
+    public static final TagType<TagInt> INT = register(TagInt.TAG_ID, TagInt.class, 4, (name, reader) -> new TagInt(name, reader.readInt()), null);
+    public static final TagType<TagLong> LONG = register(TagLong.TAG_ID, TagLong.class, 8, (name, reader) -> new TagLong(name, reader.readLong()), null);
+    public static final TagType<TagFloat> FLOAT = register(TagFloat.TAG_ID, TagFloat.class, 4, (name, reader) -> new TagFloat(name, reader.readFloat()), null);
+    public static final TagType<TagDouble> DOUBLE = register(TagDouble.TAG_ID, TagDouble.class, 8, (name, reader) -> new TagDouble(name, reader.readDouble()), null);
+
+    public static final TagType<TagByteArray> BYTE_ARRAY = register(TagByteArray.TAG_ID, TagByteArray.class, -1,
+            (name, reader) -> TagByteArray.wrap(name, reader.readFollowingBytes(reserve(reader, reader.readInt(), 1))),
+            reader -> reader.skip(reserve(reader, reader.readInt(), 1)));
+
+    public static final TagType<TagString> STRING = register(TagString.TAG_ID, TagString.class, -1,
+            (name, reader) -> TagString.fromEncoded(name, reader.getNBTContext().getStringCache().readEncoded(reader, reserve(reader, reader.readShort(), 1))),
+            reader -> reader.skip(reserve(reader, reader.readShort(), 1)));
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static final TagType<TagList<?>> LIST = register(TagList.TAG_ID, (Class) TagList.class, -1,
+            TagList::new,
+            TagType::skipList);
+
+    public static final TagType<TagCompound> COMPOUND = register(TagCompound.TAG_ID, TagCompound.class, -1,
+            TagCompound::new,
+            TagType::skipCompound);
+
+    public static final TagType<TagIntArray> INT_ARRAY = register(TagIntArray.TAG_ID, TagIntArray.class, -1,
+            (name, reader) -> TagIntArray.wrap(name, reader.readIntArray(reserve(reader, reader.readInt(), 4))),
+            reader -> reader.skip(reserve(reader, reader.readInt(), 4) * 4L));
+
+    public static final TagType<TagLongArray> LONG_ARRAY = register(TagLongArray.TAG_ID, TagLongArray.class, -1,
+            (name, reader) -> TagLongArray.wrap(name, reader.readLongArray(reserve(reader, reader.readInt(), 8))),
+            reader -> reader.skip(reserve(reader, reader.readInt(), 8) * 8L));
+
+    private final byte id;
+    private final Class<T> tagClass;
+    private final int payloadSize;
+    private final Reader<T> reader;
+    private final Skipper skipper;
+
+    private TagType(byte id, Class<T> tagClass, int payloadSize, Reader<T> reader, Skipper skipper) {
+        this.id = id;
+        this.tagClass = tagClass;
+        this.payloadSize = payloadSize;
+        this.reader = reader;
+        this.skipper = skipper;
+    }
+
+    /**
+     * Register a new tag type
+     * @param id ID of the tag, between 1 and 255
+     * @param tagClass Class of the tag
+     * @param payloadSize Size of the payload in bytes if it is always the same, -1 otherwise
+     * @param reader Reads the payload of a tag
+     * @param skipper Skips the payload of a tag, only used when <code>payloadSize</code> is -1
+     * @return the registered type
+     */
+    public static synchronized <T extends TagBase> TagType<T> register(int id, Class<T> tagClass, int payloadSize, Reader<T> reader, Skipper skipper) {
+        if(id < 1 || id > 255) throw new IllegalArgumentException("[TagType] -> [#register()] tag ID must be between 1 and 255 (ID is " + id + ")");
+        if(BY_ID[id] != null) throw new IllegalArgumentException("[TagType] -> [#register()] tag ID " + id + " is already used by " + BY_ID[id].tagClass.getSimpleName());
+        if(payloadSize < 0 && skipper == null) throw new IllegalArgumentException("[TagType] -> [#register()] tags without a fixed size need a skipper");
+
+        TagType<T> type = new TagType<>((byte) id, tagClass, payloadSize, reader, skipper);
+        BY_ID[id] = type;
+        BY_CLASS.put(tagClass, type);
+
+        return type;
+    }
+
+    /**
+     * @return the type registered with this ID
+     * @exception NBTFormatException if no type uses this ID
+     */
+    public static TagType<?> byID(int id) {
+        TagType<?> type = (id > 0 && id < BY_ID.length) ? BY_ID[id] : null;
+        if(type == null) throw new NBTFormatException("Unexpected tag: " + Integer.toHexString(id));
+
+        return type;
+    }
+
+    /**
+     * @return the ID of the type registered with this class
+     * @exception IllegalStateException if the class has not been registered
+     */
+    public static byte getID(Class<?> tagClass) {
+        TagType<?> type = BY_CLASS.get(tagClass);
+        if(type == null) throw new IllegalStateException("Class \"" + tagClass.getSimpleName() + "\" is not a registered tag type.");
+
+        return type.id;
+    }
+
+    /**
+     * @return the size of the payload of the tags with this ID, 0 for end tags (children ID of empty lists),
+     * or -1 if the size depends on the payload
+     */
+    public static int getPayloadSize(int id) {
+        if(id == 0) return 0;
+
+        return byID(id).payloadSize;
+    }
+
+    public byte getID() {
+        return id;
+    }
+
+    public Class<T> getTagClass() {
+        return tagClass;
+    }
+
+    public int getPayloadSize() {
+        return payloadSize;
+    }
+
+    /**
+     * Read the payload of a tag
+     * @param name Name of the tag, null for list elements
+     */
+    public T read(String name, DataReader reader) throws IOException {
+        TagPool pool = reader.getNBTContext().getTagPool();
+        if(pool != null) {
+            T tag = pool.obtain(this);
+
+            if(tag != null) {
+                tag.setName(name);
+                tag.readPayload(reader);
+                return tag;
+            }
+        }
+
+        return this.reader.read(name, reader);
+    }
+
+    public void write(T tag, DataWriter writer) {
+        tag.write(writer);
+    }
+
+    public void skip(DataReader reader) throws IOException {
+        if(payloadSize >= 0) {
+            reader.skip(payloadSize);
+            return;
+        }
+
+        skipper.skip(reader);
+    }
+
+    /**
+     * Account for an array or a string in the budget of the reader
+     * @return the length
+     */
+    private static int reserve(DataReader reader, int length, int elementSize) {
+        reader.getNBTContext().reserve(length, elementSize);
+
+        return length;
+    }
+
+    /*
+     * skipped payloads are checked like the ones that are read: tag IDs, lengths and the budget of the reader,
+     * so a payload kept as raw bytes can always be decoded later. Names are only checked while such a payload
+     * is captured, other skips don't look at them
+     */
+
+    private static void skipList(DataReader reader) throws IOException {
+        int childrenID = reader.readByte();
+        int length = reader.readInt();
+
+        // lists of end tags have no payload, whatever their length
+        if(length == 0 || childrenID == 0) return;
+
+        TagType<?> type = byID(childrenID);
+        reserve(reader, length, Math.max(type.payloadSize, 0));
+
+        if(type.payloadSize >= 0) {
+            reader.skip((long) length * type.payloadSize);
+            return;
+        }
+
+        reader.getNBTContext().enter();
+        for(int i = 0; i < length; i++) {
+            type.skipper.skip(reader);
+        }
+        reader.getNBTContext().exit();
+    }
+
+    private static void skipCompound(DataReader reader) throws IOException {
+        reader.getNBTContext().enter();
+
+        int id;
+        while((id = reader.readByte()) != 0) {
+            reader.skipModifiedUTF8(reader.readShort());
+
+            TagType<?> type = byID(id);
+            reader.getNBTContext().reserve(1, Math.max(type.payloadSize, 0));
+            type.skip(reader);
+        }
+
+        reader.getNBTContext().exit();
+    }
+
+    @Override
+    public String toString() {
+        return tagClass.getSimpleName() + "(" + id + ")";
+    }
+
+    @FunctionalInterface
+    public interface Reader<T extends TagBase> {
+
+        T read(String name, DataReader reader) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface Skipper {
+
+        void skip(DataReader reader) throws IOException;
+    }
+}
@@ -0,0 +1,146 @@
+package fr.rader.regions.nbt.visitor;
+
+import fr.rader.regions.nbt.NBTFormatException;
+import fr.rader.regions.nbt.visitor.NBTVisitor.Result;
+import fr.rader.regions.utils.DataReader;
+
+import java.io.IOException;
+
+/**
+ * Reads NBT data from a {@link DataReader} and pushes it to a {@link NBTVisitor},
+ * without building any tag. Memory usage only depends on the depth of the data.
+ */
+public class NBTStreamReader {
+
+    private final DataReader reader;
+
+    public NBTStreamReader(DataReader reader) {
+        if(reader == null) throw new IllegalArgumentException("DataReader is null");
+
+        this.reader = reader;
+    }
+
+    /**
+     * Read one named tag (usually the root compound) and push it to the visitor
+     * @param visitor Visitor receiving the data
+     * @return false if the visitor stopped the reading, true otherwise
+     * @exception IOException when an I/O error occurs.
+     * @exception EOFException when the end of file has been reached.
+     */
+    public boolean accept(NBTVisitor visitor) throws IOException {
+        int tagID = reader.readByte();
+        if(tagID == 0) return true;
+
+        Result result = visitor.visitName(tagID, reader.getNBTContext().getStringCache().readString(reader, reader.readShort()));
+        if(result == Result.STOP) return false;
+
+        if(result == Result.SKIP) {
+            reader.skipTagPayload(tagID);
+            return true;
+        }
+
+        return readPayload(tagID, visitor);
+    }
+
+    private boolean readPayload(int tagID, NBTVisitor visitor) throws IOException {
+        switch(tagID) {
+            case 1:
+                return visitor.visitByte(reader.readByte()) != Result.STOP;
+            case 2:
+                return visitor.visitShort(reader.readShort()) != Result.STOP;
+            case 3:
+                return visitor.visitInt(reader.readInt()) != Result.STOP;
+            case 4:
+                return visitor.visitLong(reader.readLong()) != Result.STOP;
+            case 5:
+                return visitor.visitFloat(reader.readFloat()) != Result.STOP;
+            case 6:
+                return visitor.visitDouble(reader.readDouble()) != Result.STOP;
+            case 7:
+                return visitor.visitByteArray(reader.readFollowingBytes(reserve(reader.readInt(), 1))) != Result.STOP;
+            case 8:
+                return visitor.visitString(reader.getNBTContext().getStringCache().readString(reader, reserve(reader.readShort(), 1))) != Result.STOP;
+            case 9:
+                return readList(visitor);
+            case 10:
+                return readCompound(visitor);
+            case 11:
+                return visitor.visitIntArray(reader.readIntArray(reserve(reader.readInt(), 4))) != Result.STOP;
+            case 12:
+                return visitor.visitLongArray(reader.readLongArray(reserve(reader.readInt(), 8))) != Result.STOP;
+            default:
+                throw new NBTFormatException("Unexpected tag: " + Integer.toHexString(tagID));
+        }
+    }
+
+    /**
+     * Account for an array or a string in the budget of the reader
+     * @return the length
+     */
+    private int reserve(int length, int elementSize) {
+        reader.getNBTContext().reserve(length, elementSize);
+
+        return length;
+    }
+
+    private boolean readList(NBTVisitor visitor) throws IOException {
+        int childrenID = reader.readByte();
+        int length = reader.readInt();
+
+        // lists of end tags have no elements, whatever their length
+        if(childrenID == 0) length = 0;
+
+        Result result = visitor.visitListStart(childrenID, length);
+        if(result == Result.STOP) return false;
+
+        if(result == Result.SKIP) {
+            for(int i = 0; i < length; i++) {
+                reader.skipTagPayload(childrenID);
+            }
+
+            return true;
+        }
+
+        reader.getNBTContext().reserve(length, 0);
+        reader.getNBTContext().enter();
+
+        for(int i = 0; i < length; i++) {
+            if(!readPayload(childrenID, visitor)) return false;
+        }
+
+        reader.getNBTContext().exit();
+
+        return visitor.visitListEnd() != Result.STOP;
+    }
+
+    private boolean readCompound(NBTVisitor visitor) throws IOException {
+        Result result = visitor.visitCompoundStart();
+        if(result == Result.STOP) return false;
+
+        if(result == Result.SKIP) {
+            reader.skipTagPayload(10);
+            return true;
+        }
+
+        reader.getNBTContext().enter();
+
+        int tagID;
+        while((tagID = reader.readByte()) != 0) {
+            reader.getNBTContext().reserve(1, 0);
+
+            result = visitor.visitName(tagID, reader.getNBTContext().getStringCache().readString(reader, reader.readShort()));
+            if(result == Result.STOP) return false;
+
+            if(result == Result.SKIP) {
+                reader.skipTagPayload(tagID);
+                continue;
+            }
+
+            if(!readPayload(tagID, visitor)) return false;
+        }
+
+        reader.getNBTContext().exit();
+
+        return visitor.visitCompoundEnd() != Result.STOP;
+    }
+}
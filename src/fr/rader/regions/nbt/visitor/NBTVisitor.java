@@ -0,0 +1,92 @@
+package fr.rader.regions.nbt.visitor;
+
+/**
+ * Push-style visitor over a NBT stream, driven by {@link NBTStreamReader}.
+ * <p>
+ * Every method returns a {@link Result} telling the reader how to continue:
+ * <ul>
+ *     <li>{@link Result#CONTINUE} keeps reading</li>
+ *     <li>{@link Result#SKIP} returned by {@link #visitName(int, String)} skips the payload of that tag,
+ *     returned by {@link #visitCompoundStart()} or {@link #visitListStart(int, int)} skips the content of the
+ *     compound or list (the matching end method is then not called). Anywhere else it behaves like CONTINUE</li>
+ *     <li>{@link Result#STOP} stops reading right away</li>
+ * </ul>
+ */
+public interface NBTVisitor {
+
+    enum Result {
+        CONTINUE,
+        SKIP,
+        STOP
+    }
+
+    /**
+     * Called before the payload of every named tag (the root compound and the entries of a compound).
+     * Elements of a list don't have a name, so this isn't called for them
+     * @param tagID ID of the tag that follows
+     * @param name Name of the tag
+     */
+    default Result visitName(int tagID, String name) {
+        return Result.CONTINUE;
+    }
+
+    default Result visitByte(int value) {
+        return Result.CONTINUE;
+    }
+
+    default Result visitShort(int value) {
+        return Result.CONTINUE;
+    }
+
+    default Result visitInt(int value) {
+        return Result.CONTINUE;
+    }
+
+    default Result visitLong(long value) {
+        return Result.CONTINUE;
+    }
+
+    default Result visitFloat(float value) {
+        return Result.CONTINUE;
+    }
+
+    default Result visitDouble(double value) {
+        return Result.CONTINUE;
+    }
+
+    default Result visitByteArray(byte[] value) {
+        return Result.CONTINUE;
+    }
+
+    default Result visitString(String value) {
+        return Result.CONTINUE;
+    }
+
+    default Result visitIntArray(int[] value) {
+        return Result.CONTINUE;
+    }
+
+    default Result visitLongArray(long[] value) {
+        return Result.CONTINUE;
+    }
+
+    /**
+     * @param childrenID ID of the elements of the list, 0 if the list is empty
+     * @param length Number of elements in the list
+     */
+    default Result visitListStart(int childrenID, int length) {
+        return Result.CONTINUE;
+    }
+
+    default Result visitListEnd() {
+        return Result.CONTINUE;
+    }
+
+    default Result visitCompoundStart() {
+        return Result.CONTINUE;
+    }
+
+    default Result visitCompoundEnd() {
+        return Result.CONTINUE;
+    }
+}
@@ -0,0 +1,102 @@
+package fr.rader.regions.nbt.visitor;
+
+import fr.rader.regions.utils.DataWriter;
+
+/**
+ * Visitor writing everything it receives to a {@link DataWriter}, using the same encoding as the tags.
+ * Chaining it behind a filtering or transforming visitor allows rewriting NBT data without building any tag.
+ */
+public class NBTWriterVisitor implements NBTVisitor {
+
+    private final DataWriter writer;
+
+    public NBTWriterVisitor(DataWriter writer) {
+        if(writer == null) throw new IllegalArgumentException("DataWriter is null");
+
+        this.writer = writer;
+    }
+
+    @Override
+    public Result visitName(int tagID, String name) {
+        writer.writeByte(tagID);
+        writer.writeModifiedUTF8(name);
+
+        return Result.CONTINUE;
+    }
+
+    @Override
+    public Result visitByte(int value) {
+        writer.writeByte(value);
+        return Result.CONTINUE;
+    }
+
+    @Override
+    public Result visitShort(int value) {
+        writer.writeShort(value);
+        return Result.CONTINUE;
+    }
+
+    @Override
+    public Result visitInt(int value) {
+        writer.writeInt(value);
+        return Result.CONTINUE;
+    }
+
+    @Override
+    public Result visitLong(long value) {
+        writer.writeLong(value);
+        return Result.CONTINUE;
+    }
+
+    @Override
+    public Result visitFloat(float value) {
+        writer.writeFloat(value);
+        return Result.CONTINUE;
+    }
+
+    @Override
+    public Result visitDouble(double value) {
+        writer.writeDouble(value);
+        return Result.CONTINUE;
+    }
+
+    @Override
+    public Result visitByteArray(byte[] value) {
+        writer.writeInt(value.length);
+        writer.writeByteArray(value);
+        return Result.CONTINUE;
+    }
+
+    @Override
+    public Result visitString(String value) {
+        writer.writeModifiedUTF8(value);
+        return Result.CONTINUE;
+    }
+
+    @Override
+    public Result visitIntArray(int[] value) {
+        writer.writeInt(value.length);
+        writer.writeIntArray(value);
+        return Result.CONTINUE;
+    }
+
+    @Override
+    public Result visitLongArray(long[] value) {
+        writer.writeInt(value.length);
+        writer.writeLongArray(value);
+        return Result.CONTINUE;
+    }
+
+    @Override
+    public Result visitListStart(int childrenID, int length) {
+        writer.writeByte(childrenID);
+        writer.writeInt(length);
+        return Result.CONTINUE;
+    }
+
+    @Override
+    public Result visitCompoundEnd() {
+        writer.writeByte(0);
+        return Result.CONTINUE;
+    }
+}
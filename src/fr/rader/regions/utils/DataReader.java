@@ -1,6 +1,13 @@
 package fr.rader.regions.utils;
 
+import fr.rader.regions.nbt.NBTFormatException;
+import fr.rader.regions.nbt.NBTLimits;
+import fr.rader.regions.nbt.NBTProjection;
+import fr.rader.regions.nbt.NBTReadContext;
 import fr.rader.regions.nbt.tags.TagCompound;
+import fr.rader.regions.nbt.tags.TagType;
+import fr.rader.regions.nbt.visitor.NBTStreamReader;
+import fr.rader.regions.nbt.visitor.NBTVisitor;
 
 import java.io.*;
 import java.nio.ByteBuffer;
@@ -11,6 +18,15 @@ public class DataReader {
     private InputStream inputStream;
     private RandomAccessFile randomAccessFile;
 
+    // budget, lazy paths and pool of the NBT data being read, created the first time it is needed
+    private NBTReadContext nbtContext;
+
+    // bytes read while capturing a raw payload, null when not capturing
+    private ByteArrayInOutStream capture;
+
+    // receives the bytes skipped while capturing, allocated the first time it is needed
+    private byte[] skipBuffer;
+
     public DataReader(InputStream inputStream) {
         if(inputStream == null) throw new IllegalArgumentException("InputSteam is null");
 
@@ -76,18 +92,24 @@ public class DataReader {
      * @exception IllegalStateException when both InputStream & RandomAccessFile are null.
      */
     public int readByte() throws IOException {
+        int value;
+
         if(inputStream != null) {
             if(inputStream.available() == 0) throw new EOFException("Reached end of file");
-            return inputStream.read() & 0xff;
-        }
-
-        if(randomAccessFile != null) {
+            value = inputStream.read() & 0xff;
+        } else if(randomAccessFile != null) {
             if(randomAccessFile.getFilePointer() == randomAccessFile.length())
                 throw new EOFException("Reached end of file");
-            return randomAccessFile.readByte() & 0xff;
+            value = randomAccessFile.readByte() & 0xff;
+        } else {
+            throw new IllegalStateException("InputStream/RandomAccessFile is null");
         }
 
-        throw new IllegalStateException("InputStream/RandomAccessFile is null");
+        if(capture != null) {
+            capture.write(value);
+        }
+
+        return value;
     }
 
     /**
@@ -169,12 +191,37 @@ public class DataReader {
      */
     public byte[] readFollowingBytes(int length) throws IOException {
         byte[] out = new byte[length];
+        readFully(out, 0, length);
 
-        for(int i = 0; i < length; i++) {
-            out[i] = (byte) readByte();
+        return out;
+    }
+
+    /**
+     * Read <code>length</code> bytes to <code>out</code>, starting at <code>offset</code>
+     * @exception IOException when an I/O error occurs.
+     * @exception EOFException when the end of file has been reached.
+     */
+    public void readFully(byte[] out, int offset, int length) throws IOException {
+        if(inputStream != null) {
+            int position = offset;
+            int remaining = length;
+
+            while(remaining > 0) {
+                int read = inputStream.read(out, position, remaining);
+                if(read == -1) throw new EOFException("Reached end of file");
+
+                position += read;
+                remaining -= read;
+            }
+        } else if(randomAccessFile != null) {
+            randomAccessFile.readFully(out, offset, length);
+        } else {
+            throw new IllegalStateException("InputStream/RandomAccessFile is null");
         }
 
-        return out;
+        if(capture != null) {
+            capture.write(out, offset, length);
+        }
     }
 
     /**
@@ -244,6 +291,37 @@ public class DataReader {
         return out;
     }
 
+    /**
+     * Read a NBT string encoded in Modified UTF-8 (see {@link ModifiedUTF8})
+     * @param length Length of the string in bytes
+     * @return String read
+     * @exception IOException when an I/O error occurs.
+     * @exception EOFException when the end of file has been reached.
+     */
+    public String readModifiedUTF8(int length) throws IOException {
+        return ModifiedUTF8.decode(readFollowingBytes(length));
+    }
+
+    /**
+     * Skip a NBT string encoded in Modified UTF-8, without decoding it. While a raw payload is captured
+     * (see {@link #readRawTagPayload(int)}), the captured bytes are checked in place so the payload can be decoded later
+     * @param length Length of the string in bytes
+     * @exception IOException when an I/O error occurs.
+     * @exception EOFException when the end of file has been reached.
+     * @exception fr.rader.regions.nbt.NBTFormatException if a captured string is not valid Modified UTF-8
+     */
+    public void skipModifiedUTF8(int length) throws IOException {
+        if(capture == null) {
+            skip(length);
+            return;
+        }
+
+        int start = capture.size();
+        skip(length);
+
+        ModifiedUTF8.validate(capture.getBufferData(), start, length);
+    }
+
     /**
      * Read a int array (length is determined by the <code>length</code> param)
      * @param length Length of the array to read
@@ -261,6 +339,30 @@ public class DataReader {
         return out;
     }
 
+    /**
+     * Fill an int array
+     * @param out Array to fill, its length is the number of values read
+     * @exception IOException when an I/O error occurs.
+     * @exception EOFException when the end of file has been reached.
+     */
+    public void readIntArray(int[] out) throws IOException {
+        for(int i = 0; i < out.length; i++) {
+            out[i] = readInt();
+        }
+    }
+
+    /**
+     * Fill a long array
+     * @param out Array to fill, its length is the number of values read
+     * @exception IOException when an I/O error occurs.
+     * @exception EOFException when the end of file has been reached.
+     */
+    public void readLongArray(long[] out) throws IOException {
+        for(int i = 0; i < out.length; i++) {
+            out[i] = readLong();
+        }
+    }
+
     /**
      * Read a long array (length is determined by the <code>length</code> param)
      * @param length Length of the array to read
@@ -283,12 +385,99 @@ public class DataReader {
      * @return TagCompound
      * @exception IOException when an I/O error occurs.
      * @exception EOFException when the end of file has been reached.
+     * @exception NBTFormatException if the root tag is not a compound
      */
     public TagCompound readNBT() throws IOException {
+        getNBTContext().reset();
+
         byte firstByte = (byte) readByte();
         if(firstByte == 0) return null;
 
-        return new TagCompound(readString(readShort()), this);
+        if(firstByte != TagCompound.TAG_ID) {
+            throw new NBTFormatException("[DataReader] -> [#readNBT()] root tag must be a TagCompound (got " + firstByte + ")");
+        }
+
+        return TagType.COMPOUND.read(readModifiedUTF8(readShort()), this);
+    }
+
+    /**
+     * Read a NBT Compound, only keeping the tags matching the projection
+     * @param projection Paths of the tags to keep
+     * @return Sparse TagCompound
+     * @exception IOException when an I/O error occurs.
+     * @exception EOFException when the end of file has been reached.
+     */
+    public TagCompound readNBT(NBTProjection projection) throws IOException {
+        getNBTContext().reset();
+
+        return projection.read(this);
+    }
+
+    /**
+     * Read a NBT Compound and push it to a visitor, without building any tag
+     * @param visitor Visitor receiving the data
+     * @return false if the visitor stopped the reading, true otherwise
+     * @exception IOException when an I/O error occurs.
+     * @exception EOFException when the end of file has been reached.
+     */
+    public boolean readNBT(NBTVisitor visitor) throws IOException {
+        getNBTContext().reset();
+
+        return new NBTStreamReader(this).accept(visitor);
+    }
+
+    /**
+     * Skip the payload of a NBT tag without reading it. The skipped payload is accounted in the limits of the reader
+     * @param tagID ID of the tag to skip
+     * @exception IOException when an I/O error occurs.
+     * @exception EOFException when the end of file has been reached.
+     */
+    public void skipTagPayload(int tagID) throws IOException {
+        TagType.byID(tagID).skip(this);
+    }
+
+    /**
+     * Read the payload of a tag without decoding it. The payload is checked while it is read, like a
+     * decoded one would be (tag IDs, lengths, names and limits), so it can be decoded later without failing
+     * @param tagID ID of the tag
+     * @return the bytes of the payload, as they are stored
+     * @exception IOException when an I/O error occurs.
+     * @exception EOFException when the end of file has been reached.
+     */
+    public byte[] readRawTagPayload(int tagID) throws IOException {
+        if(capture != null) throw new IllegalStateException("[DataReader] -> [#readRawTagPayload(tagID)] already capturing a payload");
+
+        byte[] payload;
+
+        capture = new ByteArrayInOutStream(256);
+        try {
+            skipTagPayload(tagID);
+            payload = capture.toByteArray();
+        } finally {
+            capture = null;
+        }
+
+        return payload;
+    }
+
+    /**
+     * @return the context of the NBT data read by this reader, with {@link NBTLimits#DEFAULT} limits if none has been set
+     */
+    public NBTReadContext getNBTContext() {
+        if(nbtContext == null) {
+            nbtContext = new NBTReadContext();
+        }
+
+        return nbtContext;
+    }
+
+    /**
+     * Set the limits, lazy paths and pool used while reading NBT data
+     */
+    public void setNBTContext(NBTReadContext nbtContext) {
+        if(nbtContext == null) throw new IllegalArgumentException("NBT context cannot be null");
+
+        this.nbtContext = nbtContext;
     }
 
     public long getLength() {
@@ -312,12 +501,49 @@ public class DataReader {
         }
     }
 
-    public void skip(int i) {
-        try {
-            if(inputStream != null) inputStream.skip(i);
-            if(randomAccessFile != null) randomAccessFile.skipBytes(i);
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Skip the following <code>length</code> bytes
+     * @param length Number of bytes to skip
+     * @exception IOException when an I/O error occurs.
+     * @exception EOFException when the end of file has been reached.
+     */
+    public void skip(long length) throws IOException {
+        if(capture != null) {
+            // skipped bytes are part of the captured payload
+            if(skipBuffer == null) {
+                skipBuffer = new byte[8192];
+            }
+
+            while(length > 0) {
+                int count = (int) Math.min(length, skipBuffer.length);
+                readFully(skipBuffer, 0, count);
+                length -= count;
+            }
+
+            return;
+        }
+
+        if(inputStream != null) {
+            while(length > 0) {
+                long skipped = inputStream.skip(length);
+
+                if(skipped <= 0) {
+                    // some streams refuse to skip, reading one byte tells us if we hit the end of the stream
+                    readByte();
+                    skipped = 1;
+                }
+
+                length -= skipped;
+            }
+
+            return;
+        }
+
+        if(randomAccessFile != null) {
+            if(randomAccessFile.getFilePointer() + length > randomAccessFile.length())
+                throw new EOFException("Reached end of file");
+            randomAccessFile.seek(randomAccessFile.getFilePointer() + length);
+            return;
         }
 
         throw new IllegalStateException("InputStream/RandomAccessFile is null");
@@ -9,17 +9,42 @@ public class DataWriter {
 
     private ByteArrayInOutStream stream;
 
-    private byte[] buffer = new byte[16384];
+    private byte[] buffer;
     private int index = 0;
 
+    // true if tags have to be written in their canonical form
+    private boolean canonical = false;
+
     public DataWriter() {
-        stream = new ByteArrayInOutStream(1);
+        this(new ByteArrayInOutStream(1), 16384);
+    }
+
+    /**
+     * Used by writers handling the bytes themselves in {@link #writeByte(int)},
+     * which don't need a stream nor a buffer
+     */
+    protected DataWriter(ByteArrayInOutStream stream, int bufferSize) {
+        this.stream = stream;
+        this.buffer = new byte[bufferSize];
     }
 
     public int getIndex() {
         return index;
     }
 
+    public boolean isCanonical() {
+        return canonical;
+    }
+
+    /**
+     * Write tags in their canonical form: compound entries sorted by name and empty lists
+     * with a children ID of 0. Tags with the same content then always give the same bytes,
+     * whatever order their entries were added in
+     */
+    public void setCanonical(boolean canonical) {
+        this.canonical = canonical;
+    }
+
     public void writeByte(int value) {
         if(index == buffer.length) {
             stream.write(buffer, 0, index);
@@ -46,9 +71,25 @@ public class DataWriter {
     }
 
     public void writeByteArray(byte[] values) {
-        for(byte value : values) {
-            writeByte(value);
+        writeBytes(values, 0, values.length);
+    }
+
+    /**
+     * Copy <code>length</code> bytes of <code>values</code> starting at <code>offset</code>
+     */
+    public void writeBytes(byte[] values, int offset, int length) {
+        if(length > buffer.length - index) {
+            stream.write(buffer, 0, index);
+            index = 0;
+
+            if(length > buffer.length) {
+                stream.write(values, offset, length);
+                return;
+            }
         }
+
+        System.arraycopy(values, offset, buffer, index, length);
+        index += length;
     }
 
     public void writeIntArray(int[] values) {
@@ -105,6 +146,21 @@ public class DataWriter {
         writeByteArray(value.getBytes(StandardCharsets.UTF_8));
     }
 
+    /**
+     * Write a NBT string: its length in bytes on 2 bytes, followed by its Modified UTF-8 encoding
+     */
+    public void writeModifiedUTF8(String value) {
+        writeModifiedUTF8(ModifiedUTF8.encode(value));
+    }
+
+    /**
+     * Write a NBT string that has already been encoded with {@link ModifiedUTF8#encode(String)}
+     */
+    public void writeModifiedUTF8(byte[] encoded) {
+        writeShort(encoded.length);
+        writeBytes(encoded, 0, encoded.length);
+    }
+
     public void writeAsciiChar(char value) {
         writeByte(value);
     }
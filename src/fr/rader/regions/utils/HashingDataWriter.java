@@ -0,0 +1,41 @@
+package fr.rader.regions.utils;
+
+/**
+ * DataWriter that does not store anything, it only computes the FNV-1a 64 bits hash of the bytes written to it
+ */
+public class HashingDataWriter extends DataWriter {
+
+    static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    static final long FNV_PRIME = 0x100000001b3L;
+
+    private long hash = FNV_OFFSET_BASIS;
+
+    public HashingDataWriter() {
+        super(null, 0);
+    }
+
+    @Override
+    public void writeByte(int value) {
+        hash = update(hash, value);
+    }
+
+    @Override
+    public void writeBytes(byte[] values, int offset, int length) {
+        for(int i = 0; i < length; i++) {
+            hash = update(hash, values[offset + i]);
+        }
+    }
+
+    @Override
+    public void flush() {
+        // nothing is buffered
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    static long update(long hash, int value) {
+        return (hash ^ (value & 0xff)) * FNV_PRIME;
+    }
+}
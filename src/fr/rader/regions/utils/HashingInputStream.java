@@ -0,0 +1,54 @@
+package fr.rader.regions.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream computing the same hash as {@link HashingDataWriter} over every byte read from it
+ */
+public class HashingInputStream extends FilterInputStream {
+
+    private long hash = HashingDataWriter.FNV_OFFSET_BASIS;
+
+    public HashingInputStream(InputStream inputStream) {
+        super(inputStream);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value = super.read();
+
+        if(value != -1) {
+            hash = HashingDataWriter.update(hash, value);
+        }
+
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+
+        for(int i = 0; i < read; i++) {
+            hash = HashingDataWriter.update(hash, buffer[offset + i]);
+        }
+
+        return read;
+    }
+
+    @Override
+    public long skip(long length) throws IOException {
+        // skipped bytes still have to be hashed
+        long skipped = 0;
+        while(skipped < length && read() != -1) {
+            skipped++;
+        }
+
+        return skipped;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+}
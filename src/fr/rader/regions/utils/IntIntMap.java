@@ -0,0 +1,105 @@
+package fr.rader.regions.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from non-negative ints to ints, without boxing
+ */
+public class IntIntMap {
+
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int size = 0;
+
+    public IntIntMap() {
+        this(16);
+    }
+
+    public IntIntMap(int expectedSize) {
+        // keep the load factor under 0.5
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1;
+
+        this.keys = new int[capacity];
+        this.values = new int[capacity];
+
+        Arrays.fill(keys, EMPTY);
+    }
+
+    public int get(int key, int defaultValue) {
+        int mask = keys.length - 1;
+
+        for(int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int current = keys[slot];
+            if(current == key) return values[slot];
+            if(current == EMPTY) return defaultValue;
+        }
+    }
+
+    public boolean containsKey(int key) {
+        int mask = keys.length - 1;
+
+        for(int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int current = keys[slot];
+            if(current == key) return true;
+            if(current == EMPTY) return false;
+        }
+    }
+
+    public void put(int key, int value) {
+        if(key < 0) throw new IllegalArgumentException("[IntIntMap] -> [#put(key, value)] key must be positive (key is " + key + ")");
+
+        if((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+
+        int mask = keys.length - 1;
+
+        for(int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int current = keys[slot];
+
+            if(current == key) {
+                values[slot] = value;
+                return;
+            }
+
+            if(current == EMPTY) {
+                keys[slot] = key;
+                values[slot] = value;
+                size++;
+                return;
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        int hash = key * 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+}
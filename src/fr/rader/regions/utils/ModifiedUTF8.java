@@ -0,0 +1,153 @@
+package fr.rader.regions.utils;
+
+import fr.rader.regions.nbt.NBTFormatException;
+
+/**
+ * Modified UTF-8, the encoding used by NBT strings (same as {@link java.io.DataOutput#writeUTF(String)}):
+ * the null character is encoded on 2 bytes and supplementary characters are encoded as two 3 bytes surrogates
+ */
+public final class ModifiedUTF8 {
+
+    public static final int MAX_LENGTH = 0xffff;
+
+    private ModifiedUTF8() {
+    }
+
+    /**
+     * @return number of bytes needed to encode the string
+     */
+    public static int getEncodedLength(String value) {
+        int length = value.length();
+
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if(c >= 0x800) {
+                length += 2;
+            } else if(c >= 0x80 || c == 0) {
+                length++;
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Encode a string, without its length prefix
+     * @exception IllegalArgumentException if the string needs more than {@link #MAX_LENGTH} bytes
+     */
+    public static byte[] encode(String value) {
+        int length = getEncodedLength(value);
+        if(length > MAX_LENGTH) {
+            throw new IllegalArgumentException("[ModifiedUTF8] -> [#encode(value)] string is too long to be encoded (" + length + " bytes)");
+        }
+
+        byte[] out = new byte[length];
+
+        // most strings are ascii, they are copied as is
+        if(length == value.length()) {
+            for(int i = 0; i < length; i++) {
+                out[i] = (byte) value.charAt(i);
+            }
+
+            return out;
+        }
+
+        int index = 0;
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if(c != 0 && c < 0x80) {
+                out[index++] = (byte) c;
+            } else if(c < 0x800) {
+                out[index++] = (byte) (0xc0 | (c >> 6));
+                out[index++] = (byte) (0x80 | (c & 0x3f));
+            } else {
+                out[index++] = (byte) (0xe0 | (c >> 12));
+                out[index++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[index++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+
+        return out;
+    }
+
+    /**
+     * Decode <code>length</code> bytes starting at <code>offset</code>
+     * @exception NBTFormatException if the bytes are not valid Modified UTF-8
+     */
+    public static String decode(byte[] data, int offset, int length) {
+        char[] out = new char[length];
+        int end = offset + length;
+        int count = 0;
+
+        int i = offset;
+        while(i < end) {
+            int b = data[i] & 0xff;
+
+            if(b < 0x80) {
+                out[count++] = (char) b;
+                i++;
+            } else if((b & 0xe0) == 0xc0) {
+                if(i + 1 >= end) throw malformed(i);
+
+                out[count++] = (char) (((b & 0x1f) << 6) | continuation(data, i + 1));
+                i += 2;
+            } else if((b & 0xf0) == 0xe0) {
+                if(i + 2 >= end) throw malformed(i);
+
+                out[count++] = (char) (((b & 0x0f) << 12) | (continuation(data, i + 1) << 6) | continuation(data, i + 2));
+                i += 3;
+            } else {
+                throw malformed(i);
+            }
+        }
+
+        return new String(out, 0, count);
+    }
+
+    public static String decode(byte[] data) {
+        return decode(data, 0, data.length);
+    }
+
+    /**
+     * Check that <code>length</code> bytes starting at <code>offset</code> can be decoded, without decoding them
+     * @exception NBTFormatException if the bytes are not valid Modified UTF-8
+     */
+    public static void validate(byte[] data, int offset, int length) {
+        int end = offset + length;
+
+        int i = offset;
+        while(i < end) {
+            int b = data[i] & 0xff;
+
+            if(b < 0x80) {
+                i++;
+            } else if((b & 0xe0) == 0xc0) {
+                if(i + 1 >= end) throw malformed(i);
+
+                continuation(data, i + 1);
+                i += 2;
+            } else if((b & 0xf0) == 0xe0) {
+                if(i + 2 >= end) throw malformed(i);
+
+                continuation(data, i + 1);
+                continuation(data, i + 2);
+                i += 3;
+            } else {
+                throw malformed(i);
+            }
+        }
+    }
+
+    private static int continuation(byte[] data, int index) {
+        int b = data[index] & 0xff;
+        if((b & 0xc0) != 0x80) throw malformed(index);
+
+        return b & 0x3f;
+    }
+
+    private static NBTFormatException malformed(int index) {
+        return new NBTFormatException("[ModifiedUTF8] -> [#decode(data, offset, length)] malformed input around byte " + index);
+    }
+}
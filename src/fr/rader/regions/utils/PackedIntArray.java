@@ -0,0 +1,319 @@
+package fr.rader.regions.utils;
+
+/**
+ * Fixed size array of unsigned values of <code>bitsPerValue</code> bits, packed in a <code>long[]</code>
+ * which is read and written in place. Values are stored from the least significant bits of every long,
+ * and never span two longs: the bits left at the end of a long are unused (block states since 1.16).
+ * <p>
+ * Before 1.16, values were packed back to back and could span two longs. Arrays using that layout
+ * are converted once with {@link #fromSpanning(int, int, long[])} and {@link #toSpanning()}, so reading
+ * and writing values never depends on the layout.
+ */
+public class PackedIntArray {
+
+    private final long[] data;
+    private final int bitsPerValue;
+    private final int size;
+
+    private final int valuesPerLong;
+    private final long mask;
+
+    /**
+     * Create an array filled with 0
+     */
+    public PackedIntArray(int bitsPerValue, int size) {
+        this(bitsPerValue, size, new long[getDataLength(bitsPerValue, size)]);
+    }
+
+    /**
+     * Wrap packed values, the array is not copied
+     * @exception IllegalArgumentException if the length of <code>data</code> doesn't match the number of bits and values
+     */
+    public PackedIntArray(int bitsPerValue, int size, long[] data) {
+        int length = getDataLength(bitsPerValue, size);
+        if(data.length != length) {
+            throw new IllegalArgumentException("[PackedIntArray] -> [#PackedIntArray(bitsPerValue, size, data)] " + size + " values of " + bitsPerValue + " bits need " + length + " longs (got " + data.length + ")");
+        }
+
+        this.data = data;
+        this.bitsPerValue = bitsPerValue;
+        this.size = size;
+
+        this.valuesPerLong = Long.SIZE / bitsPerValue;
+        this.mask = (1L << bitsPerValue) - 1;
+    }
+
+    /**
+     * @return number of longs needed to store <code>size</code> values of <code>bitsPerValue</code> bits
+     * @exception IllegalArgumentException if <code>bitsPerValue</code> is not between 1 and 32
+     */
+    public static int getDataLength(int bitsPerValue, int size) {
+        if(bitsPerValue < 1 || bitsPerValue > 32) {
+            throw new IllegalArgumentException("[PackedIntArray] -> [#getDataLength(bitsPerValue, size)] bitsPerValue must be between 1 and 32 (is " + bitsPerValue + ")");
+        }
+
+        int valuesPerLong = Long.SIZE / bitsPerValue;
+
+        return (size + valuesPerLong - 1) / valuesPerLong;
+    }
+
+    /**
+     * @return number of longs needed to store <code>size</code> values of <code>bitsPerValue</code> bits
+     * when values can span two longs
+     */
+    public static int getSpanningDataLength(int bitsPerValue, int size) {
+        return (int) (((long) size * bitsPerValue + Long.SIZE - 1) / Long.SIZE);
+    }
+
+    /**
+     * Convert values packed back to back, spanning two longs when they don't fit in the first one
+     * @exception IllegalArgumentException if the length of <code>data</code> doesn't match the number of bits and values
+     */
+    public static PackedIntArray fromSpanning(int bitsPerValue, int size, long[] data) {
+        PackedIntArray out = new PackedIntArray(bitsPerValue, size);
+
+        int length = getSpanningDataLength(bitsPerValue, size);
+        if(data.length != length) {
+            throw new IllegalArgumentException("[PackedIntArray] -> [#fromSpanning(bitsPerValue, size, data)] " + size + " values of " + bitsPerValue + " bits need " + length + " longs (got " + data.length + ")");
+        }
+
+        // both layouts are the same when values fill the longs exactly
+        if(Long.SIZE % bitsPerValue == 0) {
+            System.arraycopy(data, 0, out.data, 0, length);
+            return out;
+        }
+
+        long mask = out.mask;
+        int valuesPerLong = out.valuesPerLong;
+        long[] padded = out.data;
+
+        long bitIndex = 0;
+        for(int cell = 0, index = 0; index < size; cell++) {
+            long value = 0;
+
+            for(int i = 0; i < valuesPerLong && index < size; i++, index++, bitIndex += bitsPerValue) {
+                int from = (int) (bitIndex >>> 6);
+                int shift = (int) (bitIndex & 63);
+
+                long v = data[from] >>> shift;
+                if(shift + bitsPerValue > Long.SIZE) {
+                    v |= data[from + 1] << (Long.SIZE - shift);
+                }
+
+                value |= (v & mask) << (i * bitsPerValue);
+            }
+
+            padded[cell] = value;
+        }
+
+        return out;
+    }
+
+    /**
+     * @return the values packed back to back, spanning two longs when they don't fit in the first one
+     */
+    public long[] toSpanning() {
+        long[] out = new long[getSpanningDataLength(bitsPerValue, size)];
+
+        if(Long.SIZE % bitsPerValue == 0) {
+            System.arraycopy(data, 0, out, 0, out.length);
+            return out;
+        }
+
+        long bitIndex = 0;
+        for(int cell = 0, index = 0; index < size; cell++) {
+            long value = data[cell];
+
+            for(int i = 0; i < valuesPerLong && index < size; i++, index++, bitIndex += bitsPerValue) {
+                long v = value & mask;
+                value >>>= bitsPerValue;
+
+                int to = (int) (bitIndex >>> 6);
+                int shift = (int) (bitIndex & 63);
+
+                out[to] |= v << shift;
+                if(shift + bitsPerValue > Long.SIZE) {
+                    out[to + 1] |= v >>> (Long.SIZE - shift);
+                }
+            }
+        }
+
+        return out;
+    }
+
+    public int get(int index) {
+        checkIndex("get(index)", index);
+
+        int cell = index / valuesPerLong;
+        int shift = (index - cell * valuesPerLong) * bitsPerValue;
+
+        return (int) ((data[cell] >>> shift) & mask);
+    }
+
+    public void set(int index, int value) {
+        checkIndex("set(index, value)", index);
+
+        int cell = index / valuesPerLong;
+        int shift = (index - cell * valuesPerLong) * bitsPerValue;
+
+        data[cell] = (data[cell] & ~(mask << shift)) | ((value & mask) << shift);
+    }
+
+    /**
+     * Set every value from <code>fromIndex</code> (inclusive) to <code>toIndex</code> (exclusive),
+     * the longs entirely covered by the range are written at once
+     */
+    public void fill(int fromIndex, int toIndex, int value) {
+        if(fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("[PackedIntArray] -> [#fill(fromIndex, toIndex, value)] invalid range " + fromIndex + " to " + toIndex + " (size is " + size + ")");
+        }
+
+        int index = fromIndex;
+        while(index < toIndex && index % valuesPerLong != 0) {
+            set(index++, value);
+        }
+
+        if(toIndex - index >= valuesPerLong) {
+            long v = value & mask;
+            long pattern = 0;
+            for(int i = 0; i < valuesPerLong; i++) {
+                pattern |= v << (i * bitsPerValue);
+            }
+
+            while(toIndex - index >= valuesPerLong) {
+                data[index / valuesPerLong] = pattern;
+                index += valuesPerLong;
+            }
+        }
+
+        while(index < toIndex) {
+            set(index++, value);
+        }
+    }
+
+    /**
+     * Unpack every value
+     * @param out Array receiving the values, at least {@link #size()} long
+     */
+    public void unpack(int[] out) {
+        int index = 0;
+
+        for(int cell = 0; cell < data.length && index < size; cell++) {
+            long value = data[cell];
+
+            for(int i = 0; i < valuesPerLong && index < size; i++) {
+                out[index++] = (int) (value & mask);
+                value >>>= bitsPerValue;
+            }
+        }
+    }
+
+    /**
+     * Unpack every value through a lookup table, in a single pass
+     * @param out Array receiving <code>lookup[value]</code> for every value, at least {@link #size()} long
+     * @param lookup Table giving the value to write for every packed value
+     */
+    public void unpack(short[] out, short[] lookup) {
+        int index = 0;
+
+        for(int cell = 0; cell < data.length && index < size; cell++) {
+            long value = data[cell];
+
+            for(int i = 0; i < valuesPerLong && index < size; i++) {
+                out[index++] = lookup[(int) (value & mask)];
+                value >>>= bitsPerValue;
+            }
+        }
+    }
+
+    /**
+     * Replace every value
+     * @param values Values to pack, at least {@link #size()} long. Only the low <code>bitsPerValue</code> bits of every value are kept
+     */
+    public void pack(int[] values) {
+        int index = 0;
+
+        for(int cell = 0; cell < data.length; cell++) {
+            long value = 0;
+
+            for(int i = 0; i < valuesPerLong && index < size; i++) {
+                value |= (values[index++] & mask) << (i * bitsPerValue);
+            }
+
+            data[cell] = value;
+        }
+    }
+
+    /**
+     * Repack every value with another number of bits, in a single pass over the array
+     * @return a new array holding the same values with <code>bitsPerValue</code> bits per value
+     * @exception IllegalArgumentException if a value doesn't fit in the new number of bits
+     */
+    public PackedIntArray resize(int bitsPerValue) {
+        PackedIntArray out = new PackedIntArray(bitsPerValue, size);
+        if(bitsPerValue == this.bitsPerValue) {
+            System.arraycopy(data, 0, out.data, 0, data.length);
+            return out;
+        }
+
+        long[] outData = out.data;
+        int outValuesPerLong = out.valuesPerLong;
+        long outMask = out.mask;
+
+        int index = 0;
+        int outCell = 0;
+        int outShift = 0;
+        int outCount = 0;
+        long outValue = 0;
+
+        for(int cell = 0; cell < data.length && index < size; cell++) {
+            long value = data[cell];
+
+            for(int i = 0; i < valuesPerLong && index < size; i++, index++) {
+                long v = value & mask;
+                value >>>= this.bitsPerValue;
+
+                if(v > outMask) {
+                    throw new IllegalArgumentException("[PackedIntArray] -> [#resize(bitsPerValue)] value " + v + " doesn't fit in " + bitsPerValue + " bits");
+                }
+
+                outValue |= v << outShift;
+                outShift += bitsPerValue;
+
+                if(++outCount == outValuesPerLong) {
+                    outData[outCell++] = outValue;
+                    outValue = 0;
+                    outShift = 0;
+                    outCount = 0;
+                }
+            }
+        }
+
+        if(outCount > 0) {
+            outData[outCell] = outValue;
+        }
+
+        return out;
+    }
+
+    /**
+     * @return the packed values, not copied
+     */
+    public long[] getData() {
+        return data;
+    }
+
+    public int getBitsPerValue() {
+        return bitsPerValue;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void checkIndex(String method, int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("[PackedIntArray] -> [#" + method + "] index must be between 0 and " + (size - 1) + " (index is " + index + ")");
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package fr.rader.regions;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Assertions used by the tests, they throw an {@link AssertionError} when they fail
+ */
+public final class Assertions {
+
+    private Assertions() {
+    }
+
+    public interface Executable {
+
+        void execute() throws Throwable;
+    }
+
+    public static void fail(String message) {
+        throw new AssertionError(message);
+    }
+
+    public static void assertTrue(boolean condition) {
+        if(!condition) fail("expected true");
+    }
+
+    public static void assertFalse(boolean condition) {
+        if(condition) fail("expected false");
+    }
+
+    public static void assertNull(Object actual) {
+        if(actual != null) fail("expected null, got " + actual);
+    }
+
+    public static void assertNotNull(Object actual) {
+        if(actual == null) fail("expected a value, got null");
+    }
+
+    public static void assertSame(Object expected, Object actual) {
+        if(expected != actual) fail("expected the same instance as " + expected + ", got " + actual);
+    }
+
+    public static void assertNotSame(Object unexpected, Object actual) {
+        if(unexpected == actual) fail("expected another instance than " + actual);
+    }
+
+    public static void assertEquals(Object expected, Object actual) {
+        if(!Objects.equals(expected, actual)) fail("expected " + expected + ", got " + actual);
+    }
+
+    public static void assertEquals(long expected, long actual) {
+        if(expected != actual) fail("expected " + expected + ", got " + actual);
+    }
+
+    public static void assertNotEquals(long unexpected, long actual) {
+        if(unexpected == actual) fail("expected something else than " + actual);
+    }
+
+    public static void assertArrayEquals(byte[] expected, byte[] actual) {
+        if(!Arrays.equals(expected, actual)) fail("expected " + Arrays.toString(expected) + ", got " + Arrays.toString(actual));
+    }
+
+    public static void assertArrayEquals(int[] expected, int[] actual) {
+        if(!Arrays.equals(expected, actual)) fail("expected " + Arrays.toString(expected) + ", got " + Arrays.toString(actual));
+    }
+
+    public static void assertArrayEquals(long[] expected, long[] actual) {
+        if(!Arrays.equals(expected, actual)) fail("expected " + Arrays.toString(expected) + ", got " + Arrays.toString(actual));
+    }
+
+    /**
+     * @return the exception thrown by <code>executable</code>, which must be a <code>type</code>
+     */
+    public static <T extends Throwable> T assertThrows(Class<T> type, Executable executable) {
+        try {
+            executable.execute();
+        } catch (Throwable throwable) {
+            if(type.isInstance(throwable)) {
+                return type.cast(throwable);
+            }
+
+            throw new AssertionError("expected " + type.getSimpleName() + ", got " + throwable, throwable);
+        }
+
+        throw new AssertionError("expected " + type.getSimpleName() + ", nothing was thrown");
+    }
+}
@@ -0,0 +1,203 @@
+package fr.rader.regions;
+
+import fr.rader.regions.mca.BlockState;
+import fr.rader.regions.mca.Chunk;
+import fr.rader.regions.nbt.tags.*;
+import fr.rader.regions.utils.ByteArrayInOutStream;
+import fr.rader.regions.utils.DataReader;
+import fr.rader.regions.utils.DataWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Builds the NBT data and the chunks used by the tests
+ */
+public final class TestData {
+
+    private TestData() {
+    }
+
+    public static byte[] encode(TagBase tag) {
+        DataWriter writer = new DataWriter();
+        tag.write(writer);
+
+        return ((ByteArrayInOutStream) writer.getStream()).toByteArray();
+    }
+
+    public static byte[] encodeCanonical(TagBase tag) {
+        DataWriter writer = new DataWriter();
+        writer.setCanonical(true);
+        tag.write(writer);
+
+        return ((ByteArrayInOutStream) writer.getStream()).toByteArray();
+    }
+
+    public static TagCompound decode(byte[] data) throws IOException {
+        return new DataReader(data).readNBT();
+    }
+
+    /**
+     * @return a compound holding every type of tag, with nested compounds and lists
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static TagCompound allTypes() {
+        TagCompound root = new TagCompound("root");
+        root.add(new TagByte("byte", -3));
+        root.add(new TagShort("short", 1234));
+        root.add(new TagInt("int", -123456));
+        root.add(new TagLong("long", 1L << 40));
+        root.add(new TagFloat("float", 1.5f));
+        root.add(new TagDouble("double", -2.25));
+        root.add(new TagByteArray("bytes", new byte[]{1, 2, 3}));
+        root.add(new TagString("string", "h\u00e9llo \u0000 \ud83d\ude00"));
+        root.add(new TagIntArray("ints", new int[]{-1, 0, 1}));
+        root.add(new TagLongArray("longs", new long[]{Long.MIN_VALUE, Long.MAX_VALUE}));
+
+        TagCompound nested = new TagCompound("nested");
+        nested.add(new TagString("id", "minecraft:chest"));
+        nested.add(new TagList<>(TagInt.class, "empty"));
+        root.add(nested);
+
+        TagList<TagCompound> compounds = new TagList<>(TagCompound.class, "compounds");
+        for(int i = 0; i < 3; i++) {
+            TagCompound element = new TagCompound();
+            element.add(new TagInt("i", i));
+            compounds.add(element);
+        }
+
+        root.add(compounds);
+
+        TagList<TagList<?>> lists = new TagList<>((Class) TagList.class, "lists");
+        TagList<TagString> strings = new TagList<>(TagString.class);
+        strings.add(new TagString("a"));
+        strings.add(new TagString("b"));
+        lists.add(strings);
+        root.add(lists);
+
+        return root;
+    }
+
+    /**
+     * @return a chunk compound holding <code>sections</code> in <code>Level.Sections</code>
+     */
+    public static TagCompound chunk(int dataVersion, TagCompound... sections) {
+        TagCompound root = new TagCompound("");
+        root.add(new TagInt("DataVersion", dataVersion));
+
+        TagCompound level = new TagCompound("Level");
+        level.add(new TagInt("xPos", 0));
+        level.add(new TagInt("zPos", 0));
+        root.add(level);
+
+        TagList<TagCompound> sectionList = new TagList<>(TagCompound.class, "Sections");
+        for(TagCompound section : sections) {
+            sectionList.add(section);
+        }
+
+        level.add(sectionList);
+
+        return root;
+    }
+
+    /**
+     * @param blockStates Packed palette indices, null to leave the block states out
+     * @param palette Names of the states of the palette
+     */
+    public static TagCompound section(int y, long[] blockStates, String... palette) {
+        TagCompound section = new TagCompound();
+        section.add(new TagByte("Y", y));
+
+        TagList<TagCompound> paletteTag = new TagList<>(TagCompound.class, "Palette");
+        for(String name : palette) {
+            paletteTag.add(BlockState.of(name).toTag());
+        }
+
+        section.add(paletteTag);
+
+        if(blockStates != null) {
+            section.add(new TagLongArray("BlockStates", blockStates));
+        }
+
+        section.add(new TagByteArray("SkyLight", new byte[2048]));
+
+        return section;
+    }
+
+    public static byte[] deflate(byte[] data) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try(DeflaterOutputStream deflater = new DeflaterOutputStream(outputStream)) {
+            deflater.write(data);
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Write encoded chunk data the way region files store it: length, compression type and deflated data,
+     * padded to a whole sector
+     * @return the file, positioned on the chunk
+     */
+    public static RandomAccessFile chunkFile(byte[] data) throws IOException {
+        byte[] compressed = deflate(data);
+
+        File file = File.createTempFile("chunk", ".mca");
+        file.deleteOnExit();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeInt(compressed.length + 1);
+        raf.writeByte(2);
+        raf.write(compressed);
+        raf.setLength((raf.length() + 4095) / 4096 * 4096);
+        raf.seek(0);
+
+        return raf;
+    }
+
+    /**
+     * Write a region file holding the encoded chunks at the indices 0 to <code>chunks.length - 1</code>
+     */
+    public static File region(byte[]... chunks) throws IOException {
+        File file = File.createTempFile("region", ".mca");
+        file.deleteOnExit();
+
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(8192);
+
+            int sector = 2;
+            for(int i = 0; i < chunks.length; i++) {
+                byte[] compressed = deflate(chunks[i]);
+                int sectors = (compressed.length + 5 + 4095) / 4096;
+
+                raf.seek(i * 4);
+                raf.writeInt(sector << 8 | sectors);
+
+                raf.seek(4096L * sector);
+                raf.writeInt(compressed.length + 1);
+                raf.writeByte(2);
+                raf.write(compressed);
+
+                sector += sectors;
+                raf.setLength(4096L * sector);
+            }
+        }
+
+        return file;
+    }
+
+    public static Chunk load(TagCompound root) throws IOException {
+        return load(encode(root));
+    }
+
+    public static Chunk load(byte[] data) throws IOException {
+        try(RandomAccessFile raf = chunkFile(data)) {
+            Chunk chunk = new Chunk(0);
+            chunk.deserialize(raf);
+
+            return chunk;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package fr.rader.regions;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs every class whose name ends with <code>Test</code>, found next to this class. Each {@link Test} method
+ * runs on a new instance of its class, the process exits with 1 if one of them fails. The tests only need a JDK:
+ * <pre>
+ *     javac -d out $(find src test -name '*.java')
+ *     java -cp out fr.rader.regions.TestRunner
+ * </pre>
+ * Test class names can be given as arguments to only run these classes
+ */
+public class TestRunner {
+
+    public static void main(String[] args) throws Exception {
+        List<String> classNames = (args.length > 0) ? Arrays.asList(args) : findTestClasses();
+
+        int run = 0;
+        List<String> failures = new ArrayList<>();
+        for(String className : classNames) {
+            Class<?> testClass = Class.forName(className);
+
+            for(Method method : testClass.getDeclaredMethods()) {
+                if(!method.isAnnotationPresent(Test.class) || Modifier.isStatic(method.getModifiers())) {
+                    continue;
+                }
+
+                run++;
+                try {
+                    method.setAccessible(true);
+                    method.invoke(testClass.getDeclaredConstructor().newInstance());
+                } catch (InvocationTargetException e) {
+                    failures.add(testClass.getSimpleName() + "#" + method.getName() + ": " + e.getCause());
+                    e.getCause().printStackTrace();
+                }
+            }
+        }
+
+        for(String failure : failures) {
+            System.out.println("FAILED " + failure);
+        }
+
+        System.out.println(run + " tests, " + failures.size() + " failed");
+        if(!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private static List<String> findTestClasses() throws IOException, URISyntaxException {
+        Path root = Paths.get(TestRunner.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+
+        try(Stream<Path> files = Files.walk(root)) {
+            return files.map(root::relativize)
+                    .map(Path::toString)
+                    .filter(name -> name.endsWith("Test.class"))
+                    .map(name -> name.substring(0, name.length() - ".class".length()).replace(root.getFileSystem().getSeparator(), "."))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
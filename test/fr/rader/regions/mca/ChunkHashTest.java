@@ -0,0 +1,113 @@
+package fr.rader.regions.mca;
+
+import fr.rader.regions.Test;
+import fr.rader.regions.nbt.tags.TagCompound;
+import fr.rader.regions.nbt.tags.TagInt;
+import fr.rader.regions.nbt.tags.TagString;
+
+import java.io.IOException;
+
+import static fr.rader.regions.Assertions.*;
+import static fr.rader.regions.TestData.*;
+
+public class ChunkHashTest {
+
+    private static final BlockState STONE = BlockState.of("minecraft:stone");
+
+    private static TagCompound sample() {
+        long[] blockStates = new long[256];
+        blockStates[0] = 0x1111;
+
+        TagCompound root = chunk(2566,
+                section(0, blockStates, "minecraft:air", "minecraft:stone", "minecraft:dirt"),
+                section(2, null, "minecraft:air"));
+
+        // entries on both sides of Level
+        root.add(new TagString("Zzz", "tail"));
+        root.add(new TagString("Aaa", "head"));
+
+        return root;
+    }
+
+    /**
+     * The hashes are computed without serializing the chunk, they must be the ones of the serialized chunk
+     */
+    private static void assertHashesMatchSerialize(Chunk chunk) {
+        long contentHash = chunk.getContentHash();
+        long canonicalHash = chunk.getCanonicalHash();
+
+        TagCompound serialized = chunk.serialize();
+        assertEquals(serialized.contentHash(), contentHash);
+        assertEquals(serialized.canonicalHash(), canonicalHash);
+    }
+
+    @Test
+    void freshChunksHaveNotChanged() throws IOException {
+        TagCompound root = sample();
+        Chunk chunk = load(root);
+
+        assertFalse(chunk.hasChanged());
+        assertEquals(root.contentHash(), chunk.getContentHash());
+        assertHashesMatchSerialize(chunk);
+    }
+
+    @Test
+    void hashesFollowTheEdits() throws IOException {
+        Chunk chunk = load(sample());
+        long contentHash = chunk.getContentHash();
+
+        chunk.setBlockStateAt(1, 1, 1, STONE);
+        assertTrue(chunk.hasChanged());
+        assertNotEquals(contentHash, chunk.getContentHash());
+        assertHashesMatchSerialize(chunk);
+
+        // new sections are appended to the list
+        chunk.setBlockStateAt(1, 100, 1, STONE);
+        chunk.setBlockStateAt(2, 33, 2, STONE);
+        assertHashesMatchSerialize(chunk);
+
+        // more than 256 states, the section switches to direct mode
+        for(int i = 0; i < 300; i++) {
+            chunk.setBlockStateAt(i % 16, 5, (i / 16) % 16, BlockState.of("minecraft:block_" + i));
+        }
+
+        assertHashesMatchSerialize(chunk);
+
+        chunk.beginBatch();
+        chunk.setBlockStateAt(3, 3, 3, BlockState.of("minecraft:dirt"));
+        assertHashesMatchSerialize(chunk);
+        chunk.endBatch();
+        assertHashesMatchSerialize(chunk);
+    }
+
+    @Test
+    void hashingDoesNotChangeTheChunk() throws IOException {
+        Chunk chunk = load(sample());
+        chunk.setBlockStateAt(5, 0, 0, STONE);
+
+        long contentHash = chunk.getContentHash();
+        assertEquals(contentHash, chunk.getContentHash());
+        assertTrue(chunk.hasChanged());
+        assertTrue(chunk.hasChanged());
+    }
+
+    @Test
+    void hashesChunksWithoutSections() throws IOException {
+        TagCompound root = new TagCompound("");
+        root.add(new TagInt("DataVersion", 2566));
+
+        TagCompound level = new TagCompound("Level");
+        level.add(new TagInt("xPos", 0));
+        root.add(level);
+
+        // serializing it does not add an empty section list
+        Chunk chunk = load(root);
+        assertFalse(chunk.hasChanged());
+        assertHashesMatchSerialize(chunk);
+        assertEquals(root, chunk.serialize());
+
+        chunk.setBlockStateAt(0, 0, 0, STONE);
+        assertTrue(chunk.hasChanged());
+        assertHashesMatchSerialize(chunk);
+    }
+}
@@ -0,0 +1,53 @@
+package fr.rader.regions.mca;
+
+import fr.rader.regions.Test;
+import fr.rader.regions.nbt.tags.TagCompound;
+
+import java.io.IOException;
+
+import static fr.rader.regions.Assertions.*;
+import static fr.rader.regions.TestData.*;
+
+public class ChunkSnapshotTest {
+
+    private static final BlockState STONE = BlockState.of("minecraft:stone");
+
+    private static Chunk sample() throws IOException {
+        return load(chunk(2566, section(0, new long[256], "minecraft:air", "minecraft:dirt")));
+    }
+
+    @Test
+    void snapshotsHoldTheBlocksOfTheirTime() throws IOException {
+        Chunk chunk = sample();
+        chunk.setBlockStateAt(1, 2, 3, STONE);
+
+        TagCompound snapshot = chunk.snapshot();
+        long contentHash = snapshot.contentHash();
+
+        chunk.setBlockStateAt(1, 2, 3, BlockState.of("minecraft:dirt"));
+        chunk.setBlockStateAt(0, 40, 0, STONE);
+
+        assertTrue(snapshot.isFrozen());
+        assertEquals(contentHash, snapshot.contentHash());
+        assertEquals(1, snapshot.getCompound("Level").getCompoundList("Sections").size());
+        assertEquals(2, chunk.serialize().getCompound("Level").getCompoundList("Sections").size());
+
+        Chunk reloaded = load(snapshot);
+        assertEquals(STONE, reloaded.getBlockStateAt(1, 2, 3));
+        assertNull(reloaded.getSection(2));
+    }
+
+    @Test
+    void chunksStayEditableAfterASnapshot() throws IOException {
+        Chunk chunk = sample();
+        TagCompound first = chunk.snapshot();
+
+        chunk.setBlockStateAt(4, 4, 4, STONE);
+        TagCompound second = chunk.snapshot();
+
+        assertFalse(first.equals(second));
+        assertEquals(STONE, load(second).getBlockStateAt(4, 4, 4));
+        assertEquals(BlockState.of("minecraft:air"), load(first).getBlockStateAt(4, 4, 4));
+        assertEquals(chunk.getContentHash(), second.contentHash());
+    }
+}
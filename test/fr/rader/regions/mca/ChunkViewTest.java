@@ -0,0 +1,107 @@
+package fr.rader.regions.mca;
+
+import fr.rader.regions.Test;
+import fr.rader.regions.nbt.NBTLimits;
+import fr.rader.regions.nbt.NBTView;
+import fr.rader.regions.nbt.tags.TagCompound;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static fr.rader.regions.Assertions.*;
+import static fr.rader.regions.TestData.*;
+
+public class ChunkViewTest {
+
+    private static final BlockState STONE = BlockState.of("minecraft:stone");
+
+    private static Chunk view(TagCompound root) throws ChunkReadException {
+        Chunk chunk = new Chunk(0);
+        chunk.deserialize(NBTView.wrap(encode(root)));
+
+        return chunk;
+    }
+
+    private static TagCompound stoneSection(int y) {
+        long[] blockStates = new long[256];
+        blockStates[0] = 1;
+
+        return section(y, blockStates, "minecraft:air", "minecraft:stone");
+    }
+
+    @Test
+    void readsTheSameBlocksAsTheFullChunk() throws IOException {
+        TagCompound root = chunk(2566, stoneSection(0), stoneSection(2));
+
+        Chunk full = load(root);
+        Chunk viewed = view(root);
+
+        for(int y = 0; y < 48; y += 5) {
+            for(int x = 0; x < 16; x += 3) {
+                assertEquals(full.getBlockStateAt(x, y, 0), viewed.getBlockStateAt(x, y, 0));
+            }
+        }
+
+        assertEquals(STONE, viewed.getBlockStateAt(0, 32, 0));
+        assertNull(viewed.getSection(1));
+    }
+
+    @Test
+    void skipsSectionsWithoutY() throws IOException {
+        TagCompound noY = stoneSection(0);
+        noY.remove(noY.get("Y"));
+
+        assertNull(view(chunk(2566, noY)).getSection(0));
+    }
+
+    @Test
+    void rejectsPaletteEntriesWithoutName() throws IOException {
+        TagCompound noName = stoneSection(0);
+        TagCompound entry = noName.getCompoundList("Palette").get(1);
+        entry.remove(entry.get("Name"));
+
+        assertThrows(ChunkReadException.class, () -> view(chunk(2566, noName)));
+    }
+
+    @Test
+    void rejectsCorruptData() throws IOException {
+        TagCompound section = stoneSection(0);
+        section.remove(section.get("SkyLight"));
+        byte[] data = encode(chunk(2566, section));
+
+        // the view only reads what it is asked for: the header is checked by NBTView.wrap,
+        // and the end tags of the level and of the root are never read
+        for(int length = 3; length < data.length - 2; length++) {
+            NBTView root = NBTView.wrap(Arrays.copyOf(data, length));
+
+            assertThrows(ChunkReadException.class, () -> new Chunk(0).deserialize(root));
+        }
+
+        assertThrows(ChunkReadException.class, () -> new Chunk(0).deserialize((NBTView) null));
+    }
+
+    @Test
+    void readingAgainDropsTheOldSections() throws IOException {
+        Chunk chunk = view(chunk(2566, stoneSection(3)));
+        assertNotNull(chunk.getSection(3));
+
+        chunk.deserialize(NBTView.wrap(encode(chunk(2566, stoneSection(5)))));
+        assertNull(chunk.getSection(3));
+        assertNotNull(chunk.getSection(5));
+    }
+
+    @Test
+    void capsTheDecompressedSize() throws IOException {
+        byte[] data = encode(chunk(2566, stoneSection(0)));
+
+        try(RandomAccessFile raf = chunkFile(data)) {
+            assertThrows(ChunkReadException.class, () -> DataCompression.decompressToBuffer(raf, new NBTLimits(100, 512, 1000)));
+
+            raf.seek(0);
+            ByteBuffer buffer = DataCompression.decompressToBuffer(raf);
+            assertEquals(data.length, buffer.remaining());
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package fr.rader.regions.mca;
+
+import fr.rader.regions.Test;
+import fr.rader.regions.nbt.NBTLimitException;
+import fr.rader.regions.nbt.NBTLimits;
+import fr.rader.regions.nbt.NBTView;
+import fr.rader.regions.nbt.tags.TagCompound;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static fr.rader.regions.Assertions.*;
+import static fr.rader.regions.TestData.*;
+
+public class RegionFileTest {
+
+    private static final BlockState STONE = BlockState.of("minecraft:stone");
+    private static final BlockState DIRT = BlockState.of("minecraft:dirt");
+    private static final BlockState GLASS = BlockState.of("minecraft:glass");
+
+    private static byte[] hugeArray() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TagCompound.TAG_ID);
+        out.writeUTF("");
+        out.writeByte(12);
+        out.writeUTF("x");
+        out.writeInt(0x7fffffff);
+        out.writeByte(0);
+
+        return bytes.toByteArray();
+    }
+
+    private static RegionFile read(File file) throws IOException {
+        RegionFile region = new RegionFile(0, 0);
+        try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            region.deserialize(raf);
+        }
+
+        return region;
+    }
+
+    @Test
+    void corruptChunksAreReportedAndSkipped() throws IOException {
+        TagCompound noName = section(0, new long[256], "minecraft:air", "minecraft:stone");
+        TagCompound entry = noName.getCompoundList("Palette").get(1);
+        entry.remove(entry.get("Name"));
+
+        byte[] good = encode(chunk(2566, section(0, new long[256], "minecraft:air", "minecraft:stone")));
+        RegionFile region = read(region(hugeArray(), good, encode(chunk(2566, noName))));
+
+        assertNull(region.getChunk(0));
+        assertNotNull(region.getChunk(1));
+        assertNull(region.getChunk(2));
+
+        assertEquals(2, region.getErrors().size());
+        assertEquals(0, region.getErrors().get(0).getChunkIndex());
+        assertTrue(region.getErrors().get(0).getCause() instanceof NBTLimitException);
+        assertEquals(2, region.getErrors().get(1).getChunkIndex());
+    }
+
+    @Test
+    void limitsCanBeChanged() throws IOException {
+        File file = region(encode(chunk(2566, section(0, new long[256], "minecraft:air", "minecraft:stone"))));
+
+        RegionFile region = new RegionFile(0, 0);
+        region.setLimits(new NBTLimits(100, 512, 1000));
+        try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            region.deserialize(raf);
+        }
+
+        assertNull(region.getChunk(0));
+        assertEquals(1, region.getErrors().size());
+
+        assertThrows(IllegalArgumentException.class, () -> region.setLimits(null));
+    }
+
+    @Test
+    void rejectsCorruptChunkHeaders() throws IOException {
+        File file = File.createTempFile("chunk", ".bin");
+        file.deleteOnExit();
+
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // unknown compression type
+            raf.writeInt(5);
+            raf.writeByte(7);
+            raf.writeInt(0);
+            raf.seek(0);
+            assertThrows(ChunkReadException.class, () -> new Chunk(0).deserialize(raf));
+
+            // length going past the end of the file
+            raf.seek(0);
+            raf.writeInt(1 << 20);
+            raf.seek(0);
+            assertThrows(ChunkReadException.class, () -> new Chunk(0).deserialize(raf));
+        }
+
+        // deflated data that isn't NBT
+        assertThrows(ChunkReadException.class, () -> load(new byte[]{42, 0, 0, 0}));
+    }
+
+    /**
+     * Blocks of the 48 x 80 x 48 corner of a region, edited block by block to check the box edits against
+     */
+    private static class Reference {
+
+        private final BlockState[][][] blocks = new BlockState[48][80][48];
+
+        void fill(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, BlockState state) {
+            for(int x = minX; x <= maxX; x++) {
+                for(int y = minY; y <= maxY; y++) {
+                    for(int z = minZ; z <= maxZ; z++) {
+                        blocks[x][y][z] = state;
+                    }
+                }
+            }
+        }
+
+        BlockState get(int x, int y, int z) {
+            return (blocks[x][y][z] != null) ? blocks[x][y][z] : BlockStateRegistry.AIR;
+        }
+
+        void assertMatches(RegionFile region) {
+            for(int x = 0; x < 48; x++) {
+                for(int y = 0; y < 80; y++) {
+                    for(int z = 0; z < 48; z++) {
+                        BlockState block = region.getBlockStateAt(x, y, z);
+                        assertEquals(get(x, y, z), (block != null) ? block : BlockStateRegistry.AIR);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void boxEditsMatchBlockByBlockEdits() {
+        RegionFile region = new RegionFile(0, 0);
+        Reference reference = new Reference();
+
+        region.fill(3, 10, 5, 40, 70, 33, STONE);
+        reference.fill(3, 10, 5, 40, 70, 33, STONE);
+        region.fill(10, 20, 10, 20, 25, 12, DIRT);
+        reference.fill(10, 20, 10, 20, 25, 12, DIRT);
+        reference.assertMatches(region);
+
+        region.replace(0, 0, 0, 47, 79, 30, state -> state.getName().equals("minecraft:dirt"), GLASS);
+        reference.fill(10, 20, 10, 20, 25, 12, GLASS);
+        reference.assertMatches(region);
+
+        // both boxes overlap, the source is read before anything is written
+        region.copy(5, 15, 5, 25, 30, 15, 15, 18, 8);
+
+        BlockState[][][] source = new BlockState[21][16][11];
+        for(int x = 0; x <= 20; x++) {
+            for(int y = 0; y <= 15; y++) {
+                for(int z = 0; z <= 10; z++) {
+                    source[x][y][z] = reference.get(5 + x, 15 + y, 5 + z);
+                }
+            }
+        }
+
+        for(int x = 0; x <= 20; x++) {
+            for(int y = 0; y <= 15; y++) {
+                for(int z = 0; z <= 10; z++) {
+                    reference.fill(15 + x, 18 + y, 8 + z, 15 + x, 18 + y, 8 + z, source[x][y][z]);
+                }
+            }
+        }
+
+        reference.assertMatches(region);
+    }
+
+    @Test
+    void copyingAirDoesNotCreateSections() {
+        RegionFile region = new RegionFile(0, 0);
+        region.fill(0, 0, 0, 3, 3, 3, STONE);
+
+        region.copy(0, 0, 0, 7, 40, 7, 0, 100, 0);
+        Chunk chunk = region.getChunk(0, 0);
+        assertNotNull(chunk.getSection(6));
+        assertNull(chunk.getSection(7));
+        assertNull(chunk.getSection(8));
+        assertEquals(STONE, chunk.getBlockStateAt(1, 101, 1));
+        assertEquals(BlockStateRegistry.AIR, chunk.getBlockStateAt(5, 101, 5));
+
+        // air copied over existing blocks still replaces them
+        region.copy(20, 0, 20, 23, 3, 23, 0, 0, 0);
+        assertEquals(BlockStateRegistry.AIR, chunk.getBlockStateAt(1, 1, 1));
+    }
+
+    @Test
+    void replaceOnlyTouchesMatchingSections() throws IOException {
+        Chunk chunk = load(chunk(2586, section(0, null, "minecraft:stone")));
+
+        chunk.replace(0, 0, 0, 15, 255, 15, state -> state.equals(DIRT), GLASS);
+        assertFalse(chunk.getSection(0).isModified());
+        assertNull(chunk.getSection(1));
+        assertFalse(chunk.hasChanged());
+
+        chunk.replace(0, 0, 0, 15, 3, 15, state -> state.equals(STONE), GLASS);
+        assertEquals(GLASS, chunk.getBlockStateAt(7, 3, 7));
+        assertEquals(STONE, chunk.getBlockStateAt(7, 4, 7));
+    }
+
+    @Test
+    void rejectsBoxesOutsideTheWorld() {
+        RegionFile region = new RegionFile(0, 0);
+        Chunk chunk = new Chunk(0);
+
+        assertThrows(IllegalArgumentException.class, () -> chunk.setBlockStateAt(0, -1, 0, STONE));
+        assertThrows(IllegalArgumentException.class, () -> chunk.setBlockStateAt(0, 256, 0, STONE));
+        assertThrows(IllegalArgumentException.class, () -> chunk.fill(0, 250, 0, 15, 256, 15, STONE));
+        assertThrows(IllegalArgumentException.class, () -> chunk.replace(0, 5, 0, 15, 4, 15, state -> true, STONE));
+
+        assertThrows(IllegalArgumentException.class, () -> region.copy(0, 0, 0, 3, 3, 3, 0, 254, 0));
+        assertThrows(IllegalArgumentException.class, () -> region.fill(0, 0, 0, 600, 3, 3, STONE));
+        assertThrows(IllegalArgumentException.class, () -> region.fill(5, 0, 0, 4, 3, 3, STONE));
+        assertNull(chunk.getBlockStateAt(0, 256, 0));
+    }
+
+    @Test
+    void chunksLoadedFromAViewAreReadOnly() throws IOException {
+        Chunk chunk = new Chunk(0);
+        chunk.deserialize(NBTView.wrap(encode(chunk(2586, section(0, null, "minecraft:stone")))));
+
+        assertEquals(STONE, chunk.getBlockStateAt(0, 0, 0));
+        assertThrows(IllegalStateException.class, () -> chunk.setBlockStateAt(0, 0, 0, DIRT));
+        assertThrows(IllegalStateException.class, () -> chunk.fill(0, 0, 0, 1, 1, 1, DIRT));
+        assertThrows(IllegalStateException.class, chunk::serialize);
+    }
+}
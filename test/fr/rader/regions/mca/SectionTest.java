@@ -0,0 +1,582 @@
+package fr.rader.regions.mca;
+
+import fr.rader.regions.Test;
+import fr.rader.regions.nbt.NBTFormatException;
+import fr.rader.regions.nbt.tags.TagCompound;
+import fr.rader.regions.utils.PackedIntArray;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import static fr.rader.regions.Assertions.*;
+import static fr.rader.regions.TestData.*;
+
+public class SectionTest {
+
+    /**
+     * @return names of <code>size</code> states, air being the first one
+     */
+    private static String[] palette(int size) {
+        String[] names = new String[size];
+        names[0] = "minecraft:air";
+
+        for(int i = 1; i < size; i++) {
+            names[i] = "minecraft:block_" + i;
+        }
+
+        return names;
+    }
+
+    /**
+     * @return random palette indices for every block of a section
+     */
+    private static int[] randomIndices(int paletteSize, long seed) {
+        Random random = new Random(seed);
+
+        int[] indices = new int[4096];
+        for(int i = 0; i < indices.length; i++) {
+            indices[i] = random.nextInt(paletteSize);
+        }
+
+        return indices;
+    }
+
+    private static void assertBlocks(Section section, String[] palette, int[] indices) {
+        for(int i = 0; i < indices.length; i++) {
+            assertEquals(BlockState.of(palette[indices[i]]), section.getBlockStateAt(i & 15, i >> 8, (i >> 4) & 15));
+        }
+    }
+
+    @Test
+    void readsAndWritesTheBlockStatesInPlace() {
+        String[] palette = palette(20);
+        int[] indices = randomIndices(20, 1);
+
+        PackedIntArray blockStates = new PackedIntArray(5, 4096);
+        blockStates.pack(indices);
+
+        Section section = new Section(section(0, blockStates.getData().clone(), palette));
+        assertBlocks(section, palette, indices);
+
+        section.setBlockStateAt(1, 2, 3, BlockState.of(palette[7]));
+        indices[2 << 8 | 3 << 4 | 1] = 7;
+        blockStates.pack(indices);
+
+        assertArrayEquals(blockStates.getData(), section.serialize().getLongArray("BlockStates"));
+    }
+
+    @Test
+    void rejectsBlockStatesNotMatchingThePalette() throws IOException {
+        // 2 states take 4 bits per block, 256 longs
+        TagCompound tooShort = section(0, new long[255], "minecraft:air", "minecraft:stone");
+        TagCompound tooLong = section(0, new long[342], "minecraft:air", "minecraft:stone");
+
+        assertThrows(NBTFormatException.class, () -> new Section(tooShort));
+        assertThrows(NBTFormatException.class, () -> new Section(tooLong));
+        assertThrows(ChunkReadException.class, () -> load(chunk(2566, tooShort)));
+    }
+
+    @Test
+    void picksTheLayoutFromTheDataVersion() throws IOException {
+        String[] palette = palette(20);
+        int[] indices = randomIndices(20, 2);
+
+        PackedIntArray padded = new PackedIntArray(5, 4096);
+        padded.pack(indices);
+        long[] spanning = padded.toSpanning();
+        assertEquals(320, spanning.length);
+        assertEquals(342, padded.getData().length);
+
+        int[] versions = {1976, Section.PADDED_BLOCK_STATES_VERSION - 1, Section.PADDED_BLOCK_STATES_VERSION, 2586};
+        for(int version : versions) {
+            long[] blockStates = (version < Section.PADDED_BLOCK_STATES_VERSION) ? spanning : padded.getData();
+
+            Chunk chunk = load(chunk(version, section(0, blockStates.clone(), palette)));
+            assertBlocks(chunk.getSection(0), palette, indices);
+
+            // written back with the layout it was read with
+            chunk.setBlockStateAt(1, 0, 0, BlockState.of(palette[19]));
+
+            int[] edited = indices.clone();
+            edited[1] = 19;
+
+            PackedIntArray written = new PackedIntArray(5, 4096);
+            written.pack(edited);
+
+            long[] serialized = chunk.serialize().getCompound("Level").getCompoundList("Sections").get(0).getLongArray("BlockStates");
+            assertArrayEquals((version < Section.PADDED_BLOCK_STATES_VERSION) ? written.toSpanning() : written.getData(), serialized);
+        }
+    }
+
+    @Test
+    void newSectionsUseTheLayoutOfTheirChunk() throws IOException {
+        int[] versions = {1976, 2586};
+        for(int version : versions) {
+            Chunk chunk = load(chunk(version));
+
+            // 20 states take 5 bits per block
+            for(int i = 0; i < 20; i++) {
+                chunk.setBlockStateAt(i, 20, i / 16, BlockState.of("minecraft:block_" + i));
+            }
+
+            TagCompound section = chunk.serialize().getCompound("Level").getCompoundList("Sections").get(0);
+            assertEquals((version < Section.PADDED_BLOCK_STATES_VERSION) ? 320 : 342, section.getLongArray("BlockStates").length);
+
+            Chunk reloaded = load(chunk.serialize());
+            for(int i = 0; i < 20; i++) {
+                assertEquals(BlockState.of("minecraft:block_" + i), reloaded.getBlockStateAt(i, 20, i / 16));
+            }
+        }
+    }
+
+    /**
+     * Set the blocks of a section to states taken from <code>palette</code>, adding the states in the order of the palette
+     */
+    private static void setBlocks(Section section, String[] palette, int[] indices) {
+        for(int i = 0; i < indices.length; i++) {
+            section.setBlockStateAt(i & 15, i >> 8, (i >> 4) & 15, BlockState.of(palette[indices[i]]));
+        }
+    }
+
+    @Test
+    void repacksTheBlocksWhenThePaletteGrows() {
+        String[] palette = palette(300);
+        Section section = Section.createSection();
+
+        // every new state is set on a block of its own, the previous blocks must survive the repacks
+        int[] indices = new int[4096];
+        for(int size = 2; size <= 256; size++) {
+            indices[size * 13] = size - 1;
+            section.setBlockStateAt((size * 13) & 15, size * 13 >> 8, (size * 13 >> 4) & 15, BlockState.of(palette[size - 1]));
+
+            if(size == 16 || size == 17 || size == 33 || size == 129 || size == 256) {
+                assertBlocks(section, palette, indices);
+
+                TagCompound serialized = section.serialize();
+                int bits = Math.max(32 - Integer.numberOfLeadingZeros(size - 1), 4);
+                assertEquals(size, serialized.getCompoundList("Palette").size());
+                assertEquals(PackedIntArray.getDataLength(bits, 4096), serialized.getLongArray("BlockStates").length);
+            }
+        }
+    }
+
+    @Test
+    void batchesRepackOnceAtTheEnd() {
+        String[] palette = palette(200);
+        int[] indices = randomIndices(200, 3);
+
+        Section section = Section.createSection();
+        section.beginBatch();
+        section.beginBatch();
+        setBlocks(section, palette, indices);
+
+        // blocks can be read during the batch
+        assertBlocks(section, palette, indices);
+        section.endBatch();
+        assertBlocks(section, palette, indices);
+        section.endBatch();
+
+        assertBlocks(section, palette, indices);
+        assertEquals(PackedIntArray.getDataLength(8, 4096), section.serialize().getLongArray("BlockStates").length);
+        assertBlocks(new Section(section.serialize()), palette, indices);
+
+        assertThrows(IllegalStateException.class, section::endBatch);
+    }
+
+    @Test
+    void chunkBatchesCoverNewSections() throws IOException {
+        String[] palette = palette(40);
+        Chunk chunk = load(chunk(2586, section(0, null, "minecraft:air")));
+
+        chunk.beginBatch();
+        for(int i = 0; i < 40; i++) {
+            chunk.setBlockStateAt(i & 15, 16 * (i % 3), i >> 4, BlockState.of(palette[i]));
+        }
+
+        chunk.endBatch();
+
+        Chunk reloaded = load(chunk.serialize());
+        for(int i = 0; i < 40; i++) {
+            assertEquals(BlockState.of(palette[i]), reloaded.getBlockStateAt(i & 15, 16 * (i % 3), i >> 4));
+        }
+    }
+
+    private static int paletteSize(Section section) {
+        return section.serialize().getCompoundList("Palette").size();
+    }
+
+    @Test
+    void cleanUpDropsUnusedStatesAndShrinksTheBlocks() {
+        String[] palette = palette(20);
+        int[] indices = new int[4096];
+        for(int i = 0; i < indices.length; i++) {
+            indices[i] = (i % 3 == 0) ? 17 : (i % 3 == 1) ? 4 : 0;
+        }
+
+        PackedIntArray blockStates = new PackedIntArray(5, 4096);
+        blockStates.pack(indices);
+
+        Section section = new Section(section(0, blockStates.getData(), palette));
+        section.cleanUpBlocksAndPalettes();
+
+        assertBlocks(section, palette, indices);
+        assertTrue(section.isModified());
+
+        // air, block_4 and block_17, in the order of the old palette
+        TagCompound serialized = section.serialize();
+        assertEquals(3, serialized.getCompoundList("Palette").size());
+        assertEquals("minecraft:block_4", serialized.getCompoundList("Palette").get(1).getString("Name", null));
+        assertEquals("minecraft:block_17", serialized.getCompoundList("Palette").get(2).getString("Name", null));
+        assertEquals(256, serialized.getLongArray("BlockStates").length);
+    }
+
+    @Test
+    void cleanUpMergesDuplicatedStates() {
+        int[] indices = new int[4096];
+        for(int i = 0; i < indices.length; i++) {
+            indices[i] = i % 3;
+        }
+
+        PackedIntArray blockStates = new PackedIntArray(4, 4096);
+        blockStates.pack(indices);
+
+        Section section = new Section(section(0, blockStates.getData(), "minecraft:air", "minecraft:stone", "minecraft:stone"));
+        section.cleanUpBlocksAndPalettes();
+
+        assertEquals(2, paletteSize(section));
+        for(int i = 0; i < indices.length; i++) {
+            assertEquals(BlockState.of((indices[i] == 0) ? "minecraft:air" : "minecraft:stone"), section.getBlockStateAt(i & 15, i >> 8, (i >> 4) & 15));
+        }
+    }
+
+    @Test
+    void cleanUpMakesSingleStateSectionsUniform() {
+        Section section = Section.createSection();
+        section.setBlockStateAt(0, 0, 0, BlockState.of("minecraft:stone"));
+        section.setBlockStateAt(0, 0, 0, BlockState.of("minecraft:air"));
+        assertFalse(section.isUniform());
+
+        section.cleanUpBlocksAndPalettes();
+        assertTrue(section.isUniform());
+        assertEquals(1, paletteSize(section));
+        assertEquals(BlockState.of("minecraft:air"), section.getBlockStateAt(0, 0, 0));
+    }
+
+    @Test
+    void cleanUpLeavesCompactSectionsAlone() {
+        String[] palette = palette(3);
+        int[] indices = randomIndices(3, 4);
+
+        PackedIntArray blockStates = new PackedIntArray(4, 4096);
+        blockStates.pack(indices);
+
+        Section section = new Section(section(0, blockStates.getData(), palette));
+        section.cleanUpBlocksAndPalettes();
+
+        assertFalse(section.isModified());
+        assertBlocks(section, palette, indices);
+    }
+
+    @Test
+    void chunksAndRegionsCleanUpEverySection() throws IOException {
+        long[] blockStates = new long[256];
+        TagCompound root = chunk(2586, section(0, blockStates, "minecraft:air", "minecraft:stone"), section(1, blockStates.clone(), "minecraft:air", "minecraft:dirt"));
+
+        Chunk chunk = load(root);
+        chunk.cleanUpBlocksAndPalettes();
+        assertEquals(1, paletteSize(chunk.getSection(0)));
+        assertEquals(1, paletteSize(chunk.getSection(1)));
+        assertTrue(chunk.hasChanged());
+
+        RegionFile region = new RegionFile(0, 0);
+        region.setChunk(0, load(root));
+        region.cleanUpBlocksAndPalettes();
+        assertEquals(1, paletteSize(region.getChunk(0).getSection(1)));
+    }
+
+    @Test
+    void sectionsOfASingleStateHaveNoBlockStates() {
+        Section zeroed = new Section(section(0, new long[256], "minecraft:stone", "minecraft:dirt"));
+        Section withoutBlockStates = new Section(section(0, null, "minecraft:stone"));
+
+        for(Section section : new Section[]{zeroed, withoutBlockStates}) {
+            assertTrue(section.isUniform());
+            assertEquals(BlockState.of("minecraft:stone"), section.getBlockStateAt(15, 15, 15));
+
+            short[] blocks = new short[4096];
+            section.unpackTo(blocks);
+            for(short block : blocks) {
+                assertEquals(BlockState.of("minecraft:stone").getID(), block);
+            }
+        }
+
+        // the zeroed block states are written back as they were
+        assertArrayEquals(new long[256], zeroed.serialize().getLongArray("BlockStates"));
+    }
+
+    @Test
+    void settingTheUniformStateChangesNothing() {
+        Section section = new Section(section(0, null, "minecraft:stone"));
+
+        section.setBlockStateAt(1, 2, 3, BlockState.of("minecraft:stone"));
+        section.fill(0, 0, 0, 7, 7, 7, BlockState.of("minecraft:stone"));
+        assertTrue(section.isUniform());
+        assertFalse(section.isModified());
+
+        section.setBlockStateAt(1, 2, 3, BlockState.of("minecraft:dirt"));
+        assertFalse(section.isUniform());
+        assertTrue(section.isModified());
+        assertEquals(BlockState.of("minecraft:dirt"), section.getBlockStateAt(1, 2, 3));
+        assertEquals(BlockState.of("minecraft:stone"), section.getBlockStateAt(3, 2, 1));
+    }
+
+    @Test
+    void fillingTheWholeSectionMakesItUniform() {
+        String[] palette = palette(40);
+        Section section = Section.createSection();
+        setBlocks(section, palette, randomIndices(40, 5));
+
+        section.fill(0, 0, 0, 15, 15, 15, BlockState.of("minecraft:stone"));
+        assertTrue(section.isUniform());
+
+        TagCompound serialized = section.serialize();
+        assertEquals(1, serialized.getCompoundList("Palette").size());
+        assertArrayEquals(new long[256], serialized.getLongArray("BlockStates"));
+        assertEquals(BlockState.of("minecraft:stone"), new Section(serialized).getBlockStateAt(9, 9, 9));
+    }
+
+    @Test
+    void largePalettesSwitchToRegistryIDs() {
+        String[] palette = palette(300);
+        int[] indices = new int[4096];
+        for(int i = 0; i < indices.length; i++) {
+            indices[i] = i % 300;
+        }
+
+        Section section = Section.createSection();
+        for(int i = 0; i < indices.length; i++) {
+            section.setBlockStateAt(i & 15, i >> 8, (i >> 4) & 15, BlockState.of(palette[indices[i]]));
+
+            if(i == Section.MAX_PALETTE_SIZE - 2) {
+                assertFalse(section.isDirect());
+            }
+        }
+
+        assertTrue(section.isDirect());
+        assertBlocks(section, palette, indices);
+
+        // chunks store palette indices, 300 states take 9 bits
+        TagCompound serialized = section.serialize();
+        assertEquals(300, serialized.getCompoundList("Palette").size());
+        assertEquals(PackedIntArray.getDataLength(9, 4096), serialized.getLongArray("BlockStates").length);
+        assertBlocks(new Section(serialized), palette, indices);
+    }
+
+    @Test
+    void directSectionsKeepTheLayoutOfTheirChunk() throws IOException {
+        String[] palette = palette(300);
+        Chunk chunk = load(chunk(1976));
+
+        for(int i = 0; i < 4096; i++) {
+            chunk.setBlockStateAt(i & 15, i >> 8, (i >> 4) & 15, BlockState.of(palette[i % 300]));
+        }
+
+        assertTrue(chunk.getSection(0).isDirect());
+
+        TagCompound serialized = chunk.serialize();
+        assertEquals(PackedIntArray.getSpanningDataLength(9, 4096), serialized.getCompound("Level").getCompoundList("Sections").get(0).getLongArray("BlockStates").length);
+
+        Chunk reloaded = load(serialized);
+        for(int i = 0; i < 4096; i += 7) {
+            assertEquals(BlockState.of(palette[i % 300]), reloaded.getBlockStateAt(i & 15, i >> 8, (i >> 4) & 15));
+        }
+    }
+
+    @Test
+    void cleanUpGoesBackToAPalette() {
+        String[] palette = palette(300);
+        Section section = Section.createSection();
+        for(int i = 0; i < 4096; i++) {
+            section.setBlockStateAt(i & 15, i >> 8, (i >> 4) & 15, BlockState.of(palette[i % 300]));
+        }
+
+        // still too many states
+        section.cleanUpBlocksAndPalettes();
+        assertTrue(section.isDirect());
+
+        // 240 states and stone are left
+        section.fill(0, 0, 0, 15, 14, 15, BlockState.of("minecraft:stone"));
+        section.fill(0, 15, 0, 15, 15, 0, BlockState.of("minecraft:stone"));
+        section.cleanUpBlocksAndPalettes();
+        assertFalse(section.isDirect());
+
+        for(int i = 15 * 256 + 16; i < 4096; i++) {
+            assertEquals(BlockState.of(palette[i % 300]), section.getBlockStateAt(i & 15, i >> 8, (i >> 4) & 15));
+        }
+
+        assertEquals(BlockState.of("minecraft:stone"), section.getBlockStateAt(4, 4, 4));
+        assertEquals(PackedIntArray.getDataLength(8, 4096), section.serialize().getLongArray("BlockStates").length);
+    }
+
+    /**
+     * Check that the bulk reads of a section decode the same blocks as {@link Section#getBlockStateAt(int, int, int)}
+     */
+    private static void assertBulkReadsMatch(Section section) {
+        short[] ids = new short[4096];
+        section.unpackTo(ids);
+
+        for(int i = 0; i < ids.length; i++) {
+            assertEquals(section.getBlockStateAt(i & 15, i >> 8, (i >> 4) & 15), BlockStateRegistry.get(ids[i] & 0xffff));
+        }
+
+        int[] visited = new int[1];
+        section.forEachBlock((x, y, z, state) -> {
+            assertSame(section.getBlockStateAt(x, y, z), state);
+            visited[0]++;
+        });
+
+        assertEquals(4096, visited[0]);
+    }
+
+    @Test
+    void bulkReadsMatchSingleReads() throws IOException {
+        String[] palette = palette(20);
+        int[] indices = randomIndices(20, 6);
+
+        PackedIntArray blockStates = new PackedIntArray(5, 4096);
+        blockStates.pack(indices);
+
+        assertBulkReadsMatch(new Section(section(0, blockStates.getData().clone(), palette)));
+        assertBulkReadsMatch(load(chunk(1976, section(0, blockStates.toSpanning(), palette))).getSection(0));
+        assertBulkReadsMatch(new Section(section(0, null, "minecraft:stone")));
+
+        Section batched = Section.createSection();
+        batched.beginBatch();
+        setBlocks(batched, palette, indices);
+        assertBulkReadsMatch(batched);
+        batched.endBatch();
+
+        Section direct = Section.createSection();
+        setBlocks(direct, palette(300), randomIndices(300, 7));
+        assertTrue(direct.isDirect());
+        assertBulkReadsMatch(direct);
+
+        assertThrows(IllegalArgumentException.class, () -> direct.unpackTo(new short[4095]));
+    }
+
+    @Test
+    void bulkReadsGiveChunkAndRegionCoordinates() throws IOException {
+        RegionFile region = new RegionFile(0, 0);
+        region.setBlockStateAt(37, 70, 500, BlockState.of("minecraft:stone"));
+        region.setBlockStateAt(0, 255, 0, BlockState.of("minecraft:dirt"));
+
+        int[] count = new int[1];
+        region.forEachBlock((x, y, z, state) -> {
+            assertEquals(region.getBlockStateAt(x, y, z), state);
+            count[0]++;
+        });
+
+        // one section in each of the two chunks
+        assertEquals(2 * 4096, count[0]);
+
+        Chunk chunk = region.getChunk(2, 31);
+        chunk.forEachBlock((x, y, z, state) -> assertEquals(chunk.getBlockStateAt(x, y, z), state));
+        assertEquals(BlockState.of("minecraft:stone"), chunk.getBlockStateAt(5, 70, 4));
+
+        // missing chunks and sections, and heights outside the world
+        assertNull(region.getBlockStateAt(100, 70, 100));
+        assertNull(region.getBlockStateAt(37, 10, 500));
+        assertNull(region.getBlockStateAt(37, -1, 500));
+        assertNull(region.getBlockStateAt(37, 256, 500));
+    }
+
+    /**
+     * Check that {@link Section#findBlocks(Predicate, BlockVisitor)} finds the blocks
+     * a filtered {@link Section#forEachBlock(BlockVisitor)} visits, testing each state once
+     */
+    private static void assertFindsMatchingBlocks(Section section, String name, int states) {
+        List<Integer> expected = new ArrayList<>();
+        section.forEachBlock((x, y, z, state) -> {
+            if(state.getName().equals(name)) {
+                expected.add(y << 8 | z << 4 | x);
+            }
+        });
+
+        List<Integer> found = new ArrayList<>();
+        int[] tests = new int[1];
+        section.findBlocks(state -> {
+            tests[0]++;
+            return state.getName().equals(name);
+        }, (x, y, z, state) -> {
+            assertEquals(name, state.getName());
+            found.add(y << 8 | z << 4 | x);
+        });
+
+        assertEquals(expected, found);
+        assertEquals(states, tests[0]);
+    }
+
+    @Test
+    void findBlocksTestsEachStateOnce() {
+        String[] palette = palette(20);
+        Section packed = Section.createSection();
+        setBlocks(packed, palette, randomIndices(20, 8));
+        assertFindsMatchingBlocks(packed, palette[3], 20);
+        assertFindsMatchingBlocks(packed, "minecraft:stone", 20);
+
+        assertFindsMatchingBlocks(new Section(section(0, null, "minecraft:stone")), "minecraft:stone", 1);
+
+        String[] large = palette(300);
+        Section direct = Section.createSection();
+        setBlocks(direct, large, randomIndices(300, 9));
+        assertTrue(direct.isDirect());
+        assertFindsMatchingBlocks(direct, large[42], 300);
+    }
+
+    @Test
+    void sectionsWithoutMatchingStatesAreNotDecoded() {
+        // palette index 5 doesn't exist, decoding the blocks would fail
+        long[] blockStates = new long[256];
+        blockStates[0] = 5;
+        Section section = new Section(section(0, blockStates, "minecraft:air", "minecraft:stone"));
+
+        assertFalse(section.mayContain(state -> state.getName().equals("minecraft:dirt")));
+        section.findBlocks(state -> state.getName().equals("minecraft:dirt"), (x, y, z, state) -> fail("no block should match"));
+
+        assertTrue(section.mayContain(state -> state.getName().equals("minecraft:stone")));
+        assertThrows(ArrayIndexOutOfBoundsException.class, () -> section.findBlocks(state -> state.getName().equals("minecraft:stone"), (x, y, z, state) -> {}));
+    }
+
+    @Test
+    void mayContainChecksThePalettes() {
+        Predicate<BlockState> isDirt = state -> state.getName().equals("minecraft:dirt");
+
+        assertFalse(new Section(section(0, null, "minecraft:stone")).mayContain(isDirt));
+        assertTrue(new Section(section(0, null, "minecraft:dirt")).mayContain(isDirt));
+
+        // direct sections have no palette to check
+        Section direct = Section.createSection();
+        setBlocks(direct, palette(300), randomIndices(300, 10));
+        assertTrue(direct.mayContain(isDirt));
+
+        RegionFile region = new RegionFile(0, 0);
+        region.setBlockStateAt(100, 40, 200, BlockState.of("minecraft:stone"));
+        region.setBlockStateAt(300, 200, 7, BlockState.of("minecraft:dirt"));
+
+        assertFalse(region.getChunk(6, 12).mayContain(isDirt));
+        assertTrue(region.getChunk(18, 0).mayContain(isDirt));
+        assertFalse(new Chunk(0).mayContain(isDirt));
+
+        List<String> found = new ArrayList<>();
+        region.findBlocks(isDirt, (x, y, z, state) -> found.add(x + " " + y + " " + z));
+        assertEquals(Arrays.asList("300 200 7"), found);
+
+        found.clear();
+        region.getChunk(18, 0).findBlocks(isDirt, (x, y, z, state) -> found.add(x + " " + y + " " + z));
+        assertEquals(Arrays.asList("12 200 7"), found);
+    }
+}
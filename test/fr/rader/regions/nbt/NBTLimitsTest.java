@@ -0,0 +1,103 @@
+package fr.rader.regions.nbt;
+
+import fr.rader.regions.Test;
+import fr.rader.regions.nbt.tags.*;
+import fr.rader.regions.utils.DataReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static fr.rader.regions.Assertions.*;
+import static fr.rader.regions.TestData.*;
+
+public class NBTLimitsTest {
+
+    /**
+     * @return a compound holding a list "l" of <code>depth</code> nested lists
+     */
+    private static byte[] nestedLists(int depth) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(new byte[]{TagCompound.TAG_ID, 0, 0, TagList.TAG_ID, 0, 1, 'l'});
+
+        for(int i = 0; i < depth; i++) {
+            bytes.write(new byte[]{TagList.TAG_ID, 0, 0, 0, 1});
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static DataReader reader(byte[] data, NBTLimits limits) {
+        DataReader reader = new DataReader(data);
+        reader.setNBTContext(new NBTReadContext(limits));
+
+        return reader;
+    }
+
+    @Test
+    void readsDataWithinTheLimits() throws IOException {
+        TagCompound root = allTypes();
+
+        assertEquals(root, reader(encode(root), NBTLimits.CHUNK).readNBT());
+        assertEquals(root, reader(encode(root), NBTLimits.UNLIMITED).readNBT());
+    }
+
+    @Test
+    void rejectsHugeLengthsBeforeAllocating() {
+        byte[] data = {TagCompound.TAG_ID, 0, 0, TagLongArray.TAG_ID, 0, 1, 'x', 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0, 0, 0};
+
+        assertThrows(NBTLimitException.class, () -> new DataReader(data).readNBT());
+    }
+
+    @Test
+    void rejectsNegativeLengths() {
+        byte[] array = {TagCompound.TAG_ID, 0, 0, TagIntArray.TAG_ID, 0, 1, 'x', (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0};
+        byte[] list = {TagCompound.TAG_ID, 0, 0, TagList.TAG_ID, 0, 1, 'x', TagInt.TAG_ID, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0};
+
+        assertThrows(NBTFormatException.class, () -> new DataReader(array).readNBT());
+        assertThrows(NBTFormatException.class, () -> new DataReader(list).readNBT());
+    }
+
+    @Test
+    void rejectsDeeplyNestedData() throws IOException {
+        byte[] data = nestedLists(100000);
+
+        assertThrows(NBTLimitException.class, () -> new DataReader(data).readNBT());
+        assertThrows(NBTLimitException.class, () -> new DataReader(data).readNBT(new NBTProjection("l")));
+        assertThrows(NBTLimitException.class, () -> NBTView.wrap(data).get("missing"));
+
+        DataReader reader = new DataReader(data);
+        reader.readByte();
+        reader.readShort();
+        assertThrows(NBTLimitException.class, () -> reader.skipTagPayload(TagCompound.TAG_ID));
+    }
+
+    @Test
+    void checksEveryLimit() throws IOException {
+        byte[] data = encode(allTypes());
+
+        assertThrows(NBTLimitException.class, () -> reader(data, new NBTLimits(16, 512, 1000)).readNBT());
+        assertThrows(NBTLimitException.class, () -> reader(data, new NBTLimits(1 << 20, 1, 1000)).readNBT());
+        assertThrows(NBTLimitException.class, () -> reader(data, new NBTLimits(1 << 20, 512, 4)).readNBT());
+    }
+
+    @Test
+    void budgetStartsAgainForEveryRoot() throws IOException {
+        byte[] data = encode(allTypes());
+        NBTReadContext context = new NBTReadContext(new NBTLimits(1 << 20, 512, 1000));
+
+        for(int i = 0; i < 100; i++) {
+            DataReader reader = new DataReader(data);
+            reader.setNBTContext(context);
+
+            assertNotNull(reader.readNBT());
+        }
+    }
+
+    @Test
+    void rejectsNegativeLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new NBTLimits(-1, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new NBTLimits(1, -1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new NBTLimits(1, 1, -1));
+        assertThrows(IllegalArgumentException.class, () -> new NBTReadContext(null));
+    }
+}
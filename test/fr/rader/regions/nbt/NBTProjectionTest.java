@@ -0,0 +1,127 @@
+package fr.rader.regions.nbt;
+
+import fr.rader.regions.Test;
+import fr.rader.regions.nbt.tags.*;
+import fr.rader.regions.utils.DataReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static fr.rader.regions.Assertions.*;
+import static fr.rader.regions.TestData.*;
+
+public class NBTProjectionTest {
+
+    private static TagCompound sample() {
+        TagCompound root = chunk(2566,
+                section(0, new long[256], "minecraft:air", "minecraft:stone"),
+                section(1, null, "minecraft:air"),
+                section(2, new long[256], "minecraft:air", "minecraft:dirt"));
+
+        TagCompound level = root.getCompound("Level");
+        level.add(new TagLong("InhabitedTime", 42));
+        level.add(new TagLongArray("Heightmap", new long[37]));
+
+        TagList<TagString> strings = new TagList<>(TagString.class, "Strings");
+        strings.add(new TagString("a"));
+        level.add(strings);
+
+        return root;
+    }
+
+    private static TagCompound project(TagCompound root, String... paths) throws IOException {
+        return new DataReader(encode(root)).readNBT(new NBTProjection(paths));
+    }
+
+    @Test
+    void keepsOnlyTheProjectedPaths() throws IOException {
+        TagCompound projected = project(sample(), "Level.InhabitedTime", "Level.Sections[].Y");
+
+        TagCompound level = projected.getCompound("Level");
+        assertEquals(2, level.size());
+        assertEquals(42, level.getLong("InhabitedTime", 0));
+        assertFalse(projected.has("DataVersion"));
+
+        TagList<TagCompound> sections = level.getCompoundList("Sections");
+        assertEquals(3, sections.size());
+        for(int i = 0; i < 3; i++) {
+            assertEquals(1, sections.get(i).size());
+            assertEquals(i, sections.get(i).getByte("Y", (byte) -1));
+        }
+    }
+
+    @Test
+    void keepsWholeSubtrees() throws IOException {
+        TagCompound root = sample();
+        TagCompound projected = project(root, "Level.Sections");
+
+        assertEquals(root.getCompound("Level").get("Sections"), projected.getCompound("Level").get("Sections"));
+    }
+
+    @Test
+    void pathsGoingPastPrimitivesMatchNothing() throws IOException {
+        TagCompound projected = project(sample(), "Level.InhabitedTime.foo", "Level.Strings[].foo", "DataVersion.x");
+
+        assertEquals(0, projected.getCompound("Level").size());
+        assertFalse(projected.has("DataVersion"));
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void nestedListsKeepTheirIndices() throws IOException {
+        TagCompound root = new TagCompound("");
+        TagList<TagList<?>> outer = new TagList<>((Class) TagList.class, "Outer");
+
+        TagList<TagInt> ints = new TagList<>(TagInt.class);
+        ints.add(new TagInt(1));
+        outer.add(ints);
+
+        TagList<TagCompound> compounds = new TagList<>(TagCompound.class);
+        TagCompound element = new TagCompound();
+        element.add(new TagInt("x", 7));
+        element.add(new TagInt("y", 8));
+        compounds.add(element);
+        outer.add(compounds);
+        root.add(outer);
+
+        TagList<?> projected = project(root, "Outer[].x").getList("Outer");
+
+        assertEquals(2, projected.size());
+        assertEquals(0, ((TagList<?>) projected.get(0)).size());
+
+        TagCompound kept = ((TagList<?>) projected.get(1)).getAsCompoundList().get(0);
+        assertEquals(1, kept.size());
+        assertEquals(7, kept.getInt("x", 0));
+    }
+
+    @Test
+    void skipsListsOfEndTagsWhateverTheirLength() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TagCompound.TAG_ID);
+        out.writeUTF("");
+        out.writeByte(TagList.TAG_ID);
+        out.writeUTF("l");
+        out.writeByte(0);
+        out.writeInt(3);
+        out.writeByte(TagInt.TAG_ID);
+        out.writeUTF("k");
+        out.writeInt(5);
+        out.writeByte(0);
+
+        TagCompound projected = new DataReader(bytes.toByteArray()).readNBT(new NBTProjection("k"));
+
+        assertEquals(5, projected.getInt("k", 0));
+        assertFalse(projected.has("l"));
+    }
+
+    @Test
+    void rejectsInvalidPathsAndRoots() throws IOException {
+        assertThrows(IllegalArgumentException.class, () -> new NBTProjection(""));
+        assertThrows(IllegalArgumentException.class, () -> new NBTProjection("Level..Sections"));
+
+        assertThrows(NBTFormatException.class, () -> new DataReader(encode(new TagInt("i", 1))).readNBT(new NBTProjection("i")));
+        assertNull(new NBTProjection("a").read(new DataReader(new byte[1])));
+    }
+}
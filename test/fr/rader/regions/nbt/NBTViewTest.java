@@ -0,0 +1,146 @@
+package fr.rader.regions.nbt;
+
+import fr.rader.regions.Test;
+import fr.rader.regions.nbt.tags.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static fr.rader.regions.Assertions.*;
+import static fr.rader.regions.TestData.*;
+
+public class NBTViewTest {
+
+    /**
+     * @return a compound holding an array or a list named "a" whose length is <code>length</code>, without its elements
+     */
+    private static byte[] withLength(int tagID, int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TagCompound.TAG_ID);
+        out.writeUTF("");
+        out.writeByte(tagID);
+        out.writeUTF("a");
+        if(tagID == TagList.TAG_ID) {
+            out.writeByte(TagInt.TAG_ID);
+        }
+
+        out.writeInt(length);
+        out.writeByte(0);
+
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void readsValuesWithoutBuildingTags() throws IOException {
+        NBTView root = NBTView.wrap(encode(allTypes()));
+
+        assertEquals(TagCompound.TAG_ID, root.getTagID());
+        assertEquals("root", root.getName());
+        assertEquals(-3, root.get("byte").getAsByte());
+        assertEquals(1234, root.get("short").getAsShort());
+        assertEquals(-123456, root.get("int").getAsInt());
+        assertEquals(1L << 40, root.get("long").getAsLong());
+        assertTrue(root.get("float").getAsFloat() == 1.5f);
+        assertTrue(root.get("double").getAsDouble() == -2.25);
+        assertEquals("h\u00e9llo \u0000 \ud83d\ude00", root.get("string").getAsString());
+        assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 3}), root.get("bytes").getAsByteArray());
+        assertEquals(Long.MAX_VALUE, root.get("longs").getAsLongArray().get(1));
+        assertEquals(3, root.get("ints").getAsIntArray().remaining());
+
+        assertNull(root.get("missing"));
+        assertFalse(root.has("missing"));
+        assertEquals(allTypes().size(), root.size());
+        assertEquals(allTypes().size(), root.getEntries().size());
+    }
+
+    @Test
+    void navigatesNestedCompoundsAndLists() throws IOException {
+        NBTView root = NBTView.wrap(encode(allTypes()));
+
+        assertEquals("minecraft:chest", root.get("nested").get("id").getAsString());
+        assertEquals(0, root.get("nested").get("empty").size());
+
+        NBTView compounds = root.get("compounds");
+        assertEquals(TagCompound.TAG_ID, compounds.getChildrenID());
+        assertEquals(3, compounds.size());
+        for(int i = 0; i < 3; i++) {
+            assertEquals(i, compounds.get(i).get("i").getAsInt());
+        }
+
+        assertEquals("b", root.get("lists").get(0).get(1).getAsString());
+        assertThrows(IndexOutOfBoundsException.class, () -> compounds.get(3));
+        assertThrows(IllegalStateException.class, () -> root.get("int").getAsLong());
+    }
+
+    @Test
+    void indexedLookupsMatchScans() throws IOException {
+        NBTView scanned = NBTView.wrap(encode(allTypes()));
+        NBTView indexed = NBTView.wrap(encode(allTypes())).index();
+
+        for(NBTView entry : scanned.getEntries()) {
+            assertEquals(entry.toTag(), indexed.get(entry.getName()).toTag());
+        }
+
+        assertNull(indexed.get("missing"));
+        assertEquals(scanned.size(), indexed.size());
+    }
+
+    @Test
+    void buildsTheSameTags() throws IOException {
+        TagCompound root = allTypes();
+
+        assertEquals(root, NBTView.wrap(encode(root)).toTag());
+        assertEquals(root.get("compounds"), NBTView.wrap(encode(root)).get("compounds").toTag());
+    }
+
+    @Test
+    void rejectsLengthsThatDoNotFit() throws IOException {
+        int[] tagIDs = {TagByteArray.TAG_ID, TagList.TAG_ID, TagIntArray.TAG_ID, TagLongArray.TAG_ID};
+        int[] lengths = {-1, 1000, 0x20000000, Integer.MAX_VALUE};
+
+        for(int tagID : tagIDs) {
+            for(int length : lengths) {
+                NBTView root = NBTView.wrap(withLength(tagID, length));
+
+                assertThrows(NBTFormatException.class, root::size);
+                assertThrows(NBTFormatException.class, () -> root.get("missing"));
+                assertThrows(NBTFormatException.class, () -> root.get("a").size());
+                assertThrows(NBTFormatException.class, root::toTag);
+            }
+        }
+    }
+
+    @Test
+    void rejectsTruncatedData() throws IOException {
+        byte[] data = encode(allTypes());
+
+        for(int length = 0; length < data.length; length++) {
+            byte[] truncated = Arrays.copyOf(data, length);
+
+            assertThrows(NBTFormatException.class, () -> NBTView.wrap(truncated).toTag());
+        }
+    }
+
+    @Test
+    void checksTheLimitsOfTheView() throws IOException {
+        byte[] data = encode(allTypes());
+
+        NBTView shallow = NBTView.wrap(data, new NBTLimits(1 << 20, 1, 1000));
+        assertThrows(NBTLimitException.class, shallow::size);
+        assertThrows(NBTLimitException.class, shallow::toTag);
+
+        NBTView fewElements = NBTView.wrap(data, new NBTLimits(1 << 20, 512, 2));
+        assertThrows(NBTLimitException.class, () -> fewElements.get("compounds").size());
+
+        assertThrows(IllegalArgumentException.class, () -> NBTView.wrap(data, null));
+    }
+
+    @Test
+    void endTagsHaveNoView() {
+        assertNull(NBTView.wrap(new byte[1]));
+    }
+}
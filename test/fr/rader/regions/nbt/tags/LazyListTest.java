@@ -0,0 +1,157 @@
+package fr.rader.regions.nbt.tags;
+
+import fr.rader.regions.Test;
+import fr.rader.regions.mca.BlockState;
+import fr.rader.regions.mca.Chunk;
+import fr.rader.regions.mca.ChunkReadException;
+import fr.rader.regions.nbt.NBTFormatException;
+import fr.rader.regions.nbt.NBTLimitException;
+import fr.rader.regions.nbt.NBTLimits;
+import fr.rader.regions.nbt.NBTReadContext;
+import fr.rader.regions.utils.DataReader;
+
+import java.io.IOException;
+
+import static fr.rader.regions.Assertions.*;
+import static fr.rader.regions.TestData.*;
+
+public class LazyListTest {
+
+    private static TagCompound sample() {
+        TagCompound root = chunk(2566, section(0, new long[256], "minecraft:air", "minecraft:stone"));
+
+        TagList<TagCompound> tileEntities = new TagList<>(TagCompound.class, "TileEntities");
+        for(int i = 0; i < 3; i++) {
+            TagCompound tileEntity = new TagCompound();
+            tileEntity.add(new TagString("id", "minecraft:chest"));
+            tileEntity.add(new TagInt("x", i));
+            tileEntity.add(new TagList<>(TagCompound.class, "Items"));
+            tileEntities.add(tileEntity);
+        }
+
+        root.getCompound("Level").add(tileEntities);
+
+        // same name, but not at the lazy path
+        TagList<TagInt> other = new TagList<>(TagInt.class, "TileEntities");
+        other.add(new TagInt(1));
+        root.add(other);
+
+        return root;
+    }
+
+    private static TagCompound read(byte[] data) throws IOException {
+        return read(data, NBTLimits.DEFAULT);
+    }
+
+    private static TagCompound read(byte[] data, NBTLimits limits) throws IOException {
+        NBTReadContext context = new NBTReadContext(limits);
+        context.setLazyPaths("Level.TileEntities");
+
+        DataReader reader = new DataReader(data);
+        reader.setNBTContext(context);
+
+        return reader.readNBT();
+    }
+
+    /**
+     * @return the encoded sample, with the first name of the tile entities turned into invalid Modified UTF-8
+     */
+    private static byte[] corruptTileEntities() {
+        byte[] data = encode(sample());
+        for(int i = 0; i < data.length - 1; i++) {
+            if(data[i] == 'i' && data[i + 1] == 'd') {
+                data[i] = (byte) 0xff;
+                break;
+            }
+        }
+
+        return data;
+    }
+
+    private static TagList<?> tileEntities(TagCompound root) {
+        return root.getCompound("Level").getList("TileEntities");
+    }
+
+    @Test
+    void onlyTheListsAtTheLazyPathsAreKeptAsBytes() throws IOException {
+        TagCompound root = read(encode(sample()));
+
+        assertFalse(tileEntities(root).isDecoded());
+        assertTrue(((TagList<?>) root.get("TileEntities")).isDecoded());
+        assertTrue(root.getCompound("Level").getList("Sections").isDecoded());
+    }
+
+    @Test
+    void undecodedListsAreWrittenBackAsTheyWere() throws IOException {
+        TagCompound expected = sample();
+        byte[] data = encode(expected);
+        TagCompound root = read(data);
+
+        assertArrayEquals(data, encode(root));
+        assertEquals(expected.contentHash(), root.contentHash());
+        assertEquals(3, tileEntities(root).size());
+        assertEquals(TagCompound.TAG_ID, tileEntities(root).getChildrenID());
+        assertArrayEquals(data, encode(root.copy()));
+        assertFalse(tileEntities(root).isDecoded());
+
+        // comparing it to decoded tags decodes it
+        assertEquals(expected, root);
+        assertEquals(expected.hashCode(), root.hashCode());
+        assertEquals(expected.canonicalHash(), root.canonicalHash());
+    }
+
+    @Test
+    void listsAreDecodedWhenTheirElementsAreAccessed() throws IOException {
+        TagCompound root = read(encode(sample()));
+        TagList<TagCompound> tileEntities = tileEntities(root).getAsCompoundList();
+
+        assertEquals(2, tileEntities.get(2).getInt("x", -1));
+        assertTrue(tileEntities.isDecoded());
+
+        tileEntities.get(0).put(new TagInt("x", 42));
+
+        TagCompound expected = sample();
+        tileEntities(expected).getAsCompoundList().get(0).put(new TagInt("x", 42));
+        assertArrayEquals(encode(expected), encode(root));
+    }
+
+    @Test
+    void snapshotsShareTheUndecodedBytes() throws IOException {
+        TagCompound root = read(encode(sample()));
+        TagCompound snapshot = root.snapshot();
+
+        tileEntities(root).getAsCompoundList().get(0).put(new TagString("id", "changed"));
+
+        TagList<TagCompound> frozen = tileEntities(snapshot).getAsCompoundList();
+        assertEquals("minecraft:chest", frozen.get(0).getString("id", null));
+        assertTrue(frozen.isFrozen());
+        assertThrows(UnsupportedOperationException.class, () -> frozen.get(1).put(new TagInt("y", 1)));
+    }
+
+    @Test
+    void capturedListsAreCheckedWhileTheyAreRead() throws IOException {
+        byte[] data = corruptTileEntities();
+
+        assertThrows(NBTFormatException.class, () -> read(data));
+        assertThrows(NBTLimitException.class, () -> read(encode(sample()), new NBTLimits(1 << 20, 2, 1000)));
+    }
+
+    @Test
+    void chunksKeepTheirTileEntitiesAsBytes() throws IOException {
+        TagCompound root = sample();
+        Chunk chunk = load(root);
+
+        chunk.setBlockStateAt(0, 0, 0, BlockState.of("minecraft:stone"));
+        TagCompound serialized = chunk.serialize();
+
+        assertFalse(tileEntities(serialized).isDecoded());
+        assertEquals(tileEntities(root), tileEntities(serialized));
+    }
+
+    @Test
+    void corruptTileEntitiesMakeTheChunkCorrupt() throws IOException {
+        byte[] data = corruptTileEntities();
+
+        assertThrows(ChunkReadException.class, () -> load(data));
+    }
+}
@@ -0,0 +1,124 @@
+package fr.rader.regions.nbt.tags;
+
+import fr.rader.regions.Test;
+
+import java.util.List;
+
+import static fr.rader.regions.Assertions.*;
+import static fr.rader.regions.TestData.*;
+
+public class SnapshotTest {
+
+    private static TagCompound sample() {
+        TagCompound root = new TagCompound("");
+        TagCompound level = new TagCompound("Level");
+        level.add(new TagInt("x", 1));
+
+        TagList<TagCompound> list = new TagList<>(TagCompound.class, "L");
+        for(int i = 0; i < 5; i++) {
+            TagCompound element = new TagCompound();
+            element.add(new TagInt("v", i));
+            list.add(element);
+        }
+
+        level.add(list);
+        root.add(level);
+
+        return root;
+    }
+
+    @Test
+    void snapshotsDoNotSeeLaterEdits() {
+        TagCompound root = sample();
+        int hashCode = root.hashCode();
+
+        TagCompound snapshot = root.snapshot();
+        root.getCompound("Level").put(new TagInt("x", 7));
+        root.getCompound("Level").getCompoundList("L").get(0).add(new TagInt("n", 2));
+
+        assertEquals(1, snapshot.getCompound("Level").getInt("x", 0));
+        assertEquals(7, root.getCompound("Level").getInt("x", 0));
+        assertEquals(1, snapshot.getCompound("Level").getCompoundList("L").get(0).size());
+        assertEquals(2, root.getCompound("Level").getCompoundList("L").get(0).size());
+
+        assertEquals(sample(), snapshot);
+        assertEquals(hashCode, snapshot.hashCode());
+        assertNotEquals(hashCode, root.hashCode());
+    }
+
+    @Test
+    void snapshotsAreImmutable() {
+        TagCompound root = sample();
+        TagInt x = (TagInt) root.getCompound("Level").get("x");
+
+        TagCompound snapshot = root.snapshot();
+        assertTrue(snapshot.isFrozen());
+        assertSame(snapshot, snapshot.snapshot());
+
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.add(new TagInt("y", 1)));
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.getCompound("Level").put(new TagInt("x", 2)));
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.setName("renamed"));
+
+        // tags fetched before the snapshot are part of it
+        assertThrows(UnsupportedOperationException.class, () -> x.setValue(5));
+    }
+
+    @Test
+    void iteratingDoesNotCopySharedTags() {
+        TagCompound root = sample();
+        TagCompound snapshot = root.snapshot();
+
+        TagList<TagCompound> live = root.getCompound("Level").getCompoundList("L");
+        List<TagCompound> frozen = snapshot.getCompound("Level").getCompoundList("L").getTags();
+
+        int i = 0;
+        for(TagCompound element : live) {
+            assertSame(frozen.get(i++), element);
+            assertTrue(element.isFrozen());
+        }
+
+        // only the element fetched to be changed is copied
+        live.get(2).put(new TagInt("v", 42));
+        assertFalse(live.getTags().get(2).isFrozen());
+        assertTrue(live.getTags().get(3).isFrozen());
+        assertEquals(2, frozen.get(2).getInt("v", -1));
+        assertEquals(42, live.getTags().get(2).getInt("v", -1));
+
+        assertThrows(UnsupportedOperationException.class, () -> live.getTags().get(3).put(new TagInt("x", 1)));
+        assertThrows(UnsupportedOperationException.class, () -> live.getTags().add(new TagCompound()));
+        assertThrows(UnsupportedOperationException.class, () -> root.getTags().remove(0));
+    }
+
+    @Test
+    void copiesAreMutable() {
+        TagCompound snapshot = allTypes().snapshot();
+        TagCompound copy = snapshot.copy();
+
+        assertEquals(snapshot, copy);
+        assertFalse(copy.isFrozen());
+
+        copy.put(new TagInt("int", 0));
+        assertEquals(-123456, snapshot.getInt("int", 0));
+    }
+
+    @Test
+    void arraysAreCopiedOnTheWayInAndOut() {
+        long[] values = {1, 2, 3};
+        TagLongArray array = new TagLongArray("L", values);
+        TagCompound root = new TagCompound("");
+        root.add(array);
+
+        long contentHash = root.contentHash();
+        values[0] = 99;
+        root.getLongArray("L")[1] = 99;
+        array.getValue()[2] = 99;
+
+        assertArrayEquals(new long[]{1, 2, 3}, array.getValue());
+        assertEquals(contentHash, root.contentHash());
+
+        TagCompound snapshot = root.snapshot();
+        ((TagLongArray) root.get("L")).replace(0, 5);
+        assertEquals(5, root.getLongArray("L")[0]);
+        assertEquals(1, snapshot.getLongArray("L")[0]);
+    }
+}
@@ -0,0 +1,134 @@
+package fr.rader.regions.nbt.tags;
+
+import fr.rader.regions.Test;
+
+import java.io.IOException;
+
+import static fr.rader.regions.Assertions.*;
+import static fr.rader.regions.TestData.*;
+
+public class TagBaseTest {
+
+    private static TagCompound pair(boolean swapped) {
+        TagCompound compound = new TagCompound();
+        TagString name = new TagString("Name", "x");
+        TagInt count = new TagInt("n", 3);
+
+        compound.add(swapped ? count : name);
+        compound.add(swapped ? name : count);
+
+        return compound;
+    }
+
+    @Test
+    void equalTagsHaveTheSameHashes() throws IOException {
+        TagCompound root = allTypes();
+        TagCompound decoded = decode(encode(root));
+
+        assertEquals(root, decoded);
+        assertEquals(root.hashCode(), decoded.hashCode());
+        assertEquals(root.contentHash(), decoded.contentHash());
+        assertEquals(root.canonicalHash(), decoded.canonicalHash());
+        assertEquals(root, root.copy());
+    }
+
+    @Test
+    void compoundsAreEqualWhateverTheOrderOfTheirEntries() {
+        TagCompound compound = pair(false);
+        TagCompound swapped = pair(true);
+
+        assertEquals(compound, swapped);
+        assertEquals(compound.hashCode(), swapped.hashCode());
+        assertEquals(compound.canonicalHash(), swapped.canonicalHash());
+
+        // the content hash follows the bytes, which are in another order
+        assertNotEquals(compound.contentHash(), swapped.contentHash());
+    }
+
+    @Test
+    void differentTagsAreNotEqual() {
+        assertFalse(new TagInt("a", 1).equals(new TagInt("b", 1)));
+        assertFalse(new TagInt("a", 1).equals(new TagInt("a", 2)));
+        assertFalse(new TagInt("a", 1).equals(new TagLong("a", 1)));
+
+        TagList<TagInt> ints = new TagList<>(TagInt.class);
+        TagList<TagCompound> compounds = new TagList<>(TagCompound.class);
+
+        // empty lists are written the same whatever their type
+        assertEquals(ints, compounds);
+
+        ints.add(new TagInt(1));
+        compounds.add(new TagCompound());
+        assertFalse(ints.equals(compounds));
+
+        assertFalse(new TagLongArray("a", new long[]{1}).equals(new TagLongArray("a", new long[]{2})));
+        assertNotEquals(new TagString("a", "x").contentHash(), new TagString("a", "y").contentHash());
+    }
+
+    @Test
+    void nestedChangesDropTheCachedHashes() {
+        TagCompound compound = pair(false);
+        TagList<TagCompound> list = new TagList<>(TagCompound.class, "list");
+        list.add(compound);
+
+        TagCompound root = new TagCompound("root");
+        root.add(list);
+
+        int hashCode = root.hashCode();
+        long contentHash = root.contentHash();
+
+        ((TagInt) compound.get("n")).setValue(4);
+        assertNotEquals(hashCode, root.hashCode());
+        assertNotEquals(contentHash, root.contentHash());
+        assertFalse(compound.equals(pair(false)));
+
+        ((TagInt) compound.get("n")).setValue(3);
+        assertEquals(hashCode, root.hashCode());
+        assertEquals(contentHash, root.contentHash());
+        assertEquals(compound, pair(false));
+    }
+
+    @Test
+    void rejectsTagsThatAreAlreadyInAContainer() {
+        TagInt tag = new TagInt("x", 1);
+        TagCompound first = new TagCompound("first");
+        first.add(tag);
+
+        TagCompound second = new TagCompound("second");
+        assertThrows(IllegalArgumentException.class, () -> second.add(tag));
+        assertThrows(IllegalArgumentException.class, () -> second.put(tag));
+
+        TagInt element = new TagInt(3);
+        TagList<TagInt> list = new TagList<>(TagInt.class, "list");
+        list.add(element);
+
+        TagList<TagInt> other = new TagList<>(TagInt.class, "other");
+        other.add(new TagInt(4));
+        assertThrows(IllegalArgumentException.class, () -> other.add(element));
+        assertThrows(IllegalArgumentException.class, () -> other.replace(0, element));
+
+        // putting a tag back in its own slot does nothing
+        first.put(tag);
+        list.replace(0, element);
+        assertEquals(1, first.size());
+        assertSame(element, list.get(0));
+
+        // a removed tag can go somewhere else
+        first.remove(tag);
+        second.add(tag);
+        assertSame(tag, second.get("x"));
+    }
+
+    @Test
+    void frozenTagsCanBeShared() {
+        TagCompound compound = pair(false);
+        TagCompound snapshot = compound.snapshot();
+
+        TagCompound other = new TagCompound("other");
+        other.add(snapshot.get("n"));
+
+        // fetching it from a mutable compound would replace it with a mutable copy
+        assertSame(snapshot.get("n"), other.getTags().get(0));
+        assertTrue(other.getTags().get(0).isFrozen());
+    }
+}
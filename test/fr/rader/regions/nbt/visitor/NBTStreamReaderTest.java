@@ -0,0 +1,177 @@
+package fr.rader.regions.nbt.visitor;
+
+import fr.rader.regions.Test;
+import fr.rader.regions.nbt.NBTFormatException;
+import fr.rader.regions.nbt.tags.*;
+import fr.rader.regions.utils.ByteArrayInOutStream;
+import fr.rader.regions.utils.DataReader;
+import fr.rader.regions.utils.DataWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static fr.rader.regions.Assertions.*;
+import static fr.rader.regions.TestData.*;
+
+public class NBTStreamReaderTest {
+
+    /**
+     * Records the events it receives, and answers <code>answer</code> to the events listed in <code>answerTo</code>
+     */
+    private static class RecordingVisitor implements NBTVisitor {
+
+        private final List<String> events = new ArrayList<>();
+        private final String answerTo;
+        private final Result answer;
+
+        RecordingVisitor() {
+            this(null, Result.CONTINUE);
+        }
+
+        RecordingVisitor(String answerTo, Result answer) {
+            this.answerTo = answerTo;
+            this.answer = answer;
+        }
+
+        private Result record(String event) {
+            events.add(event);
+
+            return event.equals(answerTo) ? answer : Result.CONTINUE;
+        }
+
+        @Override
+        public Result visitName(int tagID, String name) {
+            return record(name);
+        }
+
+        @Override
+        public Result visitInt(int value) {
+            return record("int " + value);
+        }
+
+        @Override
+        public Result visitString(String value) {
+            return record("string " + value);
+        }
+
+        @Override
+        public Result visitListStart(int childrenID, int length) {
+            return record("list " + childrenID + " " + length);
+        }
+
+        @Override
+        public Result visitListEnd() {
+            return record("list end");
+        }
+
+        @Override
+        public Result visitCompoundStart() {
+            return record("compound");
+        }
+
+        @Override
+        public Result visitCompoundEnd() {
+            return record("compound end");
+        }
+    }
+
+    private static TagCompound sample() {
+        TagCompound root = new TagCompound("");
+        root.add(new TagInt("a", 1));
+
+        TagCompound nested = new TagCompound("nested");
+        nested.add(new TagString("s", "x"));
+        root.add(nested);
+
+        TagList<TagInt> list = new TagList<>(TagInt.class, "list");
+        list.add(new TagInt(2));
+        list.add(new TagInt(3));
+        root.add(list);
+
+        root.add(new TagInt("b", 4));
+
+        return root;
+    }
+
+    private static List<String> visit(TagCompound root, RecordingVisitor visitor) throws IOException {
+        new DataReader(encode(root)).readNBT(visitor);
+
+        return visitor.events;
+    }
+
+    @Test
+    void writerVisitorRewritesTheSameBytes() throws IOException {
+        byte[] encoded = encode(allTypes());
+
+        DataWriter writer = new DataWriter();
+        assertTrue(new DataReader(encoded).readNBT(new NBTWriterVisitor(writer)));
+
+        assertArrayEquals(encoded, ((ByteArrayInOutStream) writer.getStream()).toByteArray());
+    }
+
+    @Test
+    void pushesEventsInOrder() throws IOException {
+        assertEquals(list("", "compound", "a", "int 1", "nested", "compound", "s", "string x", "compound end",
+                "list", "list 3 2", "int 2", "int 3", "list end", "b", "int 4", "compound end"), visit(sample(), new RecordingVisitor()));
+    }
+
+    @Test
+    void skipsTheTagsTheVisitorSkips() throws IOException {
+        assertEquals(list("", "compound", "a", "int 1", "nested", "list", "list 3 2", "int 2", "int 3", "list end", "b", "int 4", "compound end"),
+                visit(sample(), new RecordingVisitor("nested", NBTVisitor.Result.SKIP)));
+
+        // the end of a skipped compound or list isn't visited
+        assertEquals(list("", "compound", "a", "int 1", "nested", "compound", "list", "list 3 2", "b", "int 4", "compound end"),
+                skipNestedTags(sample(), "list 3 2"));
+    }
+
+    private static List<String> skipNestedTags(TagCompound root, String listEvent) throws IOException {
+        RecordingVisitor visitor = new RecordingVisitor(listEvent, NBTVisitor.Result.SKIP) {
+
+            @Override
+            public Result visitCompoundStart() {
+                super.visitCompoundStart();
+
+                // skip every compound but the root
+                return (super.events.size() > 2) ? Result.SKIP : Result.CONTINUE;
+            }
+        };
+
+        return visit(root, visitor);
+    }
+
+    @Test
+    void stopsRightAway() throws IOException {
+        RecordingVisitor visitor = new RecordingVisitor("string x", NBTVisitor.Result.STOP);
+
+        assertFalse(new DataReader(encode(sample())).readNBT(visitor));
+        assertEquals(list("", "compound", "a", "int 1", "nested", "compound", "s", "string x"), visitor.events);
+    }
+
+    @Test
+    void listsOfEndTagsAreEmpty() throws IOException {
+        byte[] data = {TagCompound.TAG_ID, 0, 0, TagList.TAG_ID, 0, 1, 'l', 0, 0, 0, 0, 5, 0};
+
+        RecordingVisitor visitor = new RecordingVisitor();
+        new DataReader(data).readNBT(visitor);
+
+        assertEquals(list("", "compound", "l", "list 0 0", "list end", "compound end"), visitor.events);
+    }
+
+    @Test
+    void rejectsUnknownTags() {
+        byte[] data = {TagCompound.TAG_ID, 0, 0, 42, 0, 1, 'x', 0};
+
+        assertThrows(NBTFormatException.class, () -> new DataReader(data).readNBT(new RecordingVisitor()));
+    }
+
+    private static List<String> list(String... events) {
+        List<String> list = new ArrayList<>();
+        for(String event : events) {
+            list.add(event);
+        }
+
+        return list;
+    }
+}
@@ -0,0 +1,136 @@
+package fr.rader.regions.utils;
+
+import fr.rader.regions.Test;
+import fr.rader.regions.mca.Chunk;
+import fr.rader.regions.nbt.NBTReadContext;
+import fr.rader.regions.nbt.tags.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static fr.rader.regions.Assertions.*;
+import static fr.rader.regions.TestData.*;
+
+public class CanonicalEncodingTest {
+
+    private static TagCompound entries(String... names) {
+        TagCompound compound = new TagCompound("");
+        for(String name : names) {
+            if(name.equals("l")) {
+                compound.add(new TagList<>(TagCompound.class, "l"));
+            } else if(name.equals("c")) {
+                TagCompound nested = new TagCompound("c");
+                nested.add(new TagInt("z", 1));
+                nested.add(new TagInt("y", 2));
+                compound.add(nested);
+            } else {
+                compound.add(new TagInt(name, name.charAt(0)));
+            }
+        }
+
+        return compound;
+    }
+
+    @Test
+    void encodingDoesNotDependOnTheOrderOfTheEntries() {
+        TagCompound compound = entries("b", "l", "a", "c");
+        TagCompound reordered = entries("c", "a", "l", "b");
+
+        assertFalse(Arrays.equals(encode(compound), encode(reordered)));
+        assertArrayEquals(encodeCanonical(compound), encodeCanonical(reordered));
+        assertEquals(compound.canonicalHash(), reordered.canonicalHash());
+        assertNotEquals(compound.contentHash(), reordered.contentHash());
+    }
+
+    @Test
+    void entriesAreSortedByName() {
+        TagCompound sorted = new TagCompound("");
+        sorted.add(new TagInt("a", 'a'));
+        sorted.add(new TagInt("b", 'b'));
+
+        TagCompound nested = new TagCompound("c");
+        nested.add(new TagInt("y", 2));
+        nested.add(new TagInt("z", 1));
+        sorted.add(nested);
+
+        TagList<TagInt> empty = new TagList<>(TagInt.class, "l");
+        sorted.add(empty);
+
+        byte[] canonical = encodeCanonical(entries("l", "c", "b", "a"));
+        byte[] expected = encode(sorted);
+
+        // the only other difference is the children ID of the empty list, right before its length
+        expected[expected.length - 6] = 0;
+        assertArrayEquals(expected, canonical);
+    }
+
+    @Test
+    void emptyListsHaveNoChildrenID() {
+        byte[] ints = encodeCanonical(new TagList<>(TagInt.class, "l"));
+        byte[] compounds = encodeCanonical(new TagList<>(TagCompound.class, "l"));
+
+        assertArrayEquals(new byte[]{TagList.TAG_ID, 0, 1, 'l', 0, 0, 0, 0, 0}, ints);
+        assertArrayEquals(ints, compounds);
+        assertEquals(TagInt.TAG_ID, encode(new TagList<>(TagInt.class, "l"))[4]);
+    }
+
+    @Test
+    void listsKeepTheOrderOfTheirElements() {
+        TagList<TagInt> list = new TagList<>(TagInt.class, "l");
+        list.add(new TagInt(2));
+        list.add(new TagInt(1));
+
+        TagList<TagInt> reversed = new TagList<>(TagInt.class, "l");
+        reversed.add(new TagInt(1));
+        reversed.add(new TagInt(2));
+
+        assertArrayEquals(encode(list), encodeCanonical(list));
+        assertFalse(Arrays.equals(encodeCanonical(list), encodeCanonical(reversed)));
+    }
+
+    @Test
+    void canonicalDataReadsBackToEqualTags() throws IOException {
+        TagCompound root = allTypes();
+
+        assertEquals(root, decode(encodeCanonical(root)));
+        assertArrayEquals(encodeCanonical(root), encodeCanonical(decode(encode(root))));
+    }
+
+    @Test
+    void lazyListsAreWrittenInTheirCanonicalForm() throws IOException {
+        TagCompound root = new TagCompound("");
+        TagList<TagCompound> entities = new TagList<>(TagCompound.class, "Entities");
+        TagCompound entity = new TagCompound();
+        entity.add(new TagInt("b", 1));
+        entity.add(new TagInt("a", 2));
+        entities.add(entity);
+        root.add(entities);
+
+        DataReader reader = new DataReader(encode(root));
+        NBTReadContext context = new NBTReadContext();
+        context.setLazyPaths("Entities");
+        reader.setNBTContext(context);
+
+        TagCompound lazy = reader.readNBT();
+        assertArrayEquals(encodeCanonical(root), encodeCanonical(lazy));
+        assertEquals(root.canonicalHash(), lazy.canonicalHash());
+    }
+
+    @Test
+    void chunksWithTheSameContentHaveTheSameCanonicalHash() throws IOException {
+        TagCompound root = chunk(2566, section(0, new long[256], "minecraft:air", "minecraft:stone"));
+        root.add(new TagString("Status", "full"));
+
+        TagCompound reordered = new TagCompound("");
+        for(int i = root.size() - 1; i >= 0; i--) {
+            reordered.add(root.getTags().get(i).copy());
+        }
+
+        Chunk chunk = load(root);
+        Chunk other = load(reordered);
+
+        assertNotEquals(chunk.getContentHash(), other.getContentHash());
+        assertEquals(chunk.getCanonicalHash(), other.getCanonicalHash());
+        assertEquals(root.canonicalHash(), chunk.getCanonicalHash());
+    }
+}
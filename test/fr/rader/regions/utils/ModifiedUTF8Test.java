@@ -0,0 +1,149 @@
+package fr.rader.regions.utils;
+
+import fr.rader.regions.Test;
+import fr.rader.regions.nbt.NBTFormatException;
+import fr.rader.regions.nbt.NBTView;
+import fr.rader.regions.nbt.tags.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static fr.rader.regions.Assertions.*;
+import static fr.rader.regions.TestData.*;
+
+public class ModifiedUTF8Test {
+
+    private static final String[] STRINGS = {
+            "",
+            "ascii",
+            "h\u00e9llo",
+            "\u0000",
+            "\u007f\u0080\u07ff\u0800\uffff",
+            "\ud83d\ude00 smile",
+            "minecraft:oak_stairs[facing=north]"
+    };
+
+    /**
+     * @return the bytes written by {@link DataOutputStream#writeUTF(String)}, without the length prefix
+     */
+    private static byte[] writeUTF(String value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeUTF(value);
+
+        byte[] data = bytes.toByteArray();
+
+        return Arrays.copyOfRange(data, 2, data.length);
+    }
+
+    @Test
+    void encodesLikeDataOutput() throws IOException {
+        for(String value : STRINGS) {
+            byte[] expected = writeUTF(value);
+
+            assertArrayEquals(expected, ModifiedUTF8.encode(value));
+            assertEquals(expected.length, ModifiedUTF8.getEncodedLength(value));
+            assertEquals(value, ModifiedUTF8.decode(expected));
+        }
+    }
+
+    @Test
+    void decodesInsideALargerArray() {
+        byte[] encoded = ModifiedUTF8.encode("h\u00e9llo");
+        byte[] data = new byte[encoded.length + 4];
+        System.arraycopy(encoded, 0, data, 2, encoded.length);
+
+        assertEquals("h\u00e9llo", ModifiedUTF8.decode(data, 2, encoded.length));
+    }
+
+    @Test
+    void rejectsMalformedBytes() {
+        byte[][] malformed = {
+                {(byte) 0xc3},                      // truncated 2 bytes character
+                {(byte) 0xe2, (byte) 0x82},         // truncated 3 bytes character
+                {(byte) 0xc3, 'a'},                 // bad continuation byte
+                {(byte) 0xf0, (byte) 0x9f, (byte) 0x98, (byte) 0x80},  // standard UTF-8 4 bytes character
+                {(byte) 0x80}                       // lone continuation byte
+        };
+
+        for(byte[] data : malformed) {
+            assertThrows(NBTFormatException.class, () -> ModifiedUTF8.decode(data));
+            assertThrows(NBTFormatException.class, () -> ModifiedUTF8.validate(data, 0, data.length));
+        }
+
+        ModifiedUTF8.validate(ModifiedUTF8.encode(STRINGS[4]), 0, ModifiedUTF8.getEncodedLength(STRINGS[4]));
+    }
+
+    @Test
+    void rejectsStringsTooLongToBeEncoded() {
+        char[] chars = new char[ModifiedUTF8.MAX_LENGTH / 2 + 1];
+        Arrays.fill(chars, '\u00e9');
+
+        assertThrows(IllegalArgumentException.class, () -> ModifiedUTF8.encode(new String(chars)));
+    }
+
+    @Test
+    void tagsWriteNamesAndStringsLikeDataOutput() throws IOException {
+        TagCompound root = new TagCompound("");
+        for(String value : STRINGS) {
+            root.add(new TagString(value, value));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TagCompound.TAG_ID);
+        out.writeUTF("");
+        for(String value : STRINGS) {
+            out.writeByte(TagString.TAG_ID);
+            out.writeUTF(value);
+            out.writeUTF(value);
+        }
+
+        out.writeByte(0);
+
+        assertArrayEquals(bytes.toByteArray(), encode(root));
+
+        TagCompound decoded = decode(encode(root));
+        NBTView view = NBTView.wrap(encode(root));
+        for(String value : STRINGS) {
+            assertEquals(value, decoded.getString(value, null));
+            assertEquals(value, view.get(value).getAsString());
+        }
+
+        // the names and strings are written from the bytes they were read from
+        assertArrayEquals(encode(root), encode(decoded));
+        assertEquals(root.contentHash(), decoded.contentHash());
+    }
+
+    @Test
+    void renamedTagsWriteTheirNewName() throws IOException {
+        TagCompound decoded = decode(encode(allTypes()));
+        TagInt tag = (TagInt) decoded.get("int");
+
+        encode(decoded);
+        tag.setName("\u00e9");
+
+        TagCompound expected = allTypes();
+        expected.get("int").setName("\u00e9");
+
+        assertArrayEquals(encode(expected), encode(decoded));
+        assertEquals(-123456, decode(encode(decoded)).getInt("\u00e9", 0));
+    }
+
+    @Test
+    void stringsAreDecodedWhenTheyAreRead() throws IOException {
+        TagString tag = (TagString) decode(encode(allTypes())).get("string");
+        assertFalse(tag.isDecoded());
+
+        assertEquals("h\u00e9llo \u0000 \ud83d\ude00", tag.getValue());
+        assertTrue(tag.isDecoded());
+
+        tag.setValue("changed");
+        assertArrayEquals(encode(new TagString("string", "changed")), encode(tag));
+
+        TagString encoded = TagString.fromEncoded("s", ModifiedUTF8.encode("\u00e9"));
+        assertEquals(new TagString("s", "\u00e9"), encoded);
+        assertThrows(IllegalArgumentException.class, () -> TagString.fromEncoded("s", null));
+    }
+}
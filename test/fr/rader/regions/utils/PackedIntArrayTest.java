@@ -0,0 +1,178 @@
+package fr.rader.regions.utils;
+
+import fr.rader.regions.Test;
+
+import java.util.Random;
+
+import static fr.rader.regions.Assertions.*;
+
+public class PackedIntArrayTest {
+
+    private static final int SIZE = 4096;
+
+    private static int[] randomValues(Random random, int bitsPerValue) {
+        long mask = (1L << bitsPerValue) - 1;
+
+        int[] values = new int[SIZE];
+        for(int i = 0; i < SIZE; i++) {
+            values[i] = (int) (random.nextLong() & mask);
+        }
+
+        return values;
+    }
+
+    /**
+     * Pack the values back to back one bit at a time, the way block states were stored before 1.16
+     */
+    private static long[] spanning(int bitsPerValue, int[] values) {
+        long[] data = new long[PackedIntArray.getSpanningDataLength(bitsPerValue, values.length)];
+
+        for(int i = 0; i < values.length; i++) {
+            for(int bit = 0; bit < bitsPerValue; bit++) {
+                if((values[i] >>> bit & 1) != 0) {
+                    long bitIndex = (long) i * bitsPerValue + bit;
+                    data[(int) (bitIndex >>> 6)] |= 1L << (bitIndex & 63);
+                }
+            }
+        }
+
+        return data;
+    }
+
+    @Test
+    void getsTheValuesItIsSetToForEveryWidth() {
+        Random random = new Random(1);
+
+        for(int bits = 1; bits <= 32; bits++) {
+            int[] values = randomValues(random, bits);
+            PackedIntArray array = new PackedIntArray(bits, SIZE);
+            assertEquals(PackedIntArray.getDataLength(bits, SIZE), array.getData().length);
+
+            for(int i = 0; i < SIZE; i++) {
+                array.set(i, values[i]);
+            }
+
+            // setting a value leaves its neighbours alone
+            for(int i = SIZE - 1; i >= 0; i -= 3) {
+                array.set(i, values[i]);
+            }
+
+            for(int i = 0; i < SIZE; i++) {
+                assertEquals(values[i], array.get(i));
+            }
+
+            int[] unpacked = new int[SIZE];
+            array.unpack(unpacked);
+            assertArrayEquals(values, unpacked);
+
+            PackedIntArray packed = new PackedIntArray(bits, SIZE);
+            packed.pack(values);
+            assertArrayEquals(array.getData(), packed.getData());
+        }
+    }
+
+    @Test
+    void valuesNeverSpanTwoLongs() {
+        PackedIntArray array = new PackedIntArray(5, 13);
+        for(int i = 0; i < 13; i++) {
+            array.set(i, 31);
+        }
+
+        // 12 values of 5 bits per long, the 4 high bits are left unused
+        assertEquals(2, array.getData().length);
+        assertEquals((1L << 60) - 1, array.getData()[0]);
+        assertEquals(31, array.getData()[1]);
+    }
+
+    @Test
+    void fillsRangesOfEveryAlignment() {
+        int[] bitWidths = {1, 4, 5, 7, 13, 32};
+
+        for(int bits : bitWidths) {
+            int value = (int) ((1L << bits) - 1);
+
+            for(int from = 0; from < 70; from += 13) {
+                for(int to = from; to <= 200; to += 17) {
+                    PackedIntArray array = new PackedIntArray(bits, 200);
+                    array.fill(from, to, value);
+
+                    for(int i = 0; i < 200; i++) {
+                        assertEquals((i >= from && i < to) ? value : 0, array.get(i));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void convertsTheSpanningLayout() {
+        Random random = new Random(2);
+
+        for(int bits = 1; bits <= 32; bits++) {
+            int[] values = randomValues(random, bits);
+            long[] spanning = spanning(bits, values);
+
+            PackedIntArray array = PackedIntArray.fromSpanning(bits, SIZE, spanning);
+            for(int i = 0; i < SIZE; i++) {
+                assertEquals(values[i], array.get(i));
+            }
+
+            assertArrayEquals(spanning, array.toSpanning());
+        }
+    }
+
+    @Test
+    void resizesWithoutChangingTheValues() {
+        Random random = new Random(3);
+        int[] values = randomValues(random, 5);
+
+        PackedIntArray array = new PackedIntArray(5, SIZE);
+        array.pack(values);
+
+        int[] widths = {5, 6, 9, 16, 32};
+        for(int bits : widths) {
+            PackedIntArray resized = array.resize(bits);
+            assertEquals(bits, resized.getBitsPerValue());
+
+            for(int i = 0; i < SIZE; i++) {
+                assertEquals(values[i], resized.get(i));
+            }
+
+            // and back
+            PackedIntArray shrunk = resized.resize(5);
+            assertArrayEquals(array.getData(), shrunk.getData());
+        }
+
+        array.set(7, 31);
+        assertThrows(IllegalArgumentException.class, () -> array.resize(4));
+    }
+
+    @Test
+    void unpacksThroughALookupTable() {
+        PackedIntArray array = new PackedIntArray(2, 10);
+        for(int i = 0; i < 10; i++) {
+            array.set(i, i % 3);
+        }
+
+        short[] out = new short[10];
+        array.unpack(out, new short[]{100, 200, 300, 0});
+
+        for(int i = 0; i < 10; i++) {
+            assertEquals(100 * (i % 3 + 1), out[i]);
+        }
+    }
+
+    @Test
+    void rejectsInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new PackedIntArray(0, 16));
+        assertThrows(IllegalArgumentException.class, () -> new PackedIntArray(33, 16));
+        assertThrows(IllegalArgumentException.class, () -> new PackedIntArray(4, 4096, new long[255]));
+        assertThrows(IllegalArgumentException.class, () -> PackedIntArray.fromSpanning(5, 4096, new long[342]));
+
+        PackedIntArray array = new PackedIntArray(4, 16);
+        assertThrows(IndexOutOfBoundsException.class, () -> array.get(16));
+        assertThrows(IndexOutOfBoundsException.class, () -> array.set(-1, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> array.fill(4, 3, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> array.fill(0, 17, 0));
+    }
+}